@@ -1,52 +1,92 @@
 package com.bitso;
 
+import com.bitso.model.Message;
+import com.bitso.model.MessageType;
+import com.bitso.shared.Encoder;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 
 import static com.bitso.shared.Config.BIND_ADDRESS;
 import static com.bitso.shared.Config.BUFFER_CAPACITY;
+import static com.bitso.shared.Config.OUTBOUND_BUFFER_CAPACITY;
+import static com.bitso.shared.Config.SESSION_NAME;
 
 
 /**
- * Client as a market actor who sends a message to the exchange
+ * Client as a market actor who sends a message to the exchange. It logs on to its session when it connects, and
+ * numbers the messages it sends from 1. Each instance has its own blocking connection, see
+ * {@link com.bitso.client.ExchangeClient} for many sessions with pipelined requests on one thread
  *
  * @author Andres Ortiz
  */
 @Slf4j
 public class Client {
 
-    private static SocketChannel socketChannel;
-    private static ByteBuffer buffer;
+    private SocketChannel socketChannel;
+    private ByteBuffer buffer;
+    private ByteBuffer inbound;
+    private long sequence;
 
     public void stop() throws IOException {
         socketChannel.close();
         buffer = null;
+        inbound = null;
     }
 
     /**
-     *
+     * Connect to the Exchange with the session of the configuration
      */
     public Client() {
+        this(SESSION_NAME);
+    }
+
+    /**
+     * Connect to the Exchange and log on to a session
+     *
+     * @param sessionName
+     */
+    public Client(String sessionName) {
         try {
             socketChannel = SocketChannel.open(BIND_ADDRESS);
             buffer = ByteBuffer.allocate(BUFFER_CAPACITY);
+            inbound = ByteBuffer.allocate(OUTBOUND_BUFFER_CAPACITY);
+            sequence = 0;
+            sendMessage(Message.builder().messageType(MessageType.LOGON).sessionName(sessionName).build());
+            log.info("Logon response from Exchange: {}", readMessage());
         } catch (IOException e) {
             log.error("Connection to the Exchange was not possible", e);
         }
     }
 
     /**
-     * Send message to the Exchange
+     * Send message to the Exchange, with the next sequence number
      *
      * @param msg
      */
     public void sendMessage(String msg) {
-        buffer = ByteBuffer.wrap(msg.getBytes());
+        write(ByteBuffer.wrap(Encoder.frame(msg, ++sequence).getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Encode and send a message to the Exchange, with the next sequence number, without allocations
+     *
+     * @param msg
+     */
+    public void sendMessage(Message msg) {
+        buffer.clear();
+        Encoder.frame(msg, ++sequence, buffer);
+        write(buffer.flip());
+    }
+
+    private void write(ByteBuffer message) {
         try {
-            socketChannel.write(buffer);
+            while (message.hasRemaining()) {
+                socketChannel.write(message);
+            }
 
             /*
             //--Exchange does not respond to clients (out of the scope of this prototype)--
@@ -61,4 +101,34 @@ public class Client {
             log.error("Error writing or reading from the Buffer", e);
         }
     }
+
+    /**
+     * Read the next message sent back by the Exchange (e.g. a Depth snapshot)
+     *
+     * @return the raw message, or an empty String if the Exchange closed the connection
+     */
+    public String readMessage() {
+        try {
+            while (true) {
+                for (int i = 0; i < inbound.position(); i++) {
+                    if (inbound.get(i) == Encoder.END_OF_MESSAGE) {
+                        final String message = new String(inbound.array(), 0, i, StandardCharsets.US_ASCII);
+                        inbound.limit(inbound.position()).position(i + 1);
+                        inbound.compact();
+                        return message;
+                    }
+                }
+                if (!inbound.hasRemaining()) {
+                    log.error("Message from Exchange exceeds {} bytes", inbound.capacity());
+                    return "";
+                }
+                if (socketChannel.read(inbound) < 0) {
+                    return "";
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error reading from the Buffer", e);
+            return "";
+        }
+    }
 }
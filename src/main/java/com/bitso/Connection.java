@@ -0,0 +1,279 @@
+package com.bitso;
+
+import com.bitso.metrics.AllocationSample;
+import com.bitso.metrics.ConnectionMetrics;
+import com.bitso.metrics.MetricsRegistry;
+import com.bitso.session.Session;
+import com.bitso.shared.OutboundQueue;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import static com.bitso.shared.Config.BUFFER_CAPACITY;
+import static com.bitso.shared.Config.OUTBOUND_QUEUE_CAPACITY;
+import static com.bitso.shared.Config.SLOW_CONSUMER_POLICY;
+
+/**
+ * Client connection of the {@link Exchange}, with its {@link Session} once the client logs on, the buffer of the bytes
+ * received that do not complete a message yet, and its bounded {@link OutboundQueue}.
+ * <p>
+ * The matching stage never waits for a client: a response is written straight to a non-blocking socket only if
+ * nothing is queued, and the rest is queued. The queue is flushed when the socket is writable (Selector mode) or by
+ * the writer thread of the connection (virtual threads mode), which takes the messages released under the lock and
+ * writes them after releasing it, so a slow client never blocks the matching stage or the heartbeats. With
+ * replication, a response is held until the replica acknowledges the commands it reflects. The queue is guarded by a
+ * {@link ReentrantLock}, which does not pin the carrier thread of a virtual thread, because the heartbeats are sent by
+ * another thread.
+ * <p>
+ * The channel is a socket, or an {@link com.bitso.ipc.IpcChannel} for a co-located client, which is non-blocking and
+ * polled by the event loop of the Selector.
+ *
+ * @author Andres Ortiz
+ */
+@Getter
+public class Connection {
+
+    private final ByteChannel channel;
+    private final ByteBuffer inbound = ByteBuffer.allocate(BUFFER_CAPACITY);
+    private final OutboundQueue outboundQueue = new OutboundQueue(OUTBOUND_QUEUE_CAPACITY, SLOW_CONSUMER_POLICY);
+
+    /**
+     * Lock of the outbound queue, and the signal of messages released to the writer of a blocking connection
+     */
+    @Getter(AccessLevel.NONE)
+    private final ReentrantLock lock = new ReentrantLock();
+    @Getter(AccessLevel.NONE)
+    private final Condition releasable = lock.newCondition();
+
+    /**
+     * Messages taken from the outbound queue by the writer of a blocking connection, written outside the lock
+     */
+    @Getter(AccessLevel.NONE)
+    private final OutboundQueue writing = new OutboundQueue(Integer.MAX_VALUE, SLOW_CONSUMER_POLICY);
+    private final boolean blocking;
+
+    /**
+     * Allocations of the message being read, used only by the thread reading the connection
+     */
+    private final AllocationSample allocationSample = MetricsRegistry.getInstance().getAllocations().newSample();
+
+    /**
+     * Last sequence of the replicated commands released to the clients
+     */
+    private final LongSupplier released;
+
+    /**
+     * Session of the client, null until it logs on
+     */
+    private volatile Session session;
+    private ConnectionMetrics metrics;
+
+    /**
+     * Key of the connection in the Selector, null in virtual threads mode
+     */
+    @Setter
+    private SelectionKey key;
+    private volatile boolean closed;
+
+    public Connection(ByteChannel channel, LongSupplier released) {
+        this.channel = channel;
+        this.released = released;
+        this.blocking = channel instanceof SelectableChannel selectable && selectable.isBlocking();
+    }
+
+    /**
+     * Get the id of the session of the client
+     *
+     * @return the session id, 0 before the logon
+     */
+    public long getSessionId() {
+        final Session session = this.session;
+        return session != null ? session.getSessionId() : 0;
+    }
+
+
+    /**
+     * Bind the connection to the session of the client after its logon, see {@link Session#attach(Connection)}
+     *
+     * @param session
+     */
+    public void logon(Session session) {
+        lock.lock();
+        try {
+            this.session = session;
+            this.metrics = MetricsRegistry.getInstance().onConnect(session.getSessionId());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Send a message to the client, or queue it if the socket does not accept it now
+     *
+     * @param message
+     * @param key      key to conflate market data messages, see {@link OutboundQueue#offer(ByteBuffer, int, long)}
+     * @param sequence last replicated command reflected by the message, 0 without replication
+     * @return false if the client is a slow consumer that must be disconnected
+     * @throws IOException
+     */
+    public boolean send(ByteBuffer message, int key, long sequence) throws IOException {
+        lock.lock();
+        try {
+            //A non-blocking write never waits for the client
+            if (outboundQueue.isEmpty() && !blocking && sequence <= released.getAsLong()) {
+                channel.write(message);
+                if (!message.hasRemaining()) {
+                    return true;
+                }
+            }
+            final OutboundQueue.Result result = outboundQueue.offer(message, key, sequence);
+            switch (result) {
+                case CONFLATED -> MetricsRegistry.getInstance().onConflated(metrics);
+                case DROPPED -> MetricsRegistry.getInstance().onDropped(metrics);
+                case DISCONNECT -> MetricsRegistry.getInstance().onSlowConsumerDisconnect();
+            }
+            update();
+            return result != OutboundQueue.Result.DISCONNECT;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resend a region of the journal of the session, after the messages already queued
+     *
+     * @param journal
+     * @param position
+     * @param count
+     * @throws IOException
+     */
+    public void resend(FileChannel journal, long position, long count) throws IOException {
+        lock.lock();
+        try {
+            outboundQueue.offer(journal, position, count);
+            flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the queued messages released that the non-blocking socket accepts. A blocking connection only wakes up
+     * its writer, see {@link #write()}
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            if (!blocking) {
+                outboundQueue.flush(channel, released.getAsLong());
+            }
+            update();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Loop of the writer of a blocking connection: wait for messages released, take them from the queue under the
+     * lock and write them after releasing it, until the connection is closed
+     *
+     * @throws IOException
+     */
+    public void write() throws IOException {
+        while (true) {
+            lock.lock();
+            try {
+                while (!closed && !outboundQueue.isReleased(released.getAsLong())) {
+                    releasable.await();
+                }
+                if (closed) {
+                    return;
+                }
+                outboundQueue.drainTo(writing, released.getAsLong());
+                update();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            writing.flush(channel, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Check if there are queued messages released to write
+     *
+     * @return
+     */
+    public boolean hasReleased() {
+        lock.lock();
+        try {
+            return outboundQueue.isReleased(released.getAsLong());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the connection
+     *
+     * @return false if it was already closed
+     * @throws IOException
+     */
+    public boolean close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            releasable.signal();
+        } finally {
+            lock.unlock();
+        }
+        channel.close();
+        if (session != null) {
+            MetricsRegistry.getInstance().onDisconnect(session.getSessionId());
+        }
+        return true;
+    }
+
+    /**
+     * Update the pending bytes and signal the messages released to write: the writer of a blocking connection is woken
+     * up and, in Selector mode, the socket gets the interest in being writable. The Selector is woken up in case it
+     * was blocked without that interest. Called under the lock
+     */
+    private void update() {
+        if (metrics != null) {
+            metrics.setPendingBytes(outboundQueue.getPendingBytes());
+        }
+        if (blocking) {
+            if (outboundQueue.isReleased(released.getAsLong())) {
+                releasable.signal();
+            }
+        } else if (key != null && key.isValid()) {
+            final boolean writable = hasReleased();
+            final boolean wasWritable = (key.interestOps() & SelectionKey.OP_WRITE) != 0;
+            key.interestOps(writable ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            if (writable && !wasWritable) {
+                key.selector().wakeup();
+            }
+        }
+    }
+}
@@ -1,17 +1,49 @@
 package com.bitso;
 
 
+import com.bitso.analytics.AnalyticsEngine;
+import com.bitso.analytics.MarketSnapshot;
+import com.bitso.analytics.MarketStatistics;
 import com.bitso.exception.MessageNotSupportedException;
 import com.bitso.exception.OrderNotFoundException;
+import com.bitso.exception.OrderRejectedException;
+import com.bitso.ipc.IpcChannel;
+import com.bitso.ipc.IpcGateway;
+import com.bitso.metrics.AllocationSample;
+import com.bitso.metrics.AllocationStage;
+import com.bitso.metrics.MetricsRegistry;
+import com.bitso.model.DepthSnapshot;
+import com.bitso.model.DepthType;
 import com.bitso.model.Market;
 import com.bitso.model.Message;
+import com.bitso.model.MessageType;
 import com.bitso.model.Order;
+import com.bitso.model.OrderStatus;
+import com.bitso.model.TradingPhase;
+import com.bitso.replication.Replica;
+import com.bitso.replication.ReplicationProtocol;
+import com.bitso.replication.Replicator;
+import com.bitso.repository.TradeTapeRepository;
+import com.bitso.repository.TradeTapeRepositoryImpl;
 import com.bitso.services.MatchingEngine;
 import com.bitso.services.OrderBookService;
 import com.bitso.services.OrderBookServiceImpl;
 import com.bitso.services.OrderService;
 import com.bitso.services.OrderServiceImpl;
+import com.bitso.services.RiskEngine;
+import com.bitso.session.Session;
+import com.bitso.session.SessionManager;
+import com.bitso.shared.BulkOrderReader;
 import com.bitso.shared.Decoder;
+import com.bitso.shared.Encoder;
+import com.bitso.shared.GatewayMode;
+import com.bitso.shared.IdleStrategy;
+import com.bitso.shared.Idler;
+import com.bitso.shared.MarketRegistry;
+import com.bitso.shared.OutboundQueue;
+import com.bitso.shared.RecordedMessageWriter;
+import com.bitso.shared.ReplicationMode;
+import com.bitso.shared.ThreadAffinity;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
@@ -21,16 +53,55 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
-import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
-import static com.bitso.shared.Config.BUFFER_CAPACITY;
+import static com.bitso.shared.Config.AFFINITY;
+import static com.bitso.shared.Config.CANCEL_ON_DISCONNECT;
+import static com.bitso.shared.Config.END_OF_DAY;
+import static com.bitso.shared.Config.EXPIRY_TICK_MILLIS;
+import static com.bitso.shared.Config.GATEWAY_MODE;
+import static com.bitso.shared.Config.IDLE_STRATEGY;
+import static com.bitso.shared.Config.IPC_DIR;
+import static com.bitso.shared.Config.MAX_DEPTH;
+import static com.bitso.shared.Config.OUTBOUND_BUFFER_CAPACITY;
 import static com.bitso.shared.Config.PORT;
+import static com.bitso.shared.Config.RECORD_FILE;
+import static com.bitso.shared.Config.RECORD_FORMAT;
+import static com.bitso.shared.Config.REPLICATION_MODE;
+import static com.bitso.shared.Config.REPLICA_ADDRESS;
+import static com.bitso.shared.Config.SEED_FILE;
+import static com.bitso.shared.Config.TRADE_TAPE_DIR;
 
 
 /**
- * Exchange Server using non-blocking I/O sockets to receive clients connections and messages from actors of the market
+ * Exchange Server to receive clients connections and messages from actors of the market. Two gateway modes can be
+ * selected at startup, see {@link GatewayMode}:
+ * <ul>
+ *     <li>Non-blocking I/O sockets polled by a single {@link Selector} thread</li>
+ *     <li>One virtual thread per connection doing blocking reads</li>
+ * </ul>
+ * In Selector mode, co-located clients can also connect through shared memory (see {@link IpcChannel}), polled by
+ * the same thread next to the Selector.
+ * In both modes the messages are framed and handled by the session layer (logon, heartbeats, sequence numbers and
+ * resends, see {@link Session}), and the other messages are processed one at a time by the matching stage. With replication (see
+ * {@link ReplicationMode}), the matching stage streams the commands to the replica and the responses are released
+ * once the replica acknowledges them.
  *
  * @author Andres Ortiz
  */
@@ -39,14 +110,66 @@ public class Exchange {
 
     private static Exchange INSTANCE;
 
+    /**
+     * Max time the Selector blocks with shared-memory connections to poll, see {@link IdleStrategy#BLOCKING}
+     */
+    private static final long IPC_SELECT_TIMEOUT_MILLIS = 1;
+
+    private ServerSocketChannel serverChannel;
     private Selector selector;
+
+    /**
+     * Gateway of the shared-memory connections and the connections accepted, null if disabled
+     */
+    private IpcGateway ipcGateway;
+    private final List<Connection> ipcConnections = new ArrayList<>();
+
+    /**
+     * Stream of the commands to the replica, null without replication
+     */
+    private Replicator replicator;
+
+    /**
+     * File recording the commands of the matching stage to replay them offline (see {@link Replay}), null if disabled
+     */
+    private RecordedMessageWriter recorder;
+
+    /**
+     * Connections of the Selector with responses waiting for the acknowledgement of the replica
+     */
+    private final Set<Connection> unreleased = new HashSet<>();
+
+    /**
+     * Lock of the matching stage, so messages of all connections are processed one at a time. A {@link ReentrantLock}
+     * does not pin the carrier thread of a virtual thread while it waits
+     */
+    private final ReentrantLock matchingLock = new ReentrantLock();
     private final OrderService orderService = OrderServiceImpl.getInstance();
     private final OrderBookService orderBookService = OrderBookServiceImpl.getInstance();
+    private final AnalyticsEngine analyticsEngine = AnalyticsEngine.getInstance();
     private final MatchingEngine matchingEngine = MatchingEngine.getInstance();
+    private final RiskEngine riskEngine = RiskEngine.getInstance();
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+    private final SessionManager sessionManager = SessionManager.getInstance();
+
+    /**
+     * Snapshot and buffer reused by the matching stage to answer Depth messages
+     */
+    private final DepthSnapshot depthSnapshot = new DepthSnapshot(MAX_DEPTH);
+    private final ByteBuffer outBuffer = ByteBuffer.allocateDirect(OUTBOUND_BUFFER_CAPACITY);
 
     public static void main(String[] args) throws IOException {
+        GatewayMode mode = args.length > 0 ? GatewayMode.valueOf(args[0].toUpperCase()) : GATEWAY_MODE;
         Exchange exchange = Exchange.getInstance();
-        exchange.start();
+        if (SEED_FILE != null) {
+            exchange.seed(Path.of(SEED_FILE));
+        }
+        if (REPLICATION_MODE == ReplicationMode.REPLICA) {
+            Replica replica = new Replica(REPLICA_ADDRESS, exchange);
+            replica.run();
+            SessionManager.getInstance().setLastSessionId(replica.getLastSessionId());
+        }
+        exchange.start(mode);
     }
 
     /**
@@ -62,44 +185,388 @@ public class Exchange {
     }
 
     /**
-     * Polling to monitor new events to be processed by the Selector
+     * Seed the OrderBooks with the resting Orders of a bulk-load file before the clients connect. The primary and the
+     * replica are seeded with the same file, the Orders are not replicated
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void seed(Path file) throws IOException {
+        final long start = System.nanoTime();
+        List<Order> orders = BulkOrderReader.read(file);
+        final long parsed = System.nanoTime();
+        final int loaded;
+        matchingLock.lock();
+        try {
+            loaded = orderService.loadOrders(orders);
+        } finally {
+            matchingLock.unlock();
+        }
+        log.info("Seeded {} of {} Orders from {}: parsed in {} ms, loaded in {} ms", loaded, orders.size(), file,
+                (parsed - start) / 1_000_000, (System.nanoTime() - parsed) / 1_000_000);
+    }
+
+    /**
+     * Start the Exchange with the gateway mode of the configuration
      *
      * @throws IOException
      */
     public void start() throws IOException {
-        log.info("Exchange started successfully!");
+        start(GATEWAY_MODE);
+    }
+
+    /**
+     * Start the Exchange with the given gateway mode
+     *
+     * @param mode
+     * @throws IOException
+     */
+    public void start(GatewayMode mode) throws IOException {
+        if (REPLICATION_MODE == ReplicationMode.PRIMARY) {
+            replicator = new Replicator(REPLICA_ADDRESS, 0);
+        }
+        startAuctions();
+        startExpiries();
+        startEndOfDay();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(PORT));
+        log.info("Exchange started successfully! Gateway mode: {}", mode);
+        switch (mode) {
+            case SELECTOR -> startSelector();
+            case VIRTUAL_THREADS -> startVirtualThreads();
+        }
+    }
+
+    /**
+     * Schedule the periodic call auctions of the Markets listed with an auction interval. Each call is uncrossed by the
+     * matching stage as a Trading Phase message, so it is replicated as any other command. A Market switched to
+     * continuous matching is skipped until it is back in auction
+     */
+    private void startAuctions() {
+        ScheduledExecutorService auctions = null;
+        for (Market market : MarketRegistry.getInstance().getMarkets()) {
+            if (market.getAuctionSeconds() <= 0) {
+                continue;
+            }
+            if (auctions == null) {
+                auctions = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "auctions");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            auctions.scheduleAtFixedRate(() -> auction(market), market.getAuctionSeconds(), market.getAuctionSeconds(), TimeUnit.SECONDS);
+            log.info("Periodic call auctions of {} every {}s", market, market.getAuctionSeconds());
+        }
+    }
+
+    /**
+     * Uncross the call auction of a Market and start the next one
+     *
+     * @param market
+     */
+    private void auction(Market market) {
+        Message msg = Message.builder()
+                .messageType(MessageType.TRADING_PHASE)
+                .market(market)
+                .tradingPhase(TradingPhase.AUCTION)
+                .build();
+        matchingLock.lock();
+        try {
+            if (matchingEngine.getPhase(market) == TradingPhase.AUCTION) {
+                replicate(msg);
+                apply(msg, null);
+            }
+        } catch (MessageNotSupportedException | IOException | RuntimeException e) {
+            log.error("Error uncrossing the auction of {}", market, e);
+        } finally {
+            matchingLock.unlock();
+        }
+    }
+
+    /**
+     * Schedule the clock of the expiry of the GTT Orders, every {@link com.bitso.shared.Config#EXPIRY_TICK_MILLIS}
+     */
+    private void startExpiries() {
+        ScheduledExecutorService expiries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "expiries");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiries.scheduleAtFixedRate(this::expire, EXPIRY_TICK_MILLIS, EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Delete the GTT Orders that reached their expire time. Each one is deleted by the matching stage as a DELETE
+     * message of its session, so it is replicated and cancelled as any other deletion
+     */
+    private void expire() {
+        matchingLock.lock();
+        try {
+            for (Order order : orderService.pollExpired(System.currentTimeMillis())) {
+                Message msg = Message.builder()
+                        .messageType(MessageType.DELETE)
+                        .orderId(order.getId())
+                        .sessionId(order.getSessionId())
+                        .market(order.getMarket())
+                        .build();
+                log.info("Order {} expired", order.getId());
+                replicate(msg);
+                apply(msg, null);
+            }
+        } catch (MessageNotSupportedException | IOException | RuntimeException e) {
+            log.error("Error expiring the GTT Orders", e);
+        } finally {
+            matchingLock.unlock();
+        }
+    }
+
+    /**
+     * Schedule the end-of-day analytics report every day at {@link com.bitso.shared.Config#END_OF_DAY}, if configured
+     */
+    private void startEndOfDay() {
+        if (END_OF_DAY == null) {
+            return;
+        }
+        ScheduledExecutorService endOfDay = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "end-of-day");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        LocalDateTime next = now.toLocalDate().atTime(END_OF_DAY);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        endOfDay.scheduleAtFixedRate(() -> analyze(true)
+                        .thenAccept(statistics -> log.info(analyticsEngine.report(statistics)))
+                        .exceptionally(e -> {
+                            log.error("Error computing the end-of-day analytics", e);
+                            return null;
+                        }),
+                Duration.between(now, next).toMillis(), TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+        log.info("End-of-day analytics every day at {} UTC", END_OF_DAY);
+    }
+
+    /**
+     * Compute the statistics of all the Markets. The matching stage only takes their snapshots, the statistics are
+     * computed by the analytics pool, see {@link AnalyticsEngine}
+     *
+     * @param endOfDay reset the Order flow counters to start a new day
+     * @return
+     */
+    public CompletableFuture<List<MarketStatistics>> analyze(boolean endOfDay) {
+        final long start = System.nanoTime();
+        final List<MarketSnapshot> snapshots;
+        matchingLock.lock();
+        try {
+            snapshots = analyticsEngine.snapshot(endOfDay);
+        } finally {
+            matchingLock.unlock();
+        }
+        log.info("Analytics snapshot of {} Markets taken in {} us", snapshots.size(), (System.nanoTime() - start) / 1_000);
+        return analyticsEngine.analyze(snapshots);
+    }
+
+    /**
+     * Polling to monitor new events to be processed by the Selector and the shared-memory connections, waiting for
+     * them with the configured {@link IdleStrategy}
+     *
+     * @throws IOException
+     */
+    private void startSelector() throws IOException {
+        serverChannel.configureBlocking(false);
+        selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        if (AFFINITY != null) {
+            ThreadAffinity.pin(AFFINITY);
+        }
+        if (IPC_DIR != null) {
+            ipcGateway = new IpcGateway(Path.of(IPC_DIR));
+        }
+        final Idler idler = new Idler(IDLE_STRATEGY, ipcGateway != null ? IPC_SELECT_TIMEOUT_MILLIS : 0);
+        log.info("Selector idle strategy: {}", IDLE_STRATEGY);
         while (true) {
-            selector.select();
+            int work = idler.select(selector);
             Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
             while (iterator.hasNext()) {
                 SelectionKey key = iterator.next();
                 if (key.isAcceptable()) {
                     accept(key);
                 }
-                if (key.isReadable()) {
+                if (key.isValid() && key.isWritable()) {
+                    write(key);
+                }
+                if (key.isValid() && key.isReadable()) {
                     read(key);
                 }
                 iterator.remove();
             }
+            work += poll();
+            release();
+            idler.idle(work);
         }
     }
 
-    private Exchange() {
+    /**
+     * Poll the shared-memory connections: accept the new ones, read the ones with bytes received and write the
+     * responses queued of the others
+     *
+     * @return number of connections read
+     * @throws IOException
+     */
+    private int poll() throws IOException {
+        if (ipcGateway == null) {
+            return 0;
+        }
+        for (IpcChannel channel : ipcGateway.accept()) {
+            log.info("\n");
+            log.info("New shared-memory client connection {}", channel.getPath());
+            ipcConnections.add(new Connection(channel, this::released));
+        }
+        int work = 0;
+        Iterator<Connection> iterator = ipcConnections.iterator();
+        while (iterator.hasNext()) {
+            Connection connection = iterator.next();
+            if (!connection.isClosed() && ((IpcChannel) connection.getChannel()).isReadable()) {
+                work++;
+                read(connection);
+            }
+            if (!connection.isClosed() && connection.hasReleased()) {
+                write(connection);
+            }
+            if (connection.isClosed()) {
+                iterator.remove();
+            }
+        }
+        return work;
+    }
+
+    /**
+     * Wait for the replica to acknowledge the commands processed in the last round of the Selector, then write the
+     * responses held. The commands of a round are sent while they are processed, so the round waits for one round
+     * trip at most
+     */
+    private void release() {
+        if (unreleased.isEmpty()) {
+            return;
+        }
+        replicator.awaitAcknowledged(replicator.getSequence());
+        for (Connection connection : unreleased) {
+            if (!connection.isClosed()) {
+                write(connection);
+            }
+        }
+        unreleased.clear();
+    }
+
+    /**
+     * Accept connections with blocking calls and start two virtual threads per connection: one reads and processes
+     * the messages of its client and the other writes its responses
+     *
+     * @throws IOException
+     */
+    private void startVirtualThreads() throws IOException {
+        ThreadFactory threadFactory = connectionThreadFactory();
+        serverChannel.configureBlocking(true);
+        if (IDLE_STRATEGY != IdleStrategy.BLOCKING || AFFINITY != null) {
+            log.warn("The idle strategy and the affinity only apply to the Selector thread, virtual threads always block");
+        }
+        if (IPC_DIR != null) {
+            log.warn("Shared-memory connections are only polled in Selector mode");
+        }
+        while (true) {
+            SocketChannel clientChannel = serverChannel.accept();
+            log.info("\n");
+            log.info("New client connection");
+            Connection connection = new Connection(clientChannel, this::released);
+            threadFactory.newThread(() -> handle(connection)).start();
+            threadFactory.newThread(() -> writeLoop(connection)).start();
+        }
+    }
+
+    /**
+     * Blocking loop of the thread of a connection: read, decode and hand the messages to the matching stage until
+     * the client disconnects. The responses are released to the writer of the connection after the matching stage and
+     * the acknowledgement of the replica
+     *
+     * @param connection
+     */
+    private void handle(Connection connection) {
         try {
-            ServerSocketChannel serverChannel = ServerSocketChannel.open();
-            serverChannel.configureBlocking(false);
-            serverChannel.socket().bind(new InetSocketAddress(PORT));
-            selector = Selector.open();
-            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
-            log.info("Exchange initialized");
+            while (read(connection)) {
+                if (replicator != null && !connection.getOutboundQueue().isEmpty()) {
+                    replicator.awaitAcknowledged(replicator.getSequence());
+                }
+                connection.flush();
+            }
         } catch (IOException e) {
-            log.error("Exchange initialization error");
-            e.printStackTrace();
+            log.error("Error processing messages of session {}", connection.getSessionId(), e);
+            disconnect(connection);
         }
     }
 
     /**
-     * Accept connections and register clients to the Selector
+     * Blocking loop of the writer of a connection, see {@link Connection#write()}. A slow client only blocks its own
+     * writer
+     *
+     * @param connection
+     */
+    private void writeLoop(Connection connection) {
+        try {
+            connection.write();
+        } catch (IOException e) {
+            log.warn("Connection of session {} was reset", connection.getSessionId());
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Thread factory creating virtual threads by the {@code Thread.ofVirtual()} API when the JVM supports it (JDK 21+).
+     * The API is looked up by reflection because the project targets JDK 17, which falls back to platform threads
+     *
+     * @return
+     */
+    private ThreadFactory connectionThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, "session-", 1L);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not supported by this JVM, using a platform thread per connection");
+            return runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    private Exchange() {
+        log.info("Exchange initialized");
+        metrics.setMatchingQueueDepth(matchingLock::getQueueLength);
+        metrics.start();
+        sessionManager.start(this::disconnect);
+        if (TRADE_TAPE_DIR != null) {
+            TradeTapeRepository tradeTape = TradeTapeRepositoryImpl.getInstance();
+            matchingEngine.addTradeListener(tradeTape::append);
+            Runtime.getRuntime().addShutdownHook(new Thread(tradeTape::close));
+        }
+        if (RECORD_FILE != null) {
+            try {
+                recorder = new RecordedMessageWriter(Path.of(RECORD_FILE), RECORD_FORMAT);
+                Runtime.getRuntime().addShutdownHook(new Thread(this::stopRecording));
+                log.info("Recording the commands to {} ({})", RECORD_FILE, RECORD_FORMAT);
+            } catch (IOException e) {
+                log.error("The file {} to record the commands could not be opened", RECORD_FILE, e);
+            }
+        }
+    }
+
+    /**
+     * Accept connections and register clients to the Selector, attaching a {@link Connection} to each one. The client
+     * gets its session when it logs on
      *
      * @param key
      * @throws IOException
@@ -110,67 +577,388 @@ public class Exchange {
         clientChannel.configureBlocking(false);
         log.info("\n");
         log.info("New client connection");
-        clientChannel.register(selector, SelectionKey.OP_READ);
+        Connection connection = new Connection(clientChannel, this::released);
+        connection.setKey(clientChannel.register(selector, SelectionKey.OP_READ, connection));
     }
 
     /**
-     * Read messages from clients and response
+     * Read messages from clients of the Selector and response
      *
      * @param key
      * @throws IOException
      */
     private void read(SelectionKey key) throws IOException {
-        SocketChannel clientChannel = (SocketChannel) key.channel();
-        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_CAPACITY);
-        int read = clientChannel.read(buffer);
-        if (read > 0) {
-            final Instant start = Instant.now();
-            String message = new String(buffer.array()).trim();
-            log.info("Raw message received: {}", message);
-            process(message);
-            final Instant stop = Instant.now();
-            log.info("Operation finished. Duration: {}", Duration.between(start, stop));
-
-            /*
-            //--Exchange does not respond to clients (out of the scope of this prototype)--
-            //--Write back to the client with the result of the operation--
-            boolean result = process(message);
-            byte data = result ? (byte)1 : (byte)0;
-            ByteBuffer outBuffer = ByteBuffer.wrap(new byte[]{data});
-            clientChannel.write(outBuffer);
-             */
-        } else {
+        read((Connection) key.attachment());
+    }
+
+    /**
+     * Write the queued responses of a client of the Selector when its socket is writable again
+     *
+     * @param key
+     */
+    private void write(SelectionKey key) {
+        write((Connection) key.attachment());
+    }
+
+    private void write(Connection connection) {
+        try {
+            connection.flush();
+        } catch (IOException e) {
+            log.warn("Connection of session {} was reset", connection.getSessionId());
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Read the bytes sent by a client and receive each complete message, framed by {@link Encoder#END_OF_MESSAGE}.
+     * The bytes of an incomplete message are kept in the inbound buffer of the connection until the next read
+     *
+     * @param connection
+     * @return false if the client disconnected
+     * @throws IOException
+     */
+    private boolean read(Connection connection) throws IOException {
+        final ByteBuffer buffer = connection.getInbound();
+        int read;
+        try {
+            read = connection.getChannel().read(buffer);
+        } catch (IOException e) {
+            log.warn("Connection of session {} was reset", connection.getSessionId());
+            read = -1;
+        }
+        if (read < 0) {
             log.warn("Client shutdown");
-            key.cancel();
+            disconnect(connection);
+            return false;
+        }
+        final AllocationSample allocations = connection.getAllocationSample();
+        int start = 0;
+        for (int i = 0; i < buffer.position() && !connection.isClosed(); i++) {
+            if (buffer.get(i) == Encoder.END_OF_MESSAGE) {
+                allocations.start();
+                final String message = new String(buffer.array(), start, i - start, StandardCharsets.US_ASCII).trim();
+                allocations.stage(AllocationStage.FRAME);
+                start = i + 1;
+                if (!message.isEmpty()) {
+                    receive(message, connection);
+                }
+            }
+        }
+        if (connection.isClosed()) {
+            return false;
+        }
+        buffer.limit(buffer.position()).position(start);
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            log.warn("Message of session {} exceeds {} bytes, disconnecting", connection.getSessionId(), buffer.capacity());
+            disconnect(connection);
+            return false;
         }
+        return true;
+    }
+
+    /**
+     * Receive a message of a client: decode it and handle it in the session layer, then process it in the matching
+     * stage if it is not a session message. Logons, Heartbeats and Resend Requests never enter the matching stage
+     *
+     * @param message
+     * @param connection
+     * @throws IOException
+     */
+    private void receive(String message, Connection connection) throws IOException {
+        final long start = System.nanoTime();
+        final AllocationSample allocations = connection.getAllocationSample();
+        log.info("Raw message received: {}", message);
+        Message msg;
+        try {
+            msg = Decoder.decode(message);
+        } catch (MessageNotSupportedException | RuntimeException e) {
+            log.error("Error decoding the message {}", message, e);
+            return;
+        }
+        allocations.stage(AllocationStage.DECODE);
+        if (msg.getMessageType() == MessageType.LOGON) {
+            logon(msg, connection);
+            allocations.stage(AllocationStage.SESSION);
+            allocations.finish(MessageType.LOGON);
+            return;
+        }
+        final Session session = connection.getSession();
+        if (session == null) {
+            log.warn("Message received before the logon, disconnecting");
+            disconnect(connection);
+            return;
+        }
+        if (!session.onReceived(msg)) {
+            return;
+        }
+        switch (msg.getMessageType()) {
+            case HEARTBEAT -> log.debug("Heartbeat of session {}", session.getName());
+            case RESEND_REQUEST -> session.resend(msg.getBeginSequence(), msg.getEndSequence());
+            default -> {
+                allocations.stage(AllocationStage.SESSION);
+                process(msg, connection);
+                allocations.stage(AllocationStage.MATCHING);
+            }
+        }
+        allocations.stage(AllocationStage.SESSION);
+        allocations.finish(msg.getMessageType());
+        if (log.isInfoEnabled()) {
+            log.info("Operation finished. Duration: {}", Duration.ofNanos(System.nanoTime() - start));
+        }
+
+        /*
+        //--Exchange does not respond to clients (out of the scope of this prototype)--
+        //--Write back to the client with the result of the operation--
+        boolean result = process(message);
+        byte data = result ? (byte)1 : (byte)0;
+        ByteBuffer outBuffer = ByteBuffer.wrap(new byte[]{data});
+        clientChannel.write(outBuffer);
+         */
+    }
+
+    /**
+     * Log on a client to its session: a previous connection of the session still open is closed, the Logon is
+     * answered with the next sequence expected from the client, and the messages the client missed are resent from
+     * the one it expects
+     *
+     * @param msg
+     * @param connection
+     * @throws IOException
+     */
+    private void logon(Message msg, Connection connection) throws IOException {
+        if (connection.getSession() != null || !SessionManager.isValidName(msg.getSessionName())) {
+            log.warn("Invalid logon of session {}, disconnecting", msg.getSessionName());
+            disconnect(connection);
+            return;
+        }
+        final Session session = sessionManager.getSession(msg.getSessionName());
+        final Connection previous = session.getConnection();
+        if (previous != null) {
+            log.warn("Session {} logged on again, closing its previous connection", session.getName());
+            disconnect(previous);
+        }
+        session.attach(connection);
+        session.onReceived(msg);
+        log.info("Session {} logged on with id {}", session.getName(), session.getSessionId());
+        session.send(Message.builder()
+                .messageType(MessageType.LOGON)
+                .sessionName(session.getName())
+                .beginSequence(session.getExpectedSequence())
+                .build());
+        if (msg.getBeginSequence() > 0) {
+            session.resend(msg.getBeginSequence(), 0);
+        }
+    }
+
+    /**
+     * Close the connection of a client and release its session: cancel its Orders if configured and remove its risk
+     * account. A connection already closed is ignored
+     *
+     * @param connection
+     */
+    private void disconnect(Connection connection) {
+        final Session session = connection.getSession();
+        final long sessionId = connection.getSessionId();
+        try {
+            if (!connection.close()) {
+                return;
+            }
+        } catch (IOException e) {
+            log.warn("Error closing the connection of session {}", sessionId, e);
+        }
+        if (session == null) {
+            return;
+        }
+        session.detach(connection);
+        matchingLock.lock();
+        try {
+            if (replicator != null) {
+                replicator.append(ReplicationProtocol.DISCONNECT, sessionId, null);
+            }
+            endSession(sessionId);
+        } finally {
+            matchingLock.unlock();
+        }
+    }
+
+    /**
+     * Release a session of the primary replicated, or left by the primary when the replica takes over
+     *
+     * @param sessionId
+     */
+    public void releaseSession(long sessionId) {
+        matchingLock.lock();
+        try {
+            endSession(sessionId);
+        } finally {
+            matchingLock.unlock();
+        }
+    }
+
+    private void endSession(long sessionId) {
+        if (CANCEL_ON_DISCONNECT) {
+            orderService.cancelOrders(sessionId, null, null);
+        }
+        riskEngine.removeSession(sessionId);
+    }
+
+    /**
+     * Last sequence of the replicated commands acknowledged by the replica, whose responses can be released
+     *
+     * @return
+     */
+    private long released() {
+        return replicator != null ? replicator.getAcknowledged() : Long.MAX_VALUE;
     }
 
     /**
      * Process message received by clients
      *
+     * @param msg
+     * @param connection client connection which sent the message, used to respond the messages that require an answer
+     * @throws IOException
+     */
+    protected void process(Message msg, Connection connection) throws IOException {
+        final long sessionId = connection.getSessionId();
+        matchingLock.lock();
+        try {
+            msg.setSessionId(sessionId);
+            log.info("Decoded message: {}", msg);
+            metrics.onMessage(msg.getMessageType(), msg.getMarket());
+            riskEngine.checkMessageRate(sessionId);
+            if (msg.getMessageType() == MessageType.TRADING_PHASE) {
+                //Only the auctions, the replication and the replay change the phase of a Market, not a client
+                throw new OrderRejectedException("Trading phases are only changed by the Exchange");
+            }
+            replicate(msg);
+            apply(msg, connection);
+        } catch (MessageNotSupportedException e) {
+            log.error("Error decoding the message", e);
+        } catch (OrderRejectedException e) {
+            metrics.onRejected();
+            log.warn("Message rejected by the pre-trade risk checks: {}", e.getMessage());
+            report(connection, msg.getOrderId(), OrderStatus.REJECTED, 0);
+        } catch (RuntimeException e) {
+            log.error("Error processing the message {} of session {}", msg, sessionId, e);
+        } finally {
+            matchingLock.unlock();
+        }
+    }
+
+    /**
+     * Apply a command replicated from the primary, without the message rate checks already passed on the primary
+     *
      * @param message
+     * @param sessionId session of the primary which sent the message
      */
-    protected void process(String message) {
+    public void applyReplicated(String message, long sessionId) {
+        matchingLock.lock();
         try {
             Message msg = Decoder.decode(message);
-            log.info("Decoded message: {}", msg);
+            msg.setSessionId(sessionId);
+            log.info("Replicated message: {}", msg);
+            metrics.onMessage(msg.getMessageType(), msg.getMarket());
+            apply(msg, null);
+        } catch (MessageNotSupportedException | IOException | RuntimeException e) {
+            log.error("Error applying the replicated message {}", message, e);
+        } finally {
+            matchingLock.unlock();
+        }
+    }
+
+    /**
+     * Append the messages that change the OrderBooks to the stream of the replica and to the recorded file. An ADD
+     * message gets its Order id here, so the primary, the replica and the replay create the same Order
+     *
+     * @param msg
+     */
+    private void replicate(Message msg) {
+        if (replicator == null && recorder == null) {
+            return;
+        }
+        switch (msg.getMessageType()) {
+            case ADD, DELETE, MODIFY, MASS_CANCEL, TRADING_PHASE -> {
+                if (msg.getMessageType() == MessageType.ADD && msg.getOrderId() == null) {
+                    msg.setOrderId(UUID.randomUUID());
+                }
+                if (replicator != null) {
+                    replicator.append(ReplicationProtocol.MESSAGE, msg.getSessionId(), msg);
+                }
+                if (recorder != null) {
+                    record(msg);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a command with its session. The recording stops at the first error, the matching stage goes on
+     *
+     * @param msg
+     */
+    private void record(Message msg) {
+        try {
+            recorder.write(Encoder.encode(msg), msg.getSessionId());
+        } catch (IOException e) {
+            log.error("Error recording the commands to {}, recording stopped", RECORD_FILE, e);
+            stopRecording();
+        }
+    }
+
+    private void stopRecording() {
+        matchingLock.lock();
+        try {
+            if (recorder != null) {
+                recorder.close();
+            }
+        } catch (IOException e) {
+            log.warn("Error closing the file {} of the recorded commands", RECORD_FILE, e);
+        } finally {
+            recorder = null;
+            matchingLock.unlock();
+        }
+    }
+
+    /**
+     * Apply a decoded message in the matching stage
+     *
+     * @param msg
+     * @param connection client connection which sent the message, null for a replicated message
+     * @throws MessageNotSupportedException
+     * @throws IOException
+     */
+    private void apply(Message msg, Connection connection) throws MessageNotSupportedException, IOException {
+        final long sessionId = msg.getSessionId();
+        try {
             switch (msg.getMessageType()) {
                 case ADD -> {
+                    riskEngine.checkOrder(msg);
                     Order order = orderService.parseOrder(msg);
-                    log.info("Adding new Order {}", order.getId());
-                    orderService.addOrder(order);
-                    print(msg.getMarket());
+                    log.info("New incoming Order {}", order.getId());
                     matchingEngine.executeTrade(order);
+                    print(msg.getMarket());
+                    final boolean resting = orderService.getOrder(order.getId()) != null;
+                    final OrderStatus status = order.getAmount() == 0 ? OrderStatus.FILLED
+                            : !resting ? OrderStatus.CANCELLED
+                            : order.getAmount() < msg.getAmount() ? OrderStatus.PARTIALLY_FILLED : OrderStatus.NEW;
+                    report(connection, order.getId(), status, order.getAmount());
                 }
                 case DELETE -> {
                     log.info("Deleting Order {}", msg.getOrderId());
+                    riskEngine.checkOwner(msg);
                     orderService.deleteOrder(msg.getOrderId());
                     print(msg.getMarket());
+                    report(connection, msg.getOrderId(), OrderStatus.CANCELLED, 0);
                 }
                 case MODIFY -> {
-                    log.info("Modifying Order {}, New Amount {}", msg.getOrderId(), msg.getAmount());
-                    orderService.modifyOrder(msg.getOrderId(), msg.getAmount());
+                    log.info("Modifying Order {}, New Amount {}, New Price {}", msg.getOrderId(), msg.getAmount(), msg.getPrice());
+                    riskEngine.checkOwner(msg);
+                    orderService.modifyOrder(msg.getOrderId(), msg.getAmount(), msg.getPrice());
                     print(msg.getMarket());
+                    //The amended Order may cross and be filled
+                    final Order order = orderService.getOrder(msg.getOrderId());
+                    report(connection, msg.getOrderId(), order != null ? OrderStatus.REPLACED : OrderStatus.FILLED, order != null ? order.getAmount() : 0);
                 }
                 case PRINT -> {
                     log.info("Print OrderBook {}", msg.getMarket());
@@ -179,12 +967,86 @@ public class Exchange {
                     //Testing Only: Use of PRINT Message to calculate the equilibrium mid-market price (EP)
                     log.debug("Equilibrium mid-market price (EP): {}", orderBookService.getEquilibriumMidMarketPrice(msg.getMarket(), 0.5));
                 }
+                case MASS_CANCEL -> {
+                    log.info("Mass cancelling Orders of session {}, Market {}, Side {}", sessionId, msg.getMarket(), msg.getOrderSide());
+                    orderService.cancelOrders(sessionId, msg.getMarket(), msg.getOrderSide());
+                }
+                case DEPTH -> {
+                    log.info("Depth {} of OrderBook {}, Levels {}", msg.getDepthType(), msg.getMarket(), msg.getDepth());
+                    orderBookService.getDepth(msg.getMarket(), msg.getDepthType(), msg.getDepth(), depthSnapshot);
+                    final long sequence = replicator != null ? replicator.getSequence() : 0;
+                    sent(connection, connection.getSession().send(depthSnapshot, outBuffer, depthKey(msg), sequence));
+                }
+                case TRADING_PHASE -> {
+                    log.info("Trading phase of Market {}: {}", msg.getMarket(), msg.getTradingPhase());
+                    matchingEngine.setPhase(msg.getMarket(), msg.getTradingPhase());
+                    print(msg.getMarket());
+                }
+                case GAP, EXECUTION_REPORT -> log.warn("{} messages are only sent by the Exchange", msg.getMessageType());
+                case LOGON, HEARTBEAT, RESEND_REQUEST -> log.warn("Session messages are handled by the session layer");
             }
-        } catch (MessageNotSupportedException e) {
-            log.error("Error decoding the message", e);
         } catch (OrderNotFoundException e) {
             log.error("Error deleting or modifying an Order", e);
+            report(connection, msg.getOrderId(), OrderStatus.REJECTED, 0);
+        } catch (OrderRejectedException e) {
+            metrics.onRejected();
+            log.warn("Message rejected by the pre-trade risk checks: {}", e.getMessage());
+            report(connection, msg.getOrderId(), OrderStatus.REJECTED, 0);
+        }
+    }
+
+    /**
+     * Send an Execution Report with the status of an Order to the session which sent the message, released with the
+     * replicated command it reflects. Replicated and internal messages (no connection) are not reported
+     *
+     * @param connection
+     * @param orderId
+     * @param status
+     * @param amount     amount of the Order left
+     * @throws IOException
+     */
+    private void report(Connection connection, UUID orderId, OrderStatus status, double amount) throws IOException {
+        if (connection == null || connection.getSession() == null) {
+            return;
+        }
+        Message report = Message.builder()
+                .messageType(MessageType.EXECUTION_REPORT)
+                .orderId(orderId)
+                .orderStatus(status)
+                .amount(amount)
+                .build();
+        final long sequence = replicator != null ? replicator.getSequence() : 0;
+        sent(connection, connection.getSession().send(report, sequence));
+    }
+
+    /**
+     * Handle the result of sending a response of the matching stage: a slow consumer is disconnected, and with
+     * replication a response queued until its command is acknowledged is flushed once released
+     *
+     * @param connection
+     * @param sent
+     */
+    private void sent(Connection connection, boolean sent) {
+        if (!sent) {
+            log.warn("Disconnecting slow consumer of session {}, {} bytes pending", connection.getSessionId(), connection.getOutboundQueue().getPendingBytes());
+            disconnect(connection);
+        } else if (replicator != null && !connection.isBlocking() && !connection.getOutboundQueue().isEmpty()) {
+            unreleased.add(connection);
+        }
+    }
+
+    /**
+     * Key to conflate the Depth responses of a slow consumer: a new snapshot replaces a queued one of the same Market,
+     * type and depth
+     *
+     * @param msg
+     * @return
+     */
+    private static int depthKey(Message msg) {
+        if (msg.getMarket().getId() < 0) {
+            return OutboundQueue.NO_KEY;
         }
+        return (msg.getMarket().getId() * DepthType.values().length + msg.getDepthType().ordinal()) * (MAX_DEPTH + 1) + Math.max(0, Math.min(msg.getDepth(), MAX_DEPTH));
     }
 
     /**
@@ -0,0 +1,132 @@
+package com.bitso;
+
+import com.bitso.ipc.IpcChannel;
+import com.bitso.model.Message;
+import com.bitso.model.MessageType;
+import com.bitso.shared.Encoder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.bitso.shared.Config.BUFFER_CAPACITY;
+import static com.bitso.shared.Config.IPC_DIR;
+import static com.bitso.shared.Config.IPC_RING_CAPACITY;
+import static com.bitso.shared.Config.OUTBOUND_BUFFER_CAPACITY;
+import static com.bitso.shared.Config.SESSION_NAME;
+
+
+/**
+ * Co-located client connected to the Exchange through shared memory (see {@link IpcChannel}) instead of a socket. It
+ * sends and receives the same framed messages as {@link Client}, and spins while it waits for a response, so a round
+ * trip involves no system call
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class IpcClient {
+
+    private final IpcChannel channel;
+    private final ByteBuffer outbound = ByteBuffer.allocate(BUFFER_CAPACITY);
+    private final ByteBuffer inbound = ByteBuffer.allocate(OUTBOUND_BUFFER_CAPACITY);
+    private long sequence;
+
+    /**
+     * Connect to the Exchange with the session of the configuration
+     *
+     * @throws IOException
+     */
+    public IpcClient() throws IOException {
+        this(SESSION_NAME);
+    }
+
+    /**
+     * Connect to the Exchange through the shared-memory directory of the configuration and log on to a session
+     *
+     * @param sessionName
+     * @throws IOException
+     */
+    public IpcClient(String sessionName) throws IOException {
+        if (IPC_DIR == null) {
+            throw new IllegalStateException("The shared-memory directory is not configured, see -Dipc=<dir>");
+        }
+        final Path directory = Files.createDirectories(Path.of(IPC_DIR));
+        final String file = sessionName + "-" + ProcessHandle.current().pid() + "-" + System.nanoTime() + IpcChannel.FILE_EXTENSION;
+        channel = IpcChannel.create(directory.resolve(file), IPC_RING_CAPACITY);
+        sendMessage(Message.builder().messageType(MessageType.LOGON).sessionName(sessionName).build());
+        log.info("Logon response from Exchange: {}", readMessage());
+    }
+
+    public void stop() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Send message to the Exchange, with the next sequence number. Spins while the ring to the Exchange is full
+     *
+     * @param msg
+     */
+    public void sendMessage(String msg) {
+        write(ByteBuffer.wrap(Encoder.frame(msg, ++sequence).getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Encode and send a message to the Exchange, with the next sequence number, without allocations
+     *
+     * @param msg
+     */
+    public void sendMessage(Message msg) {
+        outbound.clear();
+        Encoder.frame(msg, ++sequence, outbound);
+        write(outbound.flip());
+    }
+
+    private void write(ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    Thread.onSpinWait();
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error writing to the shared memory", e);
+        }
+    }
+
+    /**
+     * Read the next message sent back by the Exchange, spinning until it arrives
+     *
+     * @return the raw message, or an empty String if the Exchange closed the connection
+     */
+    public String readMessage() {
+        try {
+            while (true) {
+                for (int i = 0; i < inbound.position(); i++) {
+                    if (inbound.get(i) == Encoder.END_OF_MESSAGE) {
+                        final String message = new String(inbound.array(), 0, i, StandardCharsets.US_ASCII);
+                        inbound.limit(inbound.position()).position(i + 1);
+                        inbound.compact();
+                        return message;
+                    }
+                }
+                if (!inbound.hasRemaining()) {
+                    log.error("Message from Exchange exceeds {} bytes", inbound.capacity());
+                    return "";
+                }
+                final int read = channel.read(inbound);
+                if (read < 0) {
+                    return "";
+                }
+                if (read == 0) {
+                    Thread.onSpinWait();
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error reading from the shared memory", e);
+            return "";
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.bitso;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.bitso.exception.MessageNotSupportedException;
+import com.bitso.exception.OrderNotFoundException;
+import com.bitso.exception.OrderRejectedException;
+import com.bitso.model.CandleInterval;
+import com.bitso.model.Market;
+import com.bitso.model.Message;
+import com.bitso.model.MessageType;
+import com.bitso.model.Order;
+import com.bitso.model.Trade;
+import com.bitso.repository.OrderBook;
+import com.bitso.repository.OrderBookRepository;
+import com.bitso.repository.OrderBookRepositoryImpl;
+import com.bitso.repository.PriceLevel;
+import com.bitso.repository.TradeTapeRepositoryImpl;
+import com.bitso.services.MatchingEngine;
+import com.bitso.services.OrderBookService;
+import com.bitso.services.OrderBookServiceImpl;
+import com.bitso.services.OrderService;
+import com.bitso.services.OrderServiceImpl;
+import com.bitso.services.RiskEngine;
+import com.bitso.services.TradeListener;
+import com.bitso.shared.Decoder;
+import com.bitso.shared.MarketRegistry;
+import com.bitso.shared.RecordFormat;
+import com.bitso.shared.RecordedMessageReader;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+
+import static com.bitso.shared.Config.TRADE_TAPE_DIR;
+
+/**
+ * Offline replay of a file of recorded messages (see {@link RecordFormat}) to backtest the {@link MatchingEngine}.
+ * <p>
+ * The messages are decoded and applied directly to the services at maximum speed, without sockets, without the
+ * Selector and with the logs disabled. The Trades executed are written to a CSV file and the final OrderBooks and the
+ * throughput are printed at the end.
+ * <p>
+ * Usage: {@code Replay <file> [TEXT|BINARY] [tradesFile]}. By default the format is TEXT and the Trades are written
+ * to {@code <file>.trades.csv}. With {@code -DtradeTape=<dir>} they are also appended to the persistent tape of Trades
+ *
+ * @author Andres Ortiz
+ */
+public class Replay implements TradeListener {
+
+    private final OrderService orderService = OrderServiceImpl.getInstance();
+    private final MatchingEngine matchingEngine = MatchingEngine.getInstance();
+    private final RiskEngine riskEngine = RiskEngine.getInstance();
+    private final OrderBookRepository orderBookRepository = OrderBookRepositoryImpl.getInstance();
+    private final OrderBookService orderBookService = OrderBookServiceImpl.getInstance();
+
+    private final BufferedWriter tradesWriter;
+    private final Map<MessageType, Long> messagesByType = new EnumMap<>(MessageType.class);
+    private long messages;
+    private long rejected;
+    private long trades;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: Replay <file> [TEXT|BINARY] [tradesFile]");
+            return;
+        }
+        final Path file = Path.of(args[0]);
+        final RecordFormat format = args.length > 1 ? RecordFormat.valueOf(args[1].toUpperCase()) : RecordFormat.TEXT;
+        final Path tradesFile = args.length > 2 ? Path.of(args[2]) : Path.of(args[0] + ".trades.csv");
+
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        if (TRADE_TAPE_DIR != null) {
+            MatchingEngine.getInstance().addTradeListener(TradeTapeRepositoryImpl.getInstance()::append);
+        }
+        try (BufferedWriter tradesWriter = Files.newBufferedWriter(tradesFile)) {
+            Replay replay = new Replay(tradesWriter);
+            replay.run(file, format);
+            System.out.println("Trades written to " + tradesFile);
+        } finally {
+            if (TRADE_TAPE_DIR != null) {
+                TradeTapeRepositoryImpl.getInstance().close();
+            }
+        }
+    }
+
+    public Replay(BufferedWriter tradesWriter) throws IOException {
+        this.tradesWriter = tradesWriter;
+        tradesWriter.write("executedAt,market,price,amount,takerSide,makerOrderId,takerOrderId");
+        tradesWriter.newLine();
+    }
+
+    /**
+     * Replay all the messages of the file and print the final OrderBooks and the throughput
+     *
+     * @param file
+     * @param format
+     * @throws IOException
+     */
+    public void run(Path file, RecordFormat format) throws IOException {
+        matchingEngine.addTradeListener(this);
+        final long start = System.nanoTime();
+        try (RecordedMessageReader reader = new RecordedMessageReader(file, format)) {
+            String message;
+            while ((message = reader.next()) != null) {
+                try {
+                    apply(message);
+                } catch (RuntimeException e) {
+                    throw new IllegalStateException("Error replaying line " + reader.getLine() + " of " + file + ": " + message, e);
+                }
+            }
+        } finally {
+            matchingEngine.removeTradeListener(this);
+        }
+        final long elapsed = System.nanoTime() - start;
+        printOrderBooks();
+        printStats(elapsed, Files.size(file));
+    }
+
+    /**
+     * Decode and apply a message to the services, as the {@link Exchange} does without responses or prints. The
+     * messages the Exchange would reject, including the malformed ones, are counted, any other error is thrown
+     *
+     * @param message
+     */
+    public void apply(String message) {
+        messages++;
+        Message msg;
+        try {
+            msg = Decoder.decode(message);
+        } catch (MessageNotSupportedException | RuntimeException e) {
+            rejected++;
+            return;
+        }
+        try {
+            messagesByType.merge(msg.getMessageType(), 1L, Long::sum);
+            switch (msg.getMessageType()) {
+                case ADD -> {
+                    riskEngine.checkOrder(msg);
+                    Order order = orderService.parseOrder(msg);
+                    matchingEngine.executeTrade(order);
+                }
+                case DELETE -> {
+                    riskEngine.checkOwner(msg);
+                    orderService.deleteOrder(msg.getOrderId());
+                }
+                case MODIFY -> {
+                    riskEngine.checkOwner(msg);
+                    orderService.modifyOrder(msg.getOrderId(), msg.getAmount(), msg.getPrice());
+                }
+                //The session of a recorded message is its tag 21
+                case MASS_CANCEL -> orderService.cancelOrders(msg.getSessionId(), msg.getMarket(), msg.getOrderSide());
+                case TRADING_PHASE -> matchingEngine.setPhase(msg.getMarket(), msg.getTradingPhase());
+                case PRINT, DEPTH, GAP, LOGON, HEARTBEAT, RESEND_REQUEST, EXECUTION_REPORT -> {
+                    //Queries, notifications and session messages do not change the OrderBooks
+                }
+            }
+        } catch (MessageNotSupportedException | OrderNotFoundException | OrderRejectedException e) {
+            rejected++;
+        }
+    }
+
+    @Override
+    public void onTrade(Trade trade) {
+        trades++;
+        try {
+            tradesWriter.write(trade.getExecutedAt() + "," + trade.getMarket() + "," + trade.getPrice() + ","
+                    + trade.getAmount() + "," + trade.getTakerSide() + "," + trade.getMakerOrderId() + ","
+                    + trade.getTakerOrderId());
+            tradesWriter.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Print the aggregated levels of each side of the final OrderBooks, with the VWAP and the last 1s candles
+     */
+    private void printOrderBooks() {
+        for (Market market : MarketRegistry.getInstance().getMarkets()) {
+            OrderBook orderBook = orderBookRepository.getOrderBook(market);
+            if (orderBook == null) {
+                continue;
+            }
+            System.out.println("--OrderBook " + market);
+            System.out.println("----Ask Levels: " + orderBook.getAskOrders().size());
+            printSide(orderBook.getAskOrders().descendingMap());
+            System.out.println("----Bid Levels: " + orderBook.getBidOrders().size());
+            printSide(orderBook.getBidOrders());
+            System.out.println("----VWAP: " + orderBookService.getVwap(market));
+            orderBookService.getCandles(market, CandleInterval.S1, 5).forEach(candle -> System.out.println("------" + candle));
+        }
+    }
+
+    private void printSide(ConcurrentNavigableMap<Double, PriceLevel> sideOrders) {
+        sideOrders.forEach((price, level) ->
+                System.out.println("------$ " + price + " Amount: " + level.getTotalAmount() + " Orders: " + level.size()));
+    }
+
+    private void printStats(long elapsedNanos, long bytes) {
+        final double seconds = elapsedNanos / 1_000_000_000.0;
+        System.out.println("--Replay stats");
+        System.out.println("----Messages: " + messages + " " + messagesByType);
+        System.out.println("----Rejected: " + rejected);
+        System.out.println("----Trades: " + trades);
+        System.out.println("----Resting Orders: " + orderBookRepository.getOrders().size());
+        System.out.printf("----Duration: %.3f s%n", seconds);
+        System.out.printf("----Throughput: %.0f messages/s, %.2f MB/s%n", messages / seconds, bytes / seconds / (1024 * 1024));
+    }
+}
@@ -1,12 +1,18 @@
 package com.bitso;
 
+import com.bitso.model.DepthType;
 import com.bitso.model.Market;
 import com.bitso.model.Message;
 import com.bitso.model.MessageType;
 import com.bitso.model.OrderSide;
+import com.bitso.shared.BulkOrderReader;
 import com.bitso.shared.Encoder;
+import com.bitso.shared.MarketRegistry;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.random.RandomGenerator;
@@ -14,6 +20,7 @@ import java.util.random.RandomGenerator;
 public class Script {
 
     private static final long MS = 100;
+    private static final Market BTC_USD = MarketRegistry.getInstance().get("BTC_USD");
 
     /**
      * Run the following steps to take a complete test: Populate an OrderBook and fully filled a trade:
@@ -47,6 +54,9 @@ public class Script {
         //--Print the Orders and the OrderBook currently on the Exchange for Market BTC_USD
         //print();
 
+        //--Request the top 10 price levels (L2) of each side for Market BTC_USD
+        //depth();
+
         //--Test Individual messages
         //createOrder();
         //removeOrder();
@@ -58,6 +68,9 @@ public class Script {
         //--Huge stress-test (Read the method javadocs first)
         //populateHugeOrderBook();
 
+        //--Huge OrderBook as a bulk-load file, to seed the Exchange at startup with -Dseed=huge-orderbook.csv
+        //writeHugeOrderBookFile(Path.of("huge-orderbook.csv"));
+
         //--BONUS TRACK: function to calculate the equilibrium mid-market price (EP)
         //testEquilibriumMidMarketPrice();
     }
@@ -89,7 +102,7 @@ public class Script {
                 .orderSide(OrderSide.BUY)
                 .price(400)
                 .amount(5)
-                .market(Market.BTC_USD)
+                .market(BTC_USD)
                 .build();
         sendMessage(msg);
     }
@@ -100,11 +113,33 @@ public class Script {
     private static void print() {
         Message msg = Message.builder()
                 .messageType(MessageType.PRINT)
-                .market(Market.BTC_USD)
+                .market(BTC_USD)
                 .build();
         sendMessage(msg);
     }
 
+    /**
+     * Request a Depth snapshot with the top 10 price levels of the BTC/USD OrderBook and print the response
+     */
+    private static void depth() {
+        Message msg = Message.builder()
+                .messageType(MessageType.DEPTH)
+                .market(BTC_USD)
+                .depth(10)
+                .depthType(DepthType.L2)
+                .build();
+        String message = Encoder.encode(msg);
+        System.out.println("Message sent: " + message);
+        try {
+            Client client = new Client();
+            client.sendMessage(message);
+            System.out.println("Response received: " + client.readMessage());
+            client.stop();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Send a new Order to the Exchange
      */
@@ -114,7 +149,7 @@ public class Script {
                 .orderSide(OrderSide.BUY)
                 .price(300)
                 .amount(50)
-                .market(Market.BTC_USD)
+                .market(BTC_USD)
                 .build();
         sendMessage(msg);
     }
@@ -184,6 +219,35 @@ public class Script {
         populateOrderBook(initialPrice, priceLevels, minPriceUnit, ordersPerLevel);
     }
 
+    /**
+     * Write the same OrderBook of {@link #populateHugeOrderBook()} to a bulk-load file (see {@link BulkOrderReader}),
+     * so the Exchange starts with it in a fraction of a second with {@code -Dseed=<file>}, instead of receiving the
+     * Orders one by one
+     *
+     * @param file
+     * @throws IOException
+     */
+    private static void writeHugeOrderBookFile(Path file) throws IOException {
+        final int initialPrice = 100;
+        final int priceLevels = 100;
+        final int ordersPerLevel = 2000;
+        RandomGenerator gen = RandomGenerator.of("L128X256MixRandom");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("market,side,price,amount,orderId,sessionId");
+            writer.newLine();
+            //-- Buy Orders from $100 to $199 and Sell Orders from $200 to $299
+            for (int i = initialPrice; i < initialPrice + priceLevels * 2; i++) {
+                final String side = i < initialPrice + priceLevels ? "B" : "S";
+                for (int j = 0; j < ordersPerLevel; j++) {
+                    writer.write(BTC_USD.getSymbol() + "," + side + "," + i + "," + (gen.nextInt(99) + 1));
+                    writer.newLine();
+                }
+            }
+        }
+        System.out.println("Bulk-load file written to " + file);
+    }
+
     /**
      * Populate OrderBook given the lowest price, the level per price, the minimum price unit and the total of
      * orders creating per price level.
@@ -204,7 +268,7 @@ public class Script {
                         .orderSide(OrderSide.BUY)
                         .price(i)
                         .amount(gen.nextInt(100))
-                        .market(Market.BTC_USD)
+                        .market(BTC_USD)
                         .build();
                 sendMessage(msg);
             }
@@ -218,7 +282,7 @@ public class Script {
                         .orderSide(OrderSide.SELL)
                         .price(i)
                         .amount(gen.nextInt(100))
-                        .market(Market.BTC_USD)
+                        .market(BTC_USD)
                         .build();
                 sendMessage(msg);
             }
@@ -226,7 +290,7 @@ public class Script {
     }
 
     /**
-     * Calculate Equilibrium Mid-Market Price with the sample case given a {@code halfLife} parameter of 0.5 hardcoded in {@link Exchange#process(String)}
+     * Calculate Equilibrium Mid-Market Price with the sample case given a {@code halfLife} parameter of 0.5 hardcoded in {@link Exchange#process(Message, Connection)}
      * <p>
      * This prototype use the {@link MessageType#PRINT} message to trigger the calculations, because it's not part of the communication protocol yet.
      */
@@ -249,7 +313,7 @@ public class Script {
                 .orderSide(side)
                 .price(price)
                 .amount(amount)
-                .market(Market.BTC_USD)
+                .market(BTC_USD)
                 .build();
         sendMessage(msg);
     }
@@ -0,0 +1,289 @@
+package com.bitso.analytics;
+
+import com.bitso.metrics.MetricsRegistry;
+import com.bitso.model.Market;
+import com.bitso.repository.OrderBook;
+import com.bitso.repository.OrderBookRepository;
+import com.bitso.repository.OrderBookRepositoryImpl;
+import com.bitso.repository.OrderFlow;
+import com.bitso.repository.PriceLevel;
+import com.bitso.repository.TradeTapeRepositoryImpl;
+import com.bitso.repository.TradeTapeSegment;
+import com.bitso.services.CandleAggregator;
+import com.bitso.services.DiscountedVolume;
+import com.bitso.shared.MarketRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.bitso.shared.Config.ANALYTICS_DEPTH_BANDS;
+import static com.bitso.shared.Config.ANALYTICS_HALF_LIVES;
+import static com.bitso.shared.Config.ANALYTICS_THREADS;
+import static com.bitso.shared.Config.TRADE_TAPE_DIR;
+
+/**
+ * Cross-market analytics of the Exchange, e.g. the end-of-day report, computed off the matching thread.
+ * <p>
+ * The matching stage only takes a {@link MarketSnapshot} of each Market, which copies the amount and number of Orders
+ * of each price level (not the Orders), the {@link OrderFlow} counters and the number of Trades of the tape. The
+ * statistics are then computed from the snapshots by a dedicated {@link ForkJoinPool}: one task per Market, and the
+ * tape of a Market is scanned by a {@link TapeScan} that splits it among the idle workers. The pool is separate from
+ * the common pool, so the analytics never compete with other parallel streams for it.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class AnalyticsEngine {
+
+    private static AnalyticsEngine INSTANCE;
+    private final OrderBookRepository orderBookRepository = OrderBookRepositoryImpl.getInstance();
+    private final DiscountedVolume discountedVolume = DiscountedVolume.getInstance();
+    private final ForkJoinPool pool = new ForkJoinPool(ANALYTICS_THREADS);
+
+    /**
+     * Get Singleton instance
+     *
+     * @return
+     */
+    public static AnalyticsEngine getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new AnalyticsEngine();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Take a snapshot of all the Markets. Must be called by the matching stage, so all the OrderBooks and tapes are in
+     * the same state
+     *
+     * @param endOfDay reset the {@link OrderFlow} counters, so each end-of-day report covers its own day
+     * @return the snapshots of the Markets with an OrderBook
+     */
+    public List<MarketSnapshot> snapshot(boolean endOfDay) {
+        final Instant now = Instant.now();
+        final LocalDate day = LocalDate.ofInstant(now, ZoneOffset.UTC);
+        List<MarketSnapshot> snapshots = new ArrayList<>();
+        for (Market market : MarketRegistry.getInstance().getMarkets()) {
+            OrderBook orderBook = orderBookRepository.getOrderBook(market);
+            if (orderBook == null) {
+                continue;
+            }
+            Levels bids = new Levels(orderBook.getBidOrders());
+            Levels asks = new Levels(orderBook.getAskOrders());
+            TradeTapeSegment tape = null;
+            if (TRADE_TAPE_DIR != null) {
+                try {
+                    tape = TradeTapeRepositoryImpl.getInstance().getSegment(market, day);
+                } catch (IOException e) {
+                    log.error("Tape of {} could not be opened for the analytics", market, e);
+                }
+            }
+            snapshots.add(MarketSnapshot.builder()
+                    .market(market)
+                    .takenAt(now)
+                    .bidPrices(bids.prices)
+                    .bidVolumes(bids.volumes)
+                    .bidOrders(bids.orders)
+                    .askPrices(asks.prices)
+                    .askVolumes(asks.volumes)
+                    .askOrders(asks.orders)
+                    .flow(orderBook.getFlow().copy(endOfDay))
+                    .tape(tape)
+                    .tapeRows(tape != null ? tape.size() : 0)
+                    .trades(MetricsRegistry.getInstance().market(market).getTradesTotal())
+                    .vwap(CandleAggregator.getInstance().getVwap(market))
+                    .build());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Compute the statistics of the snapshots in the analytics pool
+     *
+     * @param snapshots
+     * @return the statistics of each Market, in the order of the snapshots
+     */
+    public CompletableFuture<List<MarketStatistics>> analyze(List<MarketSnapshot> snapshots) {
+        return CompletableFuture.supplyAsync(() -> snapshots.parallelStream().map(this::analyze).toList(), pool);
+    }
+
+    /**
+     * Compute the statistics of one Market
+     *
+     * @param snapshot
+     * @return
+     */
+    private MarketStatistics analyze(MarketSnapshot snapshot) {
+        final double[] bidVolumes = snapshot.getBidVolumes();
+        final double[] askVolumes = snapshot.getAskVolumes();
+        final double bestBid = bidVolumes.length > 0 ? snapshot.getBidPrices()[0] : Double.NaN;
+        final double bestAsk = askVolumes.length > 0 ? snapshot.getAskPrices()[0] : Double.NaN;
+        final double mid = (bestBid + bestAsk) / 2;
+
+        double[] equilibriumPrices = new double[ANALYTICS_HALF_LIVES.length];
+        if (bidVolumes.length > 0 && askVolumes.length > 0) {
+            final double[] factors = DiscountedVolume.factors(ANALYTICS_HALF_LIVES);
+            double[] bidSums = new double[factors.length];
+            double[] askSums = new double[factors.length];
+            discountedVolume.sum(bidVolumes, bidVolumes.length, factors, bidSums);
+            discountedVolume.sum(askVolumes, askVolumes.length, factors, askSums);
+            DiscountedVolume.equilibriumPrices(bestBid, bestAsk, bidSums, askSums, ANALYTICS_HALF_LIVES, equilibriumPrices);
+        } else {
+            Arrays.fill(equilibriumPrices, Double.NaN);
+        }
+
+        final OrderFlow flow = snapshot.getFlow();
+        MarketStatistics.MarketStatisticsBuilder statistics = MarketStatistics.builder()
+                .market(snapshot.getMarket())
+                .takenAt(snapshot.getTakenAt())
+                .bidLevels(bidVolumes.length)
+                .askLevels(askVolumes.length)
+                .restingOrders(sum(snapshot.getBidOrders()) + sum(snapshot.getAskOrders()))
+                .bestBid(bestBid)
+                .bestAsk(bestAsk)
+                .bidDepth(depthProfile(snapshot.getBidPrices(), bidVolumes, mid, -1))
+                .askDepth(depthProfile(snapshot.getAskPrices(), askVolumes, mid, 1))
+                .equilibriumPrices(equilibriumPrices)
+                .added(flow.getAdded())
+                .cancelled(flow.getCancelled())
+                .filled(flow.getFilled())
+                .cancelRatio(flow.getAdded() > 0 ? (double) flow.getCancelled() / flow.getAdded() : Double.NaN)
+                .cancelToFillRatio(flow.getFilled() > 0 ? (double) flow.getCancelled() / flow.getFilled() : Double.NaN)
+                .lifetimeP50(flow.getLifetimePercentile(0.5))
+                .lifetimeP90(flow.getLifetimePercentile(0.9))
+                .lifetimeP99(flow.getLifetimePercentile(0.99))
+                .lifetimes(flow.getLifetimes());
+
+        if (snapshot.getTape() != null) {
+            //Runs in a worker of the pool, so the halves are forked to the same pool
+            TapeScan.Totals totals = new TapeScan(snapshot.getTape(), 0, snapshot.getTapeRows()).invoke();
+            statistics.trades(totals.trades)
+                    .volume(totals.volume)
+                    .buyVolume(totals.buyVolume)
+                    .vwap(totals.volume > 0 ? totals.notional / totals.volume : Double.NaN)
+                    .high(totals.high)
+                    .low(totals.low);
+        } else {
+            statistics.trades(snapshot.getTrades())
+                    .volume(Double.NaN)
+                    .buyVolume(Double.NaN)
+                    .vwap(snapshot.getVwap())
+                    .high(Double.NaN)
+                    .low(Double.NaN);
+        }
+        return statistics.build();
+    }
+
+    /**
+     * Cumulative amount of one side within each band around the mid price
+     *
+     * @param prices    prices of the levels from the best price
+     * @param volumes
+     * @param mid
+     * @param direction -1 for the bids (below the mid price), 1 for the asks
+     * @return
+     */
+    private static double[] depthProfile(double[] prices, double[] volumes, double mid, int direction) {
+        double[] depth = new double[ANALYTICS_DEPTH_BANDS.length];
+        int level = 0;
+        double cumulative = 0;
+        for (int band = 0; band < depth.length; band++) {
+            final double limit = mid * (1 + direction * ANALYTICS_DEPTH_BANDS[band]);
+            while (level < prices.length && (direction < 0 ? prices[level] >= limit : prices[level] <= limit)) {
+                cumulative += volumes[level++];
+            }
+            depth[band] = cumulative;
+        }
+        return depth;
+    }
+
+    private static long sum(int[] values) {
+        long sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * Text report of the statistics of the Markets
+     *
+     * @param statistics
+     * @return
+     */
+    public String report(List<MarketStatistics> statistics) {
+        StringBuilder report = new StringBuilder("--Analytics");
+        for (MarketStatistics market : statistics) {
+            report.append("\n----Market ").append(market.getMarket()).append(" at ").append(market.getTakenAt())
+                    .append("\n------Book: bid ").append(market.getBestBid()).append(" / ask ").append(market.getBestAsk())
+                    .append(", levels ").append(market.getBidLevels()).append(" / ").append(market.getAskLevels())
+                    .append(", resting Orders ").append(market.getRestingOrders())
+                    .append("\n------Depth within ").append(Arrays.toString(ANALYTICS_DEPTH_BANDS))
+                    .append(" of mid: bids ").append(Arrays.toString(market.getBidDepth()))
+                    .append(", asks ").append(Arrays.toString(market.getAskDepth()))
+                    .append("\n------EP of half-lives ").append(Arrays.toString(ANALYTICS_HALF_LIVES))
+                    .append(": ").append(Arrays.toString(market.getEquilibriumPrices()))
+                    .append("\n------Trades ").append(market.getTrades())
+                    .append(", volume ").append(market.getVolume())
+                    .append(" (buy ").append(market.getBuyVolume()).append(")")
+                    .append(", VWAP ").append(market.getVwap())
+                    .append(", high ").append(market.getHigh())
+                    .append(", low ").append(market.getLow())
+                    .append("\n------Orders added ").append(market.getAdded())
+                    .append(", cancelled ").append(market.getCancelled())
+                    .append(", filled ").append(market.getFilled())
+                    .append(", cancel ratio ").append(market.getCancelRatio())
+                    .append(", cancel-to-fill ").append(market.getCancelToFillRatio())
+                    .append("\n------Lifetime (ms): p50 ").append(market.getLifetimeP50())
+                    .append(", p90 ").append(market.getLifetimeP90())
+                    .append(", p99 ").append(market.getLifetimeP99());
+        }
+        return report.toString();
+    }
+
+    /**
+     * Levels of one side of an OrderBook copied from the best price
+     */
+    private static class Levels {
+
+        private double[] prices;
+        private double[] volumes;
+        private int[] orders;
+
+        private Levels(ConcurrentNavigableMap<Double, PriceLevel> sideOrders) {
+            int capacity = 64;
+            prices = new double[capacity];
+            volumes = new double[capacity];
+            orders = new int[capacity];
+            int count = 0;
+            for (Map.Entry<Double, PriceLevel> level : sideOrders.entrySet()) {
+                if (count == capacity) {
+                    capacity *= 2;
+                    prices = Arrays.copyOf(prices, capacity);
+                    volumes = Arrays.copyOf(volumes, capacity);
+                    orders = Arrays.copyOf(orders, capacity);
+                }
+                prices[count] = level.getKey();
+                volumes[count] = level.getValue().getTotalAmount();
+                orders[count] = level.getValue().size();
+                count++;
+            }
+            prices = Arrays.copyOf(prices, count);
+            volumes = Arrays.copyOf(volumes, count);
+            orders = Arrays.copyOf(orders, count);
+        }
+    }
+
+    private AnalyticsEngine() {
+    }
+}
@@ -0,0 +1,47 @@
+package com.bitso.analytics;
+
+import com.bitso.model.Market;
+import com.bitso.repository.OrderFlow;
+import com.bitso.repository.TradeTapeSegment;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * Copy of the state of a Market taken by the matching stage, so it can be analyzed by other threads while the matching
+ * goes on: the total amount and number of Orders of each price level from the best price, the {@link OrderFlow} and
+ * the number of Trades of the tape at that moment.
+ * <p>
+ * The tape segment is append-only, so its first {@code tapeRows} rows never change after the snapshot.
+ *
+ * @author Andres Ortiz
+ */
+@Builder
+@Getter
+public class MarketSnapshot {
+
+    private final Market market;
+    private final Instant takenAt;
+
+    private final double[] bidPrices;
+    private final double[] bidVolumes;
+    private final int[] bidOrders;
+    private final double[] askPrices;
+    private final double[] askVolumes;
+    private final int[] askOrders;
+
+    private final OrderFlow flow;
+
+    /**
+     * Segment of the day of the tape and its number of Trades, null without tape
+     */
+    private final TradeTapeSegment tape;
+    private final long tapeRows;
+
+    /**
+     * Trades and VWAP since the Exchange started, used without tape
+     */
+    private final long trades;
+    private final double vwap;
+}
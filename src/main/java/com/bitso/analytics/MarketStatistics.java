@@ -0,0 +1,60 @@
+package com.bitso.analytics;
+
+import com.bitso.model.Market;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * Statistics of a Market computed from a {@link MarketSnapshot} by the {@link AnalyticsEngine}
+ *
+ * @author Andres Ortiz
+ */
+@Builder
+@Getter
+public class MarketStatistics {
+
+    private final Market market;
+    private final Instant takenAt;
+
+    /**
+     * Depth profile: levels, resting Orders and cumulative amount of each side within each band around the mid price,
+     * see {@link com.bitso.shared.Config#ANALYTICS_DEPTH_BANDS}
+     */
+    private final int bidLevels;
+    private final int askLevels;
+    private final long restingOrders;
+    private final double bestBid;
+    private final double bestAsk;
+    private final double[] bidDepth;
+    private final double[] askDepth;
+
+    /**
+     * Equilibrium mid-market price of each half-life of {@link com.bitso.shared.Config#ANALYTICS_HALF_LIVES}
+     */
+    private final double[] equilibriumPrices;
+
+    /**
+     * Trades of the day in the tape, or since the Exchange started without tape (the volume and the prices are NaN)
+     */
+    private final long trades;
+    private final double volume;
+    private final double buyVolume;
+    private final double vwap;
+    private final double high;
+    private final double low;
+
+    /**
+     * Order flow of the period and percentiles of the lifetime of the Orders removed, in milliseconds
+     */
+    private final long added;
+    private final long cancelled;
+    private final long filled;
+    private final double cancelRatio;
+    private final double cancelToFillRatio;
+    private final long lifetimeP50;
+    private final long lifetimeP90;
+    private final long lifetimeP99;
+    private final long[] lifetimes;
+}
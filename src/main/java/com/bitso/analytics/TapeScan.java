@@ -0,0 +1,95 @@
+package com.bitso.analytics;
+
+import com.bitso.model.OrderSide;
+import com.bitso.repository.TradeTapeSegment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join scan of the Trades of a tape segment: a range larger than {@link #THRESHOLD} rows is split in halves
+ * scanned in parallel, and their totals are merged
+ *
+ * @author Andres Ortiz
+ */
+class TapeScan extends RecursiveTask<TapeScan.Totals> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long THRESHOLD = 1 << 16;
+
+    private final TradeTapeSegment segment;
+    private final long from;
+    private final long to;
+
+    TapeScan(TradeTapeSegment segment, long from, long to) {
+        this.segment = segment;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected Totals compute() {
+        if (to - from <= THRESHOLD) {
+            Totals totals = new Totals();
+            try {
+                segment.scan(from, to, totals);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return totals;
+        }
+        final long middle = (from + to) >>> 1;
+        TapeScan left = new TapeScan(segment, from, middle);
+        left.fork();
+        Totals right = new TapeScan(segment, middle, to).compute();
+        return left.join().merge(right);
+    }
+
+    /**
+     * Totals of the Trades of a range
+     */
+    static class Totals implements TradeTapeSegment.RowVisitor {
+
+        long trades;
+        double volume;
+        double buyVolume;
+        double notional;
+        double high = Double.NaN;
+        double low = Double.NaN;
+
+        @Override
+        public void visit(double price, double amount, OrderSide takerSide) {
+            trades++;
+            volume += amount;
+            notional += price * amount;
+            if (takerSide == OrderSide.BUY) {
+                buyVolume += amount;
+            }
+            if (!(price <= high)) {
+                high = price;
+            }
+            if (!(price >= low)) {
+                low = price;
+            }
+        }
+
+        Totals merge(Totals other) {
+            if (other.trades == 0) {
+                return this;
+            }
+            trades += other.trades;
+            volume += other.volume;
+            buyVolume += other.buyVolume;
+            notional += other.notional;
+            if (!(other.high <= high)) {
+                high = other.high;
+            }
+            if (!(other.low >= low)) {
+                low = other.low;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.bitso.client;
+
+import com.bitso.exception.MessageNotSupportedException;
+import com.bitso.model.DepthType;
+import com.bitso.model.Market;
+import com.bitso.model.Message;
+import com.bitso.model.MessageType;
+import com.bitso.shared.Decoder;
+import com.bitso.shared.Encoder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.bitso.shared.Config.BUFFER_CAPACITY;
+import static com.bitso.shared.Config.HEARTBEAT_SECONDS;
+import static com.bitso.shared.Config.OUTBOUND_BUFFER_CAPACITY;
+
+/**
+ * Session of an {@link ExchangeClient} on its own socket. Requests are pipelined: they are sent without waiting for
+ * the previous responses, and each one returns a {@link CompletableFuture}.
+ * <p>
+ * ADD, DELETE and MODIFY requests are correlated with their Execution Reports by Order id, the ADD messages getting a
+ * client assigned id when they have none. The reports of the same Order arrive in the order of its requests, and so
+ * do the Depth responses of the session. The futures are completed by the Selector thread of the client, so their
+ * callbacks should not block.
+ * <p>
+ * The caller encodes each message into a pooled buffer with its sequence number under the lock of the session, and
+ * the Selector thread writes all the buffers queued with one gathering write.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class ClientSession implements Closeable {
+
+    private static final int MAX_GATHERED_MESSAGES = 64;
+
+    private final ExchangeClient client;
+    @Getter
+    private final String name;
+    private final SocketChannel channel;
+
+    /**
+     * Completed with the session once the Exchange answers its Logon
+     */
+    @Getter
+    private final CompletableFuture<ClientSession> logon = new CompletableFuture<>();
+
+    /**
+     * Lock to number and queue the messages in the same order
+     */
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private long sequence;
+    private volatile long lastSentMillis;
+
+    /**
+     * Encoded messages waiting to be written, and written buffers to reuse
+     */
+    private final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+    /**
+     * Requests waiting for their responses: the Execution Reports by Order id, and the Depth responses in order
+     */
+    private final Map<UUID, Queue<CompletableFuture<Message>>> reports = new ConcurrentHashMap<>();
+    private final Queue<CompletableFuture<String>> depths = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Buffers of the gathering write and of the bytes received, only used by the Selector thread
+     */
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_MESSAGES];
+    private int gatheredCount;
+    private final ByteBuffer inbound = ByteBuffer.allocate(OUTBOUND_BUFFER_CAPACITY);
+    private SelectionKey key;
+    private volatile boolean closed;
+
+    ClientSession(ExchangeClient client, String name, SocketChannel channel) {
+        this.client = client;
+        this.name = name;
+        this.channel = channel;
+        send(Message.builder().messageType(MessageType.LOGON).sessionName(name).build());
+    }
+
+    /**
+     * Send an ADD message
+     *
+     * @param msg ADD message, it gets a random Order id if it has none
+     * @return the Execution Report of the Order
+     */
+    public CompletableFuture<Message> addOrder(Message msg) {
+        if (msg.getMessageType() != MessageType.ADD) {
+            return CompletableFuture.failedFuture(new MessageNotSupportedException("The Message to add is not of type MessageType.ADD"));
+        }
+        if (msg.getOrderId() == null) {
+            msg.setOrderId(UUID.randomUUID());
+        }
+        return request(msg);
+    }
+
+    /**
+     * Send a DELETE message
+     *
+     * @param orderId
+     * @return the Execution Report of the Order
+     */
+    public CompletableFuture<Message> deleteOrder(UUID orderId) {
+        return request(Message.builder()
+                .messageType(MessageType.DELETE)
+                .orderId(orderId)
+                .build());
+    }
+
+    /**
+     * Send a MODIFY message
+     *
+     * @param orderId
+     * @param newAmount
+     * @param newPrice  0 to keep the current price
+     * @return the Execution Report of the Order
+     */
+    public CompletableFuture<Message> modifyOrder(UUID orderId, double newAmount, double newPrice) {
+        return request(Message.builder()
+                .messageType(MessageType.MODIFY)
+                .orderId(orderId)
+                .amount(newAmount)
+                .price(newPrice)
+                .build());
+    }
+
+    /**
+     * Send a DEPTH message
+     *
+     * @param market
+     * @param depthType
+     * @param depth
+     * @return the raw Depth response
+     */
+    public CompletableFuture<String> depth(Market market, DepthType depthType, int depth) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        sendLock.lock();
+        try {
+            //Registered before the message is queued, the response may arrive before enqueue returns
+            depths.add(future);
+            enqueue(Message.builder()
+                    .messageType(MessageType.DEPTH)
+                    .market(market)
+                    .depthType(depthType)
+                    .depth(depth)
+                    .build());
+        } catch (IOException | RuntimeException e) {
+            depths.remove(future);
+            future.completeExceptionally(e);
+        } finally {
+            sendLock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Send a message without response, e.g. a MASS_CANCEL
+     *
+     * @param msg
+     * @return false if the session is closed
+     */
+    public boolean send(Message msg) {
+        sendLock.lock();
+        try {
+            enqueue(msg);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private CompletableFuture<Message> request(Message msg) {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        sendLock.lock();
+        try {
+            //Registered before the message is queued, the report may arrive before enqueue returns
+            reports.compute(msg.getOrderId(), (orderId, futures) -> {
+                Queue<CompletableFuture<Message>> queue = futures != null ? futures : new ArrayDeque<>();
+                queue.add(future);
+                return queue;
+            });
+            enqueue(msg);
+        } catch (IOException | RuntimeException e) {
+            if (msg.getOrderId() != null) {
+                reports.computeIfPresent(msg.getOrderId(), (orderId, futures) -> {
+                    futures.remove(future);
+                    return futures.isEmpty() ? null : futures;
+                });
+            }
+            future.completeExceptionally(e);
+        } finally {
+            sendLock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Encode a message with the next sequence number and queue it for the Selector thread, which is only woken up by
+     * the first message queued since its last write. Called under {@link #sendLock}
+     *
+     * @param msg
+     * @throws IOException if the session is closed
+     */
+    private void enqueue(Message msg) throws IOException {
+        if (closed) {
+            throw new IOException("Session " + name + " is closed");
+        }
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(BUFFER_CAPACITY);
+        }
+        buffer.clear();
+        Encoder.frame(msg, sequence + 1, buffer);
+        sequence++;
+        pending.add(buffer.flip());
+        lastSentMillis = System.currentTimeMillis();
+        if (writeScheduled.compareAndSet(false, true)) {
+            client.scheduleWrite(this);
+        }
+    }
+
+    /**
+     * Register the socket in the Selector of the client
+     *
+     * @param selector
+     * @throws IOException
+     */
+    void register(Selector selector) throws IOException {
+        key = channel.register(selector, channel.isConnected() ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+        if (channel.isConnected()) {
+            flush();
+        }
+    }
+
+    void finishConnect() throws IOException {
+        if (channel.finishConnect()) {
+            key.interestOps(SelectionKey.OP_READ);
+            flush();
+        }
+    }
+
+    /**
+     * Write the messages queued with gathering writes, until the socket does not accept more
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        writeScheduled.set(false);
+        if (key == null || !channel.isConnected() || closed) {
+            return;
+        }
+        while (true) {
+            ByteBuffer buffer;
+            while (gatheredCount < gathered.length && (buffer = pending.poll()) != null) {
+                gathered[gatheredCount++] = buffer;
+            }
+            if (gatheredCount == 0) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            channel.write(gathered, 0, gatheredCount);
+            int written = 0;
+            while (written < gatheredCount && !gathered[written].hasRemaining()) {
+                pool.add(gathered[written++]);
+            }
+            System.arraycopy(gathered, written, gathered, 0, gatheredCount - written);
+            gatheredCount -= written;
+            if (gatheredCount > 0) {
+                //The socket is full, the rest is written when it is writable again
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the responses received and complete their futures
+     *
+     * @throws IOException
+     */
+    void read() throws IOException {
+        if (channel.read(inbound) < 0) {
+            throw new EOFException("The Exchange closed the connection of session " + name);
+        }
+        int start = 0;
+        for (int i = 0; i < inbound.position(); i++) {
+            if (inbound.get(i) == Encoder.END_OF_MESSAGE) {
+                dispatch(new String(inbound.array(), start, i - start, StandardCharsets.US_ASCII));
+                start = i + 1;
+            }
+        }
+        if (start == 0 && !inbound.hasRemaining()) {
+            throw new IOException("Message from Exchange exceeds " + inbound.capacity() + " bytes");
+        }
+        inbound.limit(inbound.position()).position(start);
+        inbound.compact();
+    }
+
+    private void dispatch(String message) {
+        try {
+            //Depth responses have repeated entries, they are passed raw
+            if (message.startsWith("1=L", 8)) {
+                CompletableFuture<String> future = depths.poll();
+                if (future != null) {
+                    future.complete(message);
+                }
+                return;
+            }
+            Message msg = Decoder.decode(message);
+            switch (msg.getMessageType()) {
+                case LOGON -> logon.complete(this);
+                case EXECUTION_REPORT -> complete(msg);
+                case GAP -> log.warn("Session {} was too slow, the Exchange dropped {} responses", name, msg.getDropped());
+                case RESEND_REQUEST -> log.warn("Session {} cannot resend the messages {} to {}", name, msg.getBeginSequence(), msg.getEndSequence());
+                default -> log.debug("Message of session {}: {}", name, message);
+            }
+        } catch (MessageNotSupportedException | RuntimeException e) {
+            log.error("Error decoding the message {} of session {}", message, name, e);
+        }
+    }
+
+    private void complete(Message report) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final CompletableFuture<Message>[] future = new CompletableFuture[1];
+        reports.computeIfPresent(report.getOrderId(), (orderId, futures) -> {
+            future[0] = futures.poll();
+            return futures.isEmpty() ? null : futures;
+        });
+        if (future[0] != null) {
+            future[0].complete(report);
+        }
+    }
+
+    /**
+     * Send a Heartbeat if nothing was sent for the heartbeat interval, so the Exchange does not disconnect the session
+     *
+     * @param nowMillis
+     */
+    void heartbeat(long nowMillis) {
+        if (HEARTBEAT_SECONDS > 0 && logon.isDone() && nowMillis - lastSentMillis >= TimeUnit.SECONDS.toMillis(HEARTBEAT_SECONDS)) {
+            send(Message.builder().messageType(MessageType.HEARTBEAT).build());
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close the socket and fail the requests waiting for a response
+     *
+     * @param cause
+     */
+    void close(Throwable cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Error closing the socket of session {}", name, e);
+        }
+        log.info("Session {} closed: {}", name, cause.getMessage());
+        logon.completeExceptionally(cause);
+        reports.values().forEach(futures -> futures.forEach(future -> future.completeExceptionally(cause)));
+        reports.clear();
+        depths.forEach(future -> future.completeExceptionally(cause));
+        depths.clear();
+    }
+
+    @Override
+    public void close() {
+        close(new IOException("Session " + name + " closed by the client"));
+    }
+}
@@ -0,0 +1,180 @@
+package com.bitso.client;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.bitso.shared.Config.BIND_ADDRESS;
+
+/**
+ * Non-blocking client library of the Exchange: one {@link Selector} thread serves the sockets of many sessions (see
+ * {@link ClientSession}), so a strategy trading dozens of books needs one I/O thread instead of one per socket.
+ * <p>
+ * Any thread can send through a session without waiting: the messages are encoded and queued by the caller, and the
+ * Selector thread writes everything queued by all the threads with one gathering write per socket. The responses are
+ * read by the Selector thread, which completes the {@link CompletableFuture} of each request.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class ExchangeClient implements Closeable {
+
+    private static final long SELECT_TIMEOUT_MILLIS = 1_000;
+
+    private final InetSocketAddress address;
+    private final Selector selector;
+    private final Thread thread;
+
+    /**
+     * Sessions to register in the Selector and sessions with messages queued, handed to the Selector thread
+     */
+    private final Queue<ClientSession> registrations = new ConcurrentLinkedQueue<>();
+    private final Queue<ClientSession> writes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Sessions registered, only used by the Selector thread
+     */
+    private final List<ClientSession> sessions = new ArrayList<>();
+    private volatile boolean running = true;
+
+    /**
+     * Start a client of the Exchange of the configuration
+     *
+     * @throws IOException
+     */
+    public ExchangeClient() throws IOException {
+        this(BIND_ADDRESS);
+    }
+
+    /**
+     * Start a client of the Exchange at the given address
+     *
+     * @param address
+     * @throws IOException
+     */
+    public ExchangeClient(InetSocketAddress address) throws IOException {
+        this.address = address;
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "exchange-client");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Connect a new socket and log on to a session. Messages can be sent through the session right away, they are
+     * written after the Logon
+     *
+     * @param sessionName
+     * @return the session, completed once the Exchange answers the Logon
+     */
+    public CompletableFuture<ClientSession> connect(String sessionName) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(address);
+            ClientSession session = new ClientSession(this, sessionName, channel);
+            registrations.add(session);
+            selector.wakeup();
+            return session.getLogon();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Hand a session with messages queued to the Selector thread
+     *
+     * @param session
+     */
+    void scheduleWrite(ClientSession session) {
+        writes.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * Loop of the Selector thread: register the new sessions, read the responses, write the messages queued and send
+     * the Heartbeats of the idle sessions
+     */
+    private void run() {
+        while (running) {
+            try {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                log.error("Error selecting the sockets of the client", e);
+                break;
+            }
+            ClientSession session;
+            while ((session = registrations.poll()) != null) {
+                try {
+                    session.register(selector);
+                    sessions.add(session);
+                } catch (IOException e) {
+                    session.close(e);
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                session = (ClientSession) key.attachment();
+                try {
+                    if (key.isValid() && key.isConnectable()) {
+                        session.finishConnect();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        session.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        session.flush();
+                    }
+                } catch (IOException e) {
+                    session.close(e);
+                }
+            }
+            while ((session = writes.poll()) != null) {
+                try {
+                    session.flush();
+                } catch (IOException e) {
+                    session.close(e);
+                }
+            }
+            final long now = System.currentTimeMillis();
+            sessions.removeIf(ClientSession::isClosed);
+            for (ClientSession registered : sessions) {
+                registered.heartbeat(now);
+            }
+        }
+        for (ClientSession registered : sessions) {
+            registered.close(new IOException("Client closed"));
+        }
+    }
+
+    /**
+     * Close all the sessions and stop the Selector thread
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        selector.close();
+    }
+}
@@ -0,0 +1,16 @@
+package com.bitso.exception;
+
+/**
+ * Exception when a message is rejected by the pre-trade risk checks of the Exchange.
+ * Rejections are part of the normal flow, so the stack trace is not filled
+ *
+ * @author Andres Ortiz
+ */
+public class OrderRejectedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public OrderRejectedException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,186 @@
+package com.bitso.ipc;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Shared-memory connection between a co-located client and the {@link com.bitso.Exchange}: a memory-mapped file,
+ * under /dev/shm to stay in memory, with two {@link IpcRing}s, one per direction.
+ * <p>
+ * Layout of the file:
+ * <pre>
+ *     0    magic, capacity of each ring, state (NEW, READY, ACCEPTED, CLOSED)
+ *     128  ring from the client to the Exchange
+ *     ...  ring from the Exchange to the client
+ * </pre>
+ * The client creates the file and marks it READY, the {@link IpcGateway} of the Exchange maps it and marks it
+ * ACCEPTED, and either side marks it CLOSED. Each side reads its inbound ring and writes its outbound ring, so each
+ * ring has a single producer and a single consumer. As a {@link ByteChannel} it is non-blocking: a read or write
+ * returns 0 when the ring is empty or full, and a read returns -1 once the other side closed and the ring is empty.
+ *
+ * @author Andres Ortiz
+ */
+public class IpcChannel implements ByteChannel {
+
+    public static final String FILE_EXTENSION = ".ipc";
+
+    static final int MAGIC = 0x42495043;
+    static final long NEW = 0;
+    static final long READY = 1;
+    static final long ACCEPTED = 2;
+    static final long CLOSED = 3;
+
+    private static final int HEADER_BYTES = 128;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int STATE_OFFSET = 8;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final IpcRing inbound;
+    private final IpcRing outbound;
+    private boolean open = true;
+
+    private IpcChannel(Path path, MappedByteBuffer buffer, int capacity, boolean client) {
+        this.path = path;
+        this.buffer = buffer;
+        IpcRing toExchange = new IpcRing(buffer, HEADER_BYTES, capacity);
+        IpcRing toClient = new IpcRing(buffer, HEADER_BYTES + IpcRing.size(capacity), capacity);
+        this.inbound = client ? toClient : toExchange;
+        this.outbound = client ? toExchange : toClient;
+    }
+
+    /**
+     * Client side: create the file of a new connection and mark it READY for the Exchange
+     *
+     * @param path
+     * @param capacity bytes of each ring, a power of two
+     * @return
+     * @throws IOException
+     */
+    public static IpcChannel create(Path path, int capacity) throws IOException {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity of the rings must be a power of two: " + capacity);
+        }
+        final MappedByteBuffer buffer = map(path, HEADER_BYTES + 2L * IpcRing.size(capacity),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        final IpcChannel channel = new IpcChannel(path, buffer, capacity, true);
+        LONG.setRelease(buffer, STATE_OFFSET, READY);
+        return channel;
+    }
+
+    /**
+     * Exchange side: map the file of a connection READY and mark it ACCEPTED
+     *
+     * @param path
+     * @return the channel, or null if the file is not a connection READY
+     * @throws IOException
+     */
+    static IpcChannel accept(Path path) throws IOException {
+        if (Files.size(path) < HEADER_BYTES) {
+            return null;
+        }
+        final MappedByteBuffer header = map(path, HEADER_BYTES, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header.order(ByteOrder.nativeOrder());
+        if ((long) LONG.getAcquire(header, STATE_OFFSET) != READY || header.getInt(MAGIC_OFFSET) != MAGIC) {
+            return null;
+        }
+        final int capacity = header.getInt(CAPACITY_OFFSET);
+        final MappedByteBuffer buffer = map(path, HEADER_BYTES + 2L * IpcRing.size(capacity), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer.order(ByteOrder.nativeOrder());
+        final IpcChannel channel = new IpcChannel(path, buffer, capacity, false);
+        LONG.setRelease(buffer, STATE_OFFSET, ACCEPTED);
+        return channel;
+    }
+
+    private static MappedByteBuffer map(Path path, long size, StandardOpenOption... options) throws IOException {
+        try (FileChannel file = FileChannel.open(path, options)) {
+            return file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Check if the Exchange accepted the connection
+     *
+     * @return
+     */
+    public boolean isAccepted() {
+        return (long) LONG.getAcquire(buffer, STATE_OFFSET) >= ACCEPTED;
+    }
+
+    /**
+     * Check if there are bytes to read, or the other side closed the connection
+     *
+     * @return
+     */
+    public boolean isReadable() {
+        return !inbound.isEmpty() || isPeerClosed();
+    }
+
+    private boolean isPeerClosed() {
+        return (long) LONG.getAcquire(buffer, STATE_OFFSET) == CLOSED;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        final int read = inbound.read(dst);
+        if (read == 0 && isPeerClosed() && inbound.isEmpty()) {
+            return -1;
+        }
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (isPeerClosed()) {
+            throw new IOException("Connection closed by the other side");
+        }
+        return outbound.write(src);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Mark the connection CLOSED for the other side. The file is removed, the mapping of each side stays valid until
+     * it is garbage collected
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        LONG.setRelease(buffer, STATE_OFFSET, CLOSED);
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,72 @@
+package com.bitso.ipc;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange side of the shared-memory transport: discovers the files of new {@link IpcChannel}s created by co-located
+ * clients in a directory. The directory is scanned from the event loop of the Exchange at most once per
+ * {@link #SCAN_INTERVAL_NANOS}, so new clients wait that long at most while established ones are polled on every
+ * iteration. Not thread-safe.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class IpcGateway {
+
+    private static final long SCAN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Path directory;
+
+    /**
+     * Files already accepted, or not valid connections
+     */
+    private final Set<Path> known = new HashSet<>();
+    private long lastScan;
+
+    public IpcGateway(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        log.info("Shared-memory gateway on {}", directory);
+    }
+
+    /**
+     * Accept the connections created since the last scan, if the scan interval elapsed
+     *
+     * @return the new channels, empty if none
+     */
+    public List<IpcChannel> accept() {
+        final long now = System.nanoTime();
+        if (now - lastScan < SCAN_INTERVAL_NANOS) {
+            return List.of();
+        }
+        lastScan = now;
+        List<IpcChannel> accepted = new ArrayList<>();
+        Set<Path> present = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + IpcChannel.FILE_EXTENSION)) {
+            for (Path file : files) {
+                present.add(file);
+                if (known.contains(file)) {
+                    continue;
+                }
+                IpcChannel channel = IpcChannel.accept(file);
+                if (channel != null) {
+                    known.add(file);
+                    accepted.add(channel);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Error scanning the shared-memory directory {}", directory, e);
+        }
+        known.retainAll(present);
+        return accepted;
+    }
+}
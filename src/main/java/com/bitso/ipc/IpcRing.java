@@ -0,0 +1,128 @@
+package com.bitso.ipc;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Single-producer/single-consumer ring of bytes in a region of a memory-mapped file, shared by two processes.
+ * <p>
+ * The region starts with the positions of the producer (tail) and the consumer (head) in their own cache lines, so
+ * each side only writes its own line, followed by the data. The positions only grow, and the index of a byte in the
+ * data is its position modulo the capacity (a power of two). The producer copies the bytes and then publishes its
+ * position with a release store, and the consumer reads it with an acquire load before copying the bytes, so no lock
+ * or system call is needed. As a socket, the ring is a stream of bytes: a write copies the bytes that fit, and the
+ * messages are framed by their encoding.
+ *
+ * @author Andres Ortiz
+ */
+final class IpcRing {
+
+    static final int HEADER_BYTES = 128;
+    private static final int TAIL_OFFSET = 0;
+    private static final int HEAD_OFFSET = 64;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int data;
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * Cached positions: the own one, and the last one read of the other side
+     */
+    private long tail;
+    private long head;
+
+    /**
+     * @param buffer   mapping of the file
+     * @param offset   offset of the region of the ring in the mapping, aligned to 8 bytes
+     * @param capacity bytes of data, a power of two
+     */
+    IpcRing(ByteBuffer buffer, int offset, int capacity) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.data = offset + HEADER_BYTES;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.tail = (long) LONG.getAcquire(buffer, offset + TAIL_OFFSET);
+        this.head = (long) LONG.getAcquire(buffer, offset + HEAD_OFFSET);
+    }
+
+    /**
+     * Bytes of the file taken by a ring of a capacity
+     *
+     * @param capacity
+     * @return
+     */
+    static int size(int capacity) {
+        return HEADER_BYTES + capacity;
+    }
+
+    /**
+     * Producer side: copy the remaining bytes of a buffer that fit in the ring
+     *
+     * @param src
+     * @return the number of bytes written, 0 if the ring is full
+     */
+    int write(ByteBuffer src) {
+        if (tail - head == capacity) {
+            head = (long) LONG.getAcquire(buffer, offset + HEAD_OFFSET);
+        }
+        final int length = (int) Math.min(src.remaining(), capacity - (tail - head));
+        if (length == 0) {
+            return 0;
+        }
+        final int index = (int) (tail & mask);
+        final int first = Math.min(length, capacity - index);
+        buffer.put(data + index, src, src.position(), first);
+        if (first < length) {
+            buffer.put(data, src, src.position() + first, length - first);
+        }
+        src.position(src.position() + length);
+        tail += length;
+        LONG.setRelease(buffer, offset + TAIL_OFFSET, tail);
+        return length;
+    }
+
+    /**
+     * Consumer side: copy the bytes available in the ring that fit in a buffer
+     *
+     * @param dst
+     * @return the number of bytes read, 0 if the ring is empty
+     */
+    int read(ByteBuffer dst) {
+        if (tail == head) {
+            tail = (long) LONG.getAcquire(buffer, offset + TAIL_OFFSET);
+        }
+        final int length = (int) Math.min(dst.remaining(), tail - head);
+        if (length == 0) {
+            return 0;
+        }
+        final int index = (int) (head & mask);
+        final int first = Math.min(length, capacity - index);
+        dst.put(dst.position(), buffer, data + index, first);
+        if (first < length) {
+            dst.put(dst.position() + first, buffer, data, length - first);
+        }
+        dst.position(dst.position() + length);
+        head += length;
+        LONG.setRelease(buffer, offset + HEAD_OFFSET, head);
+        return length;
+    }
+
+    /**
+     * Consumer side: check if there are bytes to read
+     *
+     * @return
+     */
+    boolean isEmpty() {
+        if (tail == head) {
+            tail = (long) LONG.getAcquire(buffer, offset + TAIL_OFFSET);
+        }
+        return tail == head;
+    }
+}
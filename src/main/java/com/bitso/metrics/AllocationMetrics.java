@@ -0,0 +1,172 @@
+package com.bitso.metrics;
+
+import com.bitso.model.MessageType;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.bitso.shared.Config.ALLOCATION_SAMPLING;
+
+/**
+ * Bytes allocated by each stage of the processing of the messages received, by {@link MessageType}, next to the pauses
+ * of the garbage collectors.
+ * <p>
+ * The allocations are read from {@code ThreadMXBean.getCurrentThreadAllocatedBytes()} around each
+ * {@link AllocationStage} of one message every {@link com.bitso.shared.Config#ALLOCATION_SAMPLING} of each connection,
+ * see {@link AllocationSample}. The totals are striped {@link LongAdder}s, as the {@link Counter}s, because in virtual
+ * threads mode each connection records from its own thread. The pauses are recorded from the notifications of the
+ * collectors.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class AllocationMetrics implements AllocationMetricsMXBean {
+
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final AllocationStage[] STAGES = AllocationStage.values();
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final boolean enabled;
+    private final LongAdder[] sampled = new LongAdder[TYPES.length];
+    private final LongAdder[][] bytes = new LongAdder[TYPES.length][STAGES.length];
+    private final Map<String, GcPauses> gcPauses = new ConcurrentHashMap<>();
+
+    AllocationMetrics() {
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        this.enabled = ALLOCATION_SAMPLING > 0 && threads.isThreadAllocatedMemorySupported();
+        if (enabled) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        for (MessageType type : TYPES) {
+            sampled[type.ordinal()] = new LongAdder();
+            for (AllocationStage stage : STAGES) {
+                bytes[type.ordinal()][stage.ordinal()] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * Create the sample of a connection, to be used only by the thread reading it
+     *
+     * @return
+     */
+    public AllocationSample newSample() {
+        return new AllocationSample(this, enabled ? ALLOCATION_SAMPLING : 0);
+    }
+
+    long allocatedBytes() {
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    void record(MessageType type, long[] stageBytes) {
+        sampled[type.ordinal()].increment();
+        for (int stage = 0; stage < stageBytes.length; stage++) {
+            bytes[type.ordinal()][stage].add(stageBytes[stage]);
+        }
+    }
+
+    /**
+     * Listen the notifications of the garbage collectors
+     */
+    void start() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener((notification, handback) -> {
+                    if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                        gcPauses.computeIfAbsent(info.getGcName(), name -> new GcPauses()).record(info.getGcInfo().getDuration());
+                    }
+                }, null, null);
+            }
+        }
+        log.info("Allocations sampled every {} messages per connection: {}", ALLOCATION_SAMPLING, enabled);
+    }
+
+    @Override
+    public Map<String, Long> getSampledMessages() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (MessageType type : TYPES) {
+            final long count = sampled[type.ordinal()].sum();
+            if (count > 0) {
+                result.put(type.name(), count);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getAllocatedBytesPerMessage() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (MessageType type : TYPES) {
+            final long count = sampled[type.ordinal()].sum();
+            if (count > 0) {
+                long total = 0;
+                for (AllocationStage stage : STAGES) {
+                    total += bytes[type.ordinal()][stage.ordinal()].sum();
+                }
+                result.put(type.name(), total / count);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getAllocatedBytesPerStage() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (MessageType type : TYPES) {
+            final long count = sampled[type.ordinal()].sum();
+            if (count > 0) {
+                for (AllocationStage stage : STAGES) {
+                    result.put(type.name() + "/" + stage.name(), bytes[type.ordinal()][stage.ordinal()].sum() / count);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getGcCollections() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        gcPauses.forEach((name, pauses) -> result.put(name, pauses.count));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getGcPauseTotalMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        gcPauses.forEach((name, pauses) -> result.put(name, pauses.totalMillis));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getGcPauseMaxMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        gcPauses.forEach((name, pauses) -> result.put(name, pauses.maxMillis));
+        return result;
+    }
+
+    /**
+     * Collections of a garbage collector, recorded by the thread of the notifications. For the concurrent collectors
+     * (e.g. {@code G1 Concurrent GC}, ZGC) the duration is the one of the cycle, not of a pause
+     */
+    private static class GcPauses {
+
+        private volatile long count;
+        private volatile long totalMillis;
+        private volatile long maxMillis;
+
+        private synchronized void record(long millis) {
+            count++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+    }
+}
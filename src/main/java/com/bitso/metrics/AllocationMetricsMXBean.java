@@ -0,0 +1,25 @@
+package com.bitso.metrics;
+
+import java.util.Map;
+
+/**
+ * Allocations per message and garbage collection pauses exposed through JMX as {@code com.bitso:type=Allocations}.
+ * The allocations are averages in bytes of the messages sampled, by {@link com.bitso.model.MessageType} and by
+ * {@code <MessageType>/<AllocationStage>}
+ *
+ * @author Andres Ortiz
+ */
+public interface AllocationMetricsMXBean {
+
+    Map<String, Long> getSampledMessages();
+
+    Map<String, Long> getAllocatedBytesPerMessage();
+
+    Map<String, Long> getAllocatedBytesPerStage();
+
+    Map<String, Long> getGcCollections();
+
+    Map<String, Long> getGcPauseTotalMillis();
+
+    Map<String, Long> getGcPauseMaxMillis();
+}
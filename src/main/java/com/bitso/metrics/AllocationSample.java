@@ -0,0 +1,64 @@
+package com.bitso.metrics;
+
+import com.bitso.model.MessageType;
+
+/**
+ * Allocations of the message being processed by a connection, used only by the thread reading the connection. One
+ * message every {@code interval} is sampled: {@link #start()} reads the bytes allocated by the thread, each
+ * {@link #stage(AllocationStage)} adds the bytes allocated since the last read to the stage, and
+ * {@link #finish(MessageType)} records them in the {@link AllocationMetrics}. The other messages only pay a counter.
+ *
+ * @author Andres Ortiz
+ */
+public final class AllocationSample {
+
+    private final AllocationMetrics metrics;
+    private final int interval;
+    private final long[] stageBytes = new long[AllocationStage.values().length];
+    private long messages;
+    private long last;
+    private boolean active;
+
+    AllocationSample(AllocationMetrics metrics, int interval) {
+        this.metrics = metrics;
+        this.interval = interval;
+    }
+
+    /**
+     * Start a new message, discarding a message started and not finished (e.g. it could not be decoded)
+     */
+    public void start() {
+        active = interval > 0 && ++messages % interval == 0;
+        if (active) {
+            for (int i = 0; i < stageBytes.length; i++) {
+                stageBytes[i] = 0;
+            }
+            last = metrics.allocatedBytes();
+        }
+    }
+
+    /**
+     * Account the bytes allocated since the previous stage to a stage
+     *
+     * @param stage
+     */
+    public void stage(AllocationStage stage) {
+        if (active) {
+            final long now = metrics.allocatedBytes();
+            stageBytes[stage.ordinal()] += now - last;
+            last = now;
+        }
+    }
+
+    /**
+     * Record the message sampled
+     *
+     * @param type
+     */
+    public void finish(MessageType type) {
+        if (active) {
+            active = false;
+            metrics.record(type, stageBytes);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.bitso.metrics;
+
+/**
+ * Stages of the processing of a message received, whose allocations are accounted by the {@link AllocationMetrics}
+ * <ul>
+ *     <li>FRAME: Copy of the bytes of the message out of the inbound buffer of the connection</li>
+ *     <li>DECODE: Decoding of the message into a {@link com.bitso.model.Message}</li>
+ *     <li>SESSION: Session layer, e.g. the Logon, the sequence checks and the Resend Requests</li>
+ *     <li>MATCHING: Matching stage, from the risk checks to the responses</li>
+ * </ul>
+ *
+ * @author Andres Ortiz
+ */
+public enum AllocationStage {
+    FRAME, DECODE, SESSION, MATCHING
+}
@@ -0,0 +1,44 @@
+package com.bitso.metrics;
+
+import lombok.Getter;
+
+/**
+ * Metrics of a client connection. Only the thread serving the connection records them, so a volatile field is enough
+ *
+ * @author Andres Ortiz
+ */
+public class ConnectionMetrics {
+
+    @Getter
+    private final long sessionId;
+
+    /**
+     * Bytes of the responses not written to the socket of the client yet
+     */
+    @Getter
+    private volatile long pendingBytes;
+
+    /**
+     * Messages conflated and dropped by the {@link com.bitso.shared.SlowConsumerPolicy} of the connection
+     */
+    @Getter
+    private volatile long conflated;
+    @Getter
+    private volatile long dropped;
+
+    ConnectionMetrics(long sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public void setPendingBytes(long pendingBytes) {
+        this.pendingBytes = pendingBytes;
+    }
+
+    void onConflated() {
+        conflated++;
+    }
+
+    void onDropped() {
+        dropped++;
+    }
+}
@@ -0,0 +1,37 @@
+package com.bitso.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter recorded by any thread on a striped {@link LongAdder}, so threads recording at the same time do not contend
+ * on a single cache line. The rate per second is computed by the sampler thread of the {@link MetricsRegistry}
+ *
+ * @author Andres Ortiz
+ */
+final class Counter {
+
+    private final LongAdder total = new LongAdder();
+    private long lastTotal;
+    private volatile long rate;
+
+    void increment() {
+        total.increment();
+    }
+
+    long getTotal() {
+        return total.sum();
+    }
+
+    long getRate() {
+        return rate;
+    }
+
+    /**
+     * Called once per second by the sampler thread
+     */
+    void sample() {
+        final long current = total.sum();
+        rate = current - lastTotal;
+        lastTotal = current;
+    }
+}
@@ -0,0 +1,36 @@
+package com.bitso.metrics;
+
+import java.util.Map;
+
+/**
+ * Metrics of the matching engine exposed through JMX as {@code com.bitso:type=Engine}.
+ * Rates are per second, sampled every second by the {@link MetricsRegistry}
+ *
+ * @author Andres Ortiz
+ */
+public interface EngineMetricsMXBean {
+
+    Map<String, Long> getMessagesPerSecond();
+
+    Map<String, Long> getMessagesTotal();
+
+    long getTradesPerSecond();
+
+    long getTradesTotal();
+
+    long getRejectedTotal();
+
+    int getRestingOrders();
+
+    int getMatchingQueueDepth();
+
+    int getConnections();
+
+    Map<Long, Long> getPendingBytesBySession();
+
+    long getConflatedTotal();
+
+    long getDroppedTotal();
+
+    long getSlowConsumerDisconnects();
+}
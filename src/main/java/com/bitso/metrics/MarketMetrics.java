@@ -0,0 +1,63 @@
+package com.bitso.metrics;
+
+import com.bitso.model.Market;
+import com.bitso.repository.OrderBook;
+import com.bitso.repository.OrderBookRepository;
+import com.bitso.repository.OrderBookRepositoryImpl;
+import lombok.Getter;
+
+/**
+ * Implementation of {@link MarketMetricsMXBean}. The level counts are read from the OrderBook when JMX asks for them
+ *
+ * @author Andres Ortiz
+ */
+public class MarketMetrics implements MarketMetricsMXBean {
+
+    private final OrderBookRepository orderBookRepository = OrderBookRepositoryImpl.getInstance();
+
+    @Getter
+    private final Market market;
+    final Counter orders = new Counter();
+    final Counter trades = new Counter();
+
+    MarketMetrics(Market market) {
+        this.market = market;
+    }
+
+    @Override
+    public long getOrdersPerSecond() {
+        return orders.getRate();
+    }
+
+    @Override
+    public long getOrdersTotal() {
+        return orders.getTotal();
+    }
+
+    @Override
+    public long getTradesPerSecond() {
+        return trades.getRate();
+    }
+
+    @Override
+    public long getTradesTotal() {
+        return trades.getTotal();
+    }
+
+    @Override
+    public int getAskLevels() {
+        OrderBook orderBook = orderBookRepository.getOrderBook(market);
+        return orderBook != null ? orderBook.getAskOrders().size() : 0;
+    }
+
+    @Override
+    public int getBidLevels() {
+        OrderBook orderBook = orderBookRepository.getOrderBook(market);
+        return orderBook != null ? orderBook.getBidOrders().size() : 0;
+    }
+
+    void sample() {
+        orders.sample();
+        trades.sample();
+    }
+}
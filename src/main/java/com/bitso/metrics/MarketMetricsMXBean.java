@@ -0,0 +1,22 @@
+package com.bitso.metrics;
+
+/**
+ * Metrics of a Market exposed through JMX as {@code com.bitso:type=Market,name=<symbol>}.
+ * Rates are per second, sampled every second by the {@link MetricsRegistry}
+ *
+ * @author Andres Ortiz
+ */
+public interface MarketMetricsMXBean {
+
+    long getOrdersPerSecond();
+
+    long getOrdersTotal();
+
+    long getTradesPerSecond();
+
+    long getTradesTotal();
+
+    int getAskLevels();
+
+    int getBidLevels();
+}
@@ -0,0 +1,364 @@
+package com.bitso.metrics;
+
+import com.bitso.model.Market;
+import com.bitso.model.MessageType;
+import com.bitso.model.Trade;
+import com.bitso.repository.OrderBookRepository;
+import com.bitso.repository.OrderBookRepositoryImpl;
+import com.bitso.services.MatchingEngine;
+import com.bitso.services.TradeListener;
+import com.bitso.shared.MarketRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import static com.bitso.shared.Config.METRICS_DUMP_SECONDS;
+
+/**
+ * Registry of the metrics of the Exchange, exposed through JMX MBeans ({@code com.bitso:type=Engine},
+ * {@code com.bitso:type=Allocations} and {@code com.bitso:type=Market,name=<symbol>}) and optionally logged as a text
+ * dump every {@link com.bitso.shared.Config#METRICS_DUMP_SECONDS} seconds.
+ * <p>
+ * Recording only increments striped counters (see {@link Counter}), so it stays off the critical path. A daemon
+ * sampler thread computes the rates every second, registers the MBeans of the Markets listed at runtime and writes the
+ * dump. Gauges (resting Orders, levels, matching queue depth) are read when they are requested.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class MetricsRegistry implements EngineMetricsMXBean, TradeListener {
+
+    private static MetricsRegistry INSTANCE;
+
+    private final OrderBookRepository orderBookRepository = OrderBookRepositoryImpl.getInstance();
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    private final Counter[] messages = new Counter[MessageType.values().length];
+    private final Counter trades = new Counter();
+    private final Counter rejected = new Counter();
+    private final Counter conflated = new Counter();
+    private final Counter dropped = new Counter();
+    private final Counter slowConsumerDisconnects = new Counter();
+
+    /**
+     * Metrics indexed by the id of the Market
+     */
+    private volatile MarketMetrics[] markets = new MarketMetrics[0];
+    private int registeredMarkets;
+
+    /**
+     * Allocations per message and garbage collection pauses
+     */
+    @Getter
+    private final AllocationMetrics allocations = new AllocationMetrics();
+
+    private final Map<Long, ConnectionMetrics> connections = new ConcurrentHashMap<>();
+    private volatile IntSupplier matchingQueueDepth = () -> 0;
+
+    private ScheduledExecutorService sampler;
+    private long samples;
+
+    /**
+     * Get Singleton instance
+     *
+     * @return
+     */
+    public static MetricsRegistry getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new MetricsRegistry();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Register the MBeans, listen the Trades of the {@link MatchingEngine} and start the sampler thread
+     */
+    public synchronized void start() {
+        if (sampler != null) {
+            return;
+        }
+        register(this, "com.bitso:type=Engine");
+        register(allocations, "com.bitso:type=Allocations");
+        allocations.start();
+        MatchingEngine.getInstance().addTradeListener(this);
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+        log.info("Metrics registered in JMX");
+    }
+
+    /**
+     * Record a message received
+     *
+     * @param type
+     * @param market Market of the message, if it has one
+     */
+    public void onMessage(MessageType type, Market market) {
+        messages[type.ordinal()].increment();
+        if (type == MessageType.ADD && market != null) {
+            market(market).orders.increment();
+        }
+    }
+
+    /**
+     * Record a message rejected
+     */
+    public void onRejected() {
+        rejected.increment();
+    }
+
+    @Override
+    public void onTrade(Trade trade) {
+        trades.increment();
+        market(trade.getMarket()).trades.increment();
+    }
+
+    /**
+     * Start recording the metrics of a client connection
+     *
+     * @param sessionId
+     * @return the metrics of the connection, to be recorded by the thread serving it
+     */
+    public ConnectionMetrics onConnect(long sessionId) {
+        ConnectionMetrics connection = new ConnectionMetrics(sessionId);
+        connections.put(sessionId, connection);
+        return connection;
+    }
+
+    public ConnectionMetrics getConnection(long sessionId) {
+        return connections.get(sessionId);
+    }
+
+    public void onDisconnect(long sessionId) {
+        connections.remove(sessionId);
+    }
+
+    /**
+     * Record a message conflated with a queued one of a slow connection
+     *
+     * @param connection
+     */
+    public void onConflated(ConnectionMetrics connection) {
+        conflated.increment();
+        connection.onConflated();
+    }
+
+    /**
+     * Record a message dropped for a slow connection
+     *
+     * @param connection
+     */
+    public void onDropped(ConnectionMetrics connection) {
+        dropped.increment();
+        connection.onDropped();
+    }
+
+    /**
+     * Record a slow connection disconnected
+     */
+    public void onSlowConsumerDisconnect() {
+        slowConsumerDisconnects.increment();
+    }
+
+    /**
+     * Set the gauge of the number of threads waiting to enter the matching stage
+     *
+     * @param matchingQueueDepth
+     */
+    public void setMatchingQueueDepth(IntSupplier matchingQueueDepth) {
+        this.matchingQueueDepth = matchingQueueDepth;
+    }
+
+    @Override
+    public Map<String, Long> getMessagesPerSecond() {
+        Map<String, Long> rates = new LinkedHashMap<>();
+        for (MessageType type : MessageType.values()) {
+            rates.put(type.name(), messages[type.ordinal()].getRate());
+        }
+        return rates;
+    }
+
+    @Override
+    public Map<String, Long> getMessagesTotal() {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        for (MessageType type : MessageType.values()) {
+            totals.put(type.name(), messages[type.ordinal()].getTotal());
+        }
+        return totals;
+    }
+
+    @Override
+    public long getTradesPerSecond() {
+        return trades.getRate();
+    }
+
+    @Override
+    public long getTradesTotal() {
+        return trades.getTotal();
+    }
+
+    @Override
+    public long getRejectedTotal() {
+        return rejected.getTotal();
+    }
+
+    /**
+     * Read outside the matching thread, so it is an approximation under load
+     *
+     * @return
+     */
+    @Override
+    public int getRestingOrders() {
+        return orderBookRepository.getOrders().size();
+    }
+
+    @Override
+    public int getMatchingQueueDepth() {
+        return matchingQueueDepth.getAsInt();
+    }
+
+    @Override
+    public int getConnections() {
+        return connections.size();
+    }
+
+    @Override
+    public Map<Long, Long> getPendingBytesBySession() {
+        Map<Long, Long> pendingBytes = new LinkedHashMap<>();
+        connections.forEach((sessionId, connection) -> pendingBytes.put(sessionId, connection.getPendingBytes()));
+        return pendingBytes;
+    }
+
+    @Override
+    public long getConflatedTotal() {
+        return conflated.getTotal();
+    }
+
+    @Override
+    public long getDroppedTotal() {
+        return dropped.getTotal();
+    }
+
+    @Override
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.getTotal();
+    }
+
+    /**
+     * Get the metrics of a Market, created on its first record
+     *
+     * @param market
+     * @return
+     */
+    public MarketMetrics market(Market market) {
+        MarketMetrics[] markets = this.markets;
+        if (market.getId() < markets.length && markets[market.getId()] != null) {
+            return markets[market.getId()];
+        }
+        return createMarket(market);
+    }
+
+    private synchronized MarketMetrics createMarket(Market market) {
+        MarketMetrics[] markets = this.markets;
+        if (market.getId() >= markets.length) {
+            markets = Arrays.copyOf(markets, Math.max(market.getId() + 1, MarketRegistry.getInstance().size()));
+        }
+        if (markets[market.getId()] == null) {
+            markets[market.getId()] = new MarketMetrics(market);
+        }
+        this.markets = markets;
+        return markets[market.getId()];
+    }
+
+    /**
+     * Task of the sampler thread, every second
+     */
+    private void sample() {
+        try {
+            for (Counter counter : messages) {
+                counter.sample();
+            }
+            trades.sample();
+            rejected.sample();
+            for (Market market : MarketRegistry.getInstance().getMarkets()) {
+                market(market).sample();
+            }
+            //MBeans of the Markets listed since the last sample
+            final MarketMetrics[] markets = this.markets;
+            for (; registeredMarkets < markets.length; registeredMarkets++) {
+                register(markets[registeredMarkets], "com.bitso:type=Market,name=" + markets[registeredMarkets].getMarket().getSymbol());
+            }
+            if (METRICS_DUMP_SECONDS > 0 && ++samples % METRICS_DUMP_SECONDS == 0) {
+                log.info(dump());
+            }
+        } catch (RuntimeException e) {
+            //An exception would cancel the next samples
+            log.error("Error sampling the metrics", e);
+        }
+    }
+
+    /**
+     * Text dump of all the metrics
+     *
+     * @return
+     */
+    public String dump() {
+        StringBuilder dump = new StringBuilder("--Metrics");
+        dump.append("\n----Messages/s: ").append(getMessagesPerSecond());
+        dump.append("\n----Trades/s: ").append(getTradesPerSecond())
+                .append(", Rejected: ").append(getRejectedTotal())
+                .append(", Resting Orders: ").append(getRestingOrders())
+                .append(", Matching queue: ").append(getMatchingQueueDepth());
+        dump.append("\n----Slow consumers: conflated ").append(getConflatedTotal())
+                .append(", dropped ").append(getDroppedTotal())
+                .append(", disconnected ").append(getSlowConsumerDisconnects());
+        dump.append("\n----Allocated bytes/message: ").append(allocations.getAllocatedBytesPerMessage())
+                .append(", sampled ").append(allocations.getSampledMessages());
+        dump.append("\n----GC: collections ").append(allocations.getGcCollections())
+                .append(", pause total ms ").append(allocations.getGcPauseTotalMillis())
+                .append(", pause max ms ").append(allocations.getGcPauseMaxMillis());
+        for (MarketMetrics market : markets) {
+            if (market != null) {
+                dump.append("\n----Market ").append(market.getMarket())
+                        .append(": Orders/s ").append(market.getOrdersPerSecond())
+                        .append(", Trades/s ").append(market.getTradesPerSecond())
+                        .append(", Ask levels ").append(market.getAskLevels())
+                        .append(", Bid levels ").append(market.getBidLevels());
+            }
+        }
+        connections.forEach((sessionId, connection) ->
+                dump.append("\n----Session ").append(sessionId).append(": pending bytes ").append(connection.getPendingBytes())
+                        .append(", conflated ").append(connection.getConflated())
+                        .append(", dropped ").append(connection.getDropped()));
+        return dump.toString();
+    }
+
+    private void register(Object mBean, String name) {
+        try {
+            mBeanServer.registerMBean(mBean, new ObjectName(name));
+        } catch (JMException e) {
+            log.error("MBean {} could not be registered", name, e);
+        }
+    }
+
+    private MetricsRegistry() {
+        for (MessageType type : MessageType.values()) {
+            messages[type.ordinal()] = new Counter();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.bitso.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Instant;
+
+/**
+ * Open, high, low, close and volume of the Trades of a Market in an interval, with their volume-weighted average price
+ *
+ * @author Andres Ortiz
+ */
+@Builder
+@Getter
+@ToString
+public class Candle {
+
+    private final Market market;
+    private final CandleInterval interval;
+    private final Instant startTime;
+
+    private final double open;
+    private final double high;
+    private final double low;
+    private final double close;
+    private final double volume;
+    private final double vwap;
+    private final int trades;
+}
@@ -0,0 +1,17 @@
+package com.bitso.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Intervals of the OHLCV candles aggregated from the Trades
+ *
+ * @author Andres Ortiz
+ */
+@Getter
+@RequiredArgsConstructor
+public enum CandleInterval {
+    S1(1_000), M1(60_000), H1(3_600_000);
+
+    private final long millis;
+}
@@ -0,0 +1,97 @@
+package com.bitso.model;
+
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Reusable depth snapshot of the top levels (L2) or top Orders (L3) of both sides of an OrderBook.
+ * <p>
+ * Entries are stored in pre-allocated primitive arrays, so taking a snapshot only copies the requested entries and
+ * does not allocate. A snapshot is meant to be owned and reused by a single thread.
+ *
+ * @author Andres Ortiz
+ */
+@Getter
+public class DepthSnapshot {
+
+    private final int capacity;
+
+    private Market market;
+    private DepthType depthType;
+
+    private int bidCount;
+    private final double[] bidPrices;
+    private final double[] bidAmounts;
+    private final UUID[] bidOrderIds;
+
+    private int askCount;
+    private final double[] askPrices;
+    private final double[] askAmounts;
+    private final UUID[] askOrderIds;
+
+    /**
+     * @param capacity maximum number of entries per side
+     */
+    public DepthSnapshot(int capacity) {
+        this.capacity = capacity;
+        this.bidPrices = new double[capacity];
+        this.bidAmounts = new double[capacity];
+        this.bidOrderIds = new UUID[capacity];
+        this.askPrices = new double[capacity];
+        this.askAmounts = new double[capacity];
+        this.askOrderIds = new UUID[capacity];
+    }
+
+    /**
+     * Clear the snapshot to be filled again
+     *
+     * @param market
+     * @param depthType
+     */
+    public void reset(Market market, DepthType depthType) {
+        this.market = market;
+        this.depthType = depthType;
+        this.bidCount = 0;
+        this.askCount = 0;
+    }
+
+    /**
+     * Append an entry to the given side. Order id is {@code null} for L2 entries
+     *
+     * @param side
+     * @param price
+     * @param amount
+     * @param orderId
+     * @return false if the side is already full
+     */
+    public boolean add(OrderSide side, double price, double amount, UUID orderId) {
+        if (side == OrderSide.BUY) {
+            if (bidCount == capacity) {
+                return false;
+            }
+            bidPrices[bidCount] = price;
+            bidAmounts[bidCount] = amount;
+            bidOrderIds[bidCount] = orderId;
+            bidCount++;
+        } else {
+            if (askCount == capacity) {
+                return false;
+            }
+            askPrices[askCount] = price;
+            askAmounts[askCount] = amount;
+            askOrderIds[askCount] = orderId;
+            askCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Total of entries in both sides
+     *
+     * @return
+     */
+    public int size() {
+        return bidCount + askCount;
+    }
+}
@@ -0,0 +1,14 @@
+package com.bitso.model;
+
+/**
+ * Types of depth snapshots of an OrderBook
+ * <ul>
+ *     <li>L2: Price levels with their aggregated amount</li>
+ *     <li>L3: Individual Orders in priority order</li>
+ * </ul>
+ *
+ * @author Andres Ortiz
+ */
+public enum DepthType {
+    L2, L3
+}
@@ -1,10 +1,62 @@
 package com.bitso.model;
 
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+
 /**
- * Types of valid markets for the Exchange
+ * Market listed on the Exchange. Markets are not known at compile time, they are loaded at startup by the
+ * {@code MarketRegistry}, which gives each one a dense id used to index its OrderBook in a plain array.
+ * There is only one instance per Market, so they can be compared by reference
  *
  * @author Andres Ortiz
  */
-public enum Market {
-    BTC_USD, NONE
+@Getter
+public final class Market {
+
+    /**
+     * Market of a message without a valid symbol. It has no id, so it never has an OrderBook
+     */
+    public static final Market NONE = new Market(-1, "NONE", 0, 0);
+
+    private final int id;
+    private final String symbol;
+
+    /**
+     * ASCII bytes of the symbol, cached for the encoders. Not to be modified
+     */
+    private final byte[] symbolBytes;
+
+    /**
+     * Minimum price increment of the Orders
+     */
+    private final double tickSize;
+
+    /**
+     * Minimum amount increment of the Orders
+     */
+    private final double lotSize;
+
+    /**
+     * Interval in seconds of the periodic call auctions (batch matching) of the Market, 0 for continuous matching
+     */
+    private final int auctionSeconds;
+
+    public Market(int id, String symbol, double tickSize, double lotSize) {
+        this(id, symbol, tickSize, lotSize, 0);
+    }
+
+    public Market(int id, String symbol, double tickSize, double lotSize, int auctionSeconds) {
+        this.id = id;
+        this.symbol = symbol;
+        this.symbolBytes = symbol.getBytes(StandardCharsets.US_ASCII);
+        this.tickSize = tickSize;
+        this.lotSize = lotSize;
+        this.auctionSeconds = auctionSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return symbol;
+    }
 }
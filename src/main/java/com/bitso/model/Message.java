@@ -24,8 +24,27 @@ public class Message {
     private MessageType messageType;
 
     private OrderSide orderSide;
+    private OrderType orderType;
+    private TimeInForce timeInForce;
+    private long expireAt;
     private Market market;
     private double price;
+    private double stopPrice;
     private double amount;
     private UUID orderId;
+    private long sessionId;
+    private int depth;
+    private DepthType depthType;
+    private long dropped;
+    private TradingPhase tradingPhase;
+    private OrderStatus orderStatus;
+
+    /**
+     * Session layer: name of the session in a Logon, sequence number of the message in its stream, and range of
+     * sequences to resend (end 0 for up to the last one)
+     */
+    private String sessionName;
+    private long sequence;
+    private long beginSequence;
+    private long endSequence;
 }
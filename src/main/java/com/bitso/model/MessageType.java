@@ -6,5 +6,5 @@ package com.bitso.model;
  * @author Andres Ortiz
  */
 public enum MessageType {
-    ADD, DELETE, MODIFY, PRINT
+    ADD, DELETE, MODIFY, PRINT, DEPTH, MASS_CANCEL, GAP, LOGON, HEARTBEAT, RESEND_REQUEST, TRADING_PHASE, EXECUTION_REPORT
 }
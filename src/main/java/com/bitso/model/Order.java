@@ -25,15 +25,85 @@ public class Order implements Cloneable{
     @NonNull
     private OrderSide side;
 
-    @NonNull
+    @Setter
     private double price;
 
     @Setter
     @NonNull
     private double amount;
 
+    private OrderType type = OrderType.LIMIT;
+
+    private TimeInForce timeInForce = TimeInForce.GTC;
+
+    /**
+     * Trigger price of a stop (MARKET) or stop-limit (LIMIT) Order, 0 for a plain Order or once the stop is triggered
+     */
+    @Setter
+    private double stopPrice;
+
+    /**
+     * Expire time of a GTT Order in epoch milliseconds, 0 for the rest
+     */
+    @Setter
+    private long expireAt;
+
+    /**
+     * Client session which sent the Order, 0 when the Order does not belong to any session
+     */
+    private long sessionId;
+
     private final Instant createdAt = Instant.now();
 
+    public Order(UUID id, Market market, OrderSide side, double price, double amount, OrderType type, TimeInForce timeInForce, long sessionId) {
+        this(id, market, side, amount);
+        this.price = price;
+        this.type = type;
+        this.timeInForce = timeInForce;
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * Only LIMIT Orders with GTC or GTT time in force can rest in the OrderBook
+     *
+     * @return
+     */
+    public boolean canRest() {
+        return type == OrderType.LIMIT && (timeInForce == TimeInForce.GTC || timeInForce == TimeInForce.GTT);
+    }
+
+    /**
+     * Check if the Order is a stop Order waiting for its trigger
+     *
+     * @return
+     */
+    public boolean isStop() {
+        return stopPrice > 0;
+    }
+
+    /**
+     * Check if a Trade price triggers this stop Order: at or above the stop price for a BUY, at or below it for a SELL
+     *
+     * @param tradePrice
+     * @return
+     */
+    public boolean isTriggeredBy(double tradePrice) {
+        return tradePrice > 0 && (side == OrderSide.BUY ? tradePrice >= stopPrice : tradePrice <= stopPrice);
+    }
+
+    /**
+     * Check if a price of the other side of the market can be matched by this Order
+     *
+     * @param otherPrice
+     * @return
+     */
+    public boolean crosses(double otherPrice) {
+        if (type == OrderType.MARKET) {
+            return true;
+        }
+        return side == OrderSide.BUY ? otherPrice <= price : otherPrice >= price;
+    }
+
     @Override
     public Order clone() {
         try {
@@ -0,0 +1,20 @@
+package com.bitso.model;
+
+/**
+ * Status of an Order reported back to its session after each ADD, DELETE or MODIFY message, with the same codes as
+ * the OrdStatus of FIX
+ * <ul>
+ *     <li>NEW (0): the Order rests in the OrderBook without fills, or waits for its stop price</li>
+ *     <li>PARTIALLY_FILLED (1): the Order was partially filled and the rest rests in the OrderBook</li>
+ *     <li>FILLED (2): the whole amount of the Order was filled</li>
+ *     <li>CANCELLED (4): the Order was deleted, or the rest of a MARKET, IOC or FOK Order was cancelled</li>
+ *     <li>REPLACED (5): the Order was modified and rests with its new amount and price</li>
+ *     <li>REJECTED (8): the message was rejected, e.g. by the pre-trade risk checks or because the Order was not
+ *     found</li>
+ * </ul>
+ *
+ * @author Andres Ortiz
+ */
+public enum OrderStatus {
+    NEW, PARTIALLY_FILLED, FILLED, CANCELLED, REPLACED, REJECTED
+}
@@ -0,0 +1,14 @@
+package com.bitso.model;
+
+/**
+ * Order Types
+ * <ul>
+ *     <li>LIMIT: Executes at the Order price or better</li>
+ *     <li>MARKET: Executes against the best available prices and never rests in the OrderBook</li>
+ * </ul>
+ *
+ * @author Andres Ortiz
+ */
+public enum OrderType {
+    LIMIT, MARKET
+}
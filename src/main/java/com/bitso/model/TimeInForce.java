@@ -0,0 +1,16 @@
+package com.bitso.model;
+
+/**
+ * Time in force of an Order
+ * <ul>
+ *     <li>GTC: Good-Till-Cancel, the remaining amount rests in the OrderBook</li>
+ *     <li>GTT: Good-Till-Time, the remaining amount rests in the OrderBook until its expire time</li>
+ *     <li>IOC: Immediate-Or-Cancel, fill what is possible and cancel the remaining amount</li>
+ *     <li>FOK: Fill-Or-Kill, fill the whole amount immediately or cancel the Order without any fill</li>
+ * </ul>
+ *
+ * @author Andres Ortiz
+ */
+public enum TimeInForce {
+    GTC, IOC, FOK, GTT
+}
@@ -0,0 +1,34 @@
+package com.bitso.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Execution between an incoming Order (taker) and an Order resting in the OrderBook (maker).
+ * The price of a Trade is always the price of the maker Order
+ *
+ * @author Andres Ortiz
+ */
+@Builder
+@Getter
+@ToString
+public class Trade {
+
+    private final Market market;
+    private final double price;
+    private final double amount;
+    private final OrderSide takerSide;
+
+    private final UUID makerOrderId;
+    private final long makerSessionId;
+
+    private final UUID takerOrderId;
+    private final long takerSessionId;
+
+    @Builder.Default
+    private final Instant executedAt = Instant.now();
+}
@@ -0,0 +1,16 @@
+package com.bitso.model;
+
+/**
+ * Trading phase of a Market
+ * <ul>
+ *     <li>CONTINUOUS: each incoming Order is matched against the OrderBook as it arrives</li>
+ *     <li>AUCTION: the Orders are collected in the OrderBook without matching, which may cross, until the call is
+ *     uncrossed at the single price that executes the most volume, e.g. for the open, the reopen after a halt or
+ *     periodic batch matching</li>
+ * </ul>
+ *
+ * @author Andres Ortiz
+ */
+public enum TradingPhase {
+    CONTINUOUS, AUCTION
+}
@@ -0,0 +1,134 @@
+package com.bitso.replication;
+
+import com.bitso.Exchange;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Replica side of the hot-standby replication: applies the sequenced commands streamed by the {@link Replicator} of
+ * the primary to the OrderBooks of this process, in the same order, and acknowledges each batch once it is applied.
+ * <p>
+ * The commands are the messages that change the OrderBooks, with the Order ids already assigned by the primary, so
+ * applying them gives the same OrderBooks. When the primary is lost, {@link #run()} returns with the last sequence
+ * applied and this process takes over serving the clients.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class Replica {
+
+    private final InetSocketAddress address;
+    private final Exchange exchange;
+
+    /**
+     * Sessions of the primary with commands applied and not disconnected yet
+     */
+    private final Set<Long> sessions = new HashSet<>();
+
+    @Getter
+    private long lastSequence;
+    @Getter
+    private long lastSessionId;
+
+    public Replica(InetSocketAddress address, Exchange exchange) {
+        this.address = address;
+        this.exchange = exchange;
+    }
+
+    /**
+     * Wait for the primary and apply its commands until it is lost
+     *
+     * @throws IOException if the address of the replica cannot be bound
+     */
+    public void run() throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(address);
+            log.info("Replica waiting for the primary on {}", address);
+            try (SocketChannel channel = serverChannel.accept()) {
+                channel.socket().setTcpNoDelay(true);
+                log.info("Primary connected from {}", channel.getRemoteAddress());
+                replicate(channel);
+            } catch (IOException e) {
+                log.warn("Primary lost: {}", e.getMessage());
+            }
+        }
+        log.info("Replica taking over at sequence {}, releasing {} sessions of the primary", lastSequence, sessions.size());
+        for (long sessionId : sessions) {
+            exchange.releaseSession(sessionId);
+        }
+        sessions.clear();
+    }
+
+    private void replicate(SocketChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+        ByteBuffer ack = ByteBuffer.allocate(Long.BYTES);
+        while (true) {
+            header.clear();
+            readFully(channel, header);
+            final int length = header.getInt(0);
+            if (length > batch.capacity()) {
+                batch = ByteBuffer.allocate(Math.max(length, batch.capacity() * 2));
+            }
+            batch.clear().limit(length);
+            readFully(channel, batch);
+            batch.flip();
+            while (batch.hasRemaining()) {
+                apply(batch);
+            }
+            ack.clear();
+            ack.putLong(0, lastSequence);
+            while (ack.hasRemaining()) {
+                channel.write(ack);
+            }
+        }
+    }
+
+    /**
+     * Apply the next command of a batch
+     *
+     * @param batch
+     * @throws IOException if the command is out of sequence
+     */
+    private void apply(ByteBuffer batch) throws IOException {
+        final long sequence = batch.getLong();
+        final long sessionId = batch.getLong();
+        final byte kind = batch.get();
+        final byte[] payload = new byte[batch.getInt()];
+        batch.get(payload);
+        if (sequence != lastSequence + 1) {
+            throw new IOException("Command " + sequence + " out of sequence, expected " + (lastSequence + 1));
+        }
+        switch (kind) {
+            case ReplicationProtocol.MESSAGE -> {
+                sessions.add(sessionId);
+                exchange.applyReplicated(new String(payload, StandardCharsets.US_ASCII), sessionId);
+            }
+            case ReplicationProtocol.DISCONNECT -> {
+                sessions.remove(sessionId);
+                exchange.releaseSession(sessionId);
+            }
+            default -> throw new IOException("Unknown command " + kind + " at sequence " + sequence);
+        }
+        lastSequence = sequence;
+        lastSessionId = Math.max(lastSessionId, sessionId);
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Primary closed the connection");
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.bitso.replication;
+
+import com.bitso.model.Message;
+import com.bitso.shared.Encoder;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of the replication stream between the {@link Replicator} of the primary and the {@link Replica}.
+ * <p>
+ * The primary sends frames of batched commands: the length of the batch (int) followed by its commands, each one with
+ * its sequence (long), the session of the client (long), its kind (byte), and the length (int) and bytes of its
+ * payload, the message encoded by {@link com.bitso.shared.Encoder}. The replica answers each frame with the sequence
+ * of its last command applied (long), which acknowledges all the previous ones.
+ *
+ * @author Andres Ortiz
+ */
+public final class ReplicationProtocol {
+
+    /**
+     * Command with a message that changes the OrderBooks (ADD, DELETE, MODIFY, MASS_CANCEL)
+     */
+    public static final byte MESSAGE = 1;
+
+    /**
+     * Command with the disconnection of a client session, without payload
+     */
+    public static final byte DISCONNECT = 2;
+
+    static final int COMMAND_HEADER_BYTES = Long.BYTES + Long.BYTES + Byte.BYTES + Integer.BYTES;
+
+    /**
+     * Put a command in a batch, growing the batch if it is full
+     *
+     * @param batch
+     * @param sequence
+     * @param sessionId
+     * @param kind
+     * @param msg       message of the command, or null
+     *
+     * @return the batch with the command
+     */
+    static ByteBuffer putCommand(ByteBuffer batch, long sequence, long sessionId, byte kind, Message msg) {
+        while (true) {
+            final int start = batch.position();
+            try {
+                batch.putLong(sequence)
+                        .putLong(sessionId)
+                        .put(kind)
+                        .putInt(0);
+                //The message is encoded straight into the batch and its length is set once it is known
+                if (msg != null) {
+                    Encoder.encode(msg, batch);
+                }
+                batch.putInt(start + COMMAND_HEADER_BYTES - Integer.BYTES, batch.position() - start - COMMAND_HEADER_BYTES);
+                return batch;
+            } catch (BufferOverflowException e) {
+                batch.position(start);
+                ByteBuffer larger = ByteBuffer.allocate(batch.capacity() * 2);
+                batch.flip();
+                larger.put(batch);
+                batch = larger;
+            }
+        }
+    }
+
+    private ReplicationProtocol() {
+    }
+}
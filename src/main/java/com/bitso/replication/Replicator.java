@@ -0,0 +1,210 @@
+package com.bitso.replication;
+
+import com.bitso.model.Message;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Primary side of the hot-standby replication: streams the sequenced commands of the matching stage to the
+ * {@link Replica} over TCP.
+ * <p>
+ * The matching stage appends each command to the current batch and goes on without waiting. A sender thread writes
+ * whatever is batched while the previous batches are still in flight (pipelining), and a receiver thread reads the
+ * cumulative acknowledgements of the replica. The outputs of a command (responses to clients) are released only once
+ * its sequence is acknowledged, see {@link #awaitAcknowledged(long)}.
+ * <p>
+ * If the replica is lost, the primary goes on alone: every sequence is considered acknowledged.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class Replicator implements Closeable {
+
+    private static final int INITIAL_BATCH_CAPACITY = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batched = lock.newCondition();
+    private final Condition acknowledgedCondition = lock.newCondition();
+
+    /**
+     * Commands appended since the last write, swapped with {@link #sending} by the sender thread
+     */
+    private ByteBuffer batch = ByteBuffer.allocate(INITIAL_BATCH_CAPACITY);
+    private ByteBuffer sending = ByteBuffer.allocate(INITIAL_BATCH_CAPACITY);
+
+    private long sequence;
+    private volatile long acknowledged;
+    private volatile boolean connected = true;
+
+    /**
+     * Connect to the replica and start the sender and receiver threads
+     *
+     * @param replicaAddress
+     * @param lastSequence   last sequence already applied by both sides, 0 for a new stream
+     * @throws IOException
+     */
+    public Replicator(InetSocketAddress replicaAddress, long lastSequence) throws IOException {
+        this.channel = SocketChannel.open(replicaAddress);
+        this.channel.socket().setTcpNoDelay(true);
+        this.sequence = lastSequence;
+        this.acknowledged = lastSequence;
+        start("replication-sender", this::send);
+        start("replication-receiver", this::receive);
+        log.info("Replicating to {}", replicaAddress);
+    }
+
+    /**
+     * Append a command to the current batch. Called by the matching stage, in the order the commands are applied
+     *
+     * @param kind      {@link ReplicationProtocol#MESSAGE} or {@link ReplicationProtocol#DISCONNECT}
+     * @param sessionId
+     * @param msg       message of the command, or null
+     * @return the sequence of the command
+     */
+    public long append(byte kind, long sessionId, Message msg) {
+        lock.lock();
+        try {
+            final long commandSequence = ++sequence;
+            if (!connected) {
+                acknowledged = commandSequence;
+                return commandSequence;
+            }
+            batch = ReplicationProtocol.putCommand(batch, commandSequence, sessionId, kind, msg);
+            batched.signal();
+            return commandSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the sequence of the last command appended
+     *
+     * @return
+     */
+    public long getSequence() {
+        lock.lock();
+        try {
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the replica acknowledges a sequence, or it is lost
+     *
+     * @param commandSequence
+     * @return the last sequence acknowledged
+     */
+    public long awaitAcknowledged(long commandSequence) {
+        if (acknowledged >= commandSequence) {
+            return acknowledged;
+        }
+        lock.lock();
+        try {
+            while (acknowledged < commandSequence) {
+                acknowledgedCondition.awaitUninterruptibly();
+            }
+            return acknowledged;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAcknowledged() {
+        return acknowledged;
+    }
+
+    /**
+     * Loop of the sender thread: write the batched commands as one frame, without waiting for the acknowledgements of
+     * the frames in flight
+     */
+    private void send() {
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    while (batch.position() == 0) {
+                        batched.awaitUninterruptibly();
+                    }
+                    ByteBuffer full = batch;
+                    batch = sending;
+                    sending = full;
+                } finally {
+                    lock.unlock();
+                }
+                sending.flip();
+                ByteBuffer[] frame = {ByteBuffer.allocate(Integer.BYTES).putInt(0, sending.remaining()), sending};
+                while (sending.hasRemaining()) {
+                    channel.write(frame);
+                }
+                sending.clear();
+            }
+        } catch (IOException e) {
+            lost(e);
+        }
+    }
+
+    /**
+     * Loop of the receiver thread: read the cumulative acknowledgements of the replica
+     */
+    private void receive() {
+        ByteBuffer ack = ByteBuffer.allocate(Long.BYTES);
+        try {
+            while (true) {
+                ack.clear();
+                while (ack.hasRemaining()) {
+                    if (channel.read(ack) < 0) {
+                        throw new IOException("Replica closed the connection");
+                    }
+                }
+                final long replicated = ack.getLong(0);
+                lock.lock();
+                try {
+                    acknowledged = replicated;
+                    acknowledgedCondition.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            lost(e);
+        }
+    }
+
+    private void lost(IOException e) {
+        lock.lock();
+        try {
+            if (!connected) {
+                return;
+            }
+            connected = false;
+            log.error("Replica lost at sequence {}, the primary goes on without replication: {}", acknowledged, e.getMessage());
+            batch.clear();
+            acknowledged = sequence;
+            acknowledgedCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
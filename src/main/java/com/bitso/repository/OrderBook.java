@@ -2,16 +2,20 @@ package com.bitso.repository;
 
 import com.bitso.model.Order;
 import com.bitso.model.OrderSide;
+import com.bitso.model.Trade;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * OrderBook representation as data structure
@@ -23,186 +27,464 @@ import java.util.concurrent.PriorityBlockingQueue;
 public class OrderBook {
 
     /**
-     * Ask side of the OrderBook (Sell Orders)
+     * Ask side of the OrderBook (Sell Orders). Sorted by price ascending, so the best ask is the first level
      */
-    private final ConcurrentMap<Double, PriorityBlockingQueue<Order>> askOrders = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Double, PriceLevel> askOrders = new ConcurrentSkipListMap<>();
 
     /**
-     * Bid side of the OrderBook (Buy Orders)
+     * Bid side of the OrderBook (Buy Orders). Sorted by price descending, so the best bid is the first level
      */
-    private final ConcurrentMap<Double, PriorityBlockingQueue<Order>> bidOrders = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Double, PriceLevel> bidOrders = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
 
     /**
-     * Add Order to its corresponding Orders side (Ask/Bid)
+     * Trigger indexes of the stop Orders waiting for their trigger, by stop price in time priority. BUY stops are
+     * sorted ascending and SELL stops descending, so the stops triggered by a Trade price are always a prefix
+     */
+    private final ConcurrentNavigableMap<Double, PriceLevel> buyStops = new ConcurrentSkipListMap<>();
+    private final ConcurrentNavigableMap<Double, PriceLevel> sellStops = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+
+    /**
+     * Price of the last Trade executed, 0 before the first one
+     */
+    private double lastTradePrice;
+
+    /**
+     * Orders that rested, were cancelled or filled, and how long they rested
+     */
+    private final OrderFlow flow = new OrderFlow();
+
+    /**
+     * Add Order to the tail of its price level in its corresponding Orders side (Ask/Bid), or of its stop price in
+     * its trigger index if it is a stop Order
      *
      * @param order
      * @return
      */
     protected boolean add(Order order) {
-        final double price = order.getPrice();
-        PriorityBlockingQueue<Order> defaultQueue = new PriorityBlockingQueue<>(10, Comparator.comparing(Order::getCreatedAt));
-
-        boolean result;
-        if (order.getSide() == OrderSide.BUY) {
-            PriorityBlockingQueue<Order> queue = bidOrders.getOrDefault(price, defaultQueue);
-            result = queue.add(order);
-            bidOrders.put(price, queue);
-        } else {
-            PriorityBlockingQueue<Order> queue = askOrders.getOrDefault(price, defaultQueue);
-            result = queue.add(order);
-            askOrders.put(price, queue);
+        return index(order).computeIfAbsent(key(order), PriceLevel::new).add(order);
+    }
+
+    /**
+     * Add resting Orders in bulk, in the given priority order, without matching them. The new price levels are
+     * presized for the Orders they receive
+     *
+     * @param orders LIMIT Orders of this OrderBook that are not stops and do not cross it, see {@link #checkLoad(List)}
+     */
+    protected void load(List<Order> orders) {
+        Map<Double, Integer> askCounts = new HashMap<>();
+        Map<Double, Integer> bidCounts = new HashMap<>();
+        for (Order order : orders) {
+            (order.getSide() == OrderSide.SELL ? askCounts : bidCounts).merge(order.getPrice(), 1, Integer::sum);
+        }
+        PriceLevel level = null;
+        OrderSide levelSide = null;
+        for (Order order : orders) {
+            //The Orders of a level are usually consecutive, so the level is only searched when the price changes
+            if (level == null || levelSide != order.getSide() || level.getPrice() != order.getPrice()) {
+                final Map<Double, Integer> counts = order.getSide() == OrderSide.SELL ? askCounts : bidCounts;
+                level = side(order.getSide()).computeIfAbsent(order.getPrice(), price -> new PriceLevel(price, counts.get(price)));
+                levelSide = order.getSide();
+            }
+            level.offer(order);
+        }
+    }
+
+    /**
+     * Check that the Orders to load, which are not matched, leave the best bid below the best ask
+     *
+     * @param orders
+     * @throws IllegalArgumentException if the OrderBook would be crossed
+     */
+    protected void checkLoad(List<Order> orders) {
+        double bestBid = bidOrders.isEmpty() ? 0 : bidOrders.firstKey();
+        double bestAsk = askOrders.isEmpty() ? Double.POSITIVE_INFINITY : askOrders.firstKey();
+        for (Order order : orders) {
+            if (order.getSide() == OrderSide.BUY) {
+                bestBid = Math.max(bestBid, order.getPrice());
+            } else {
+                bestAsk = Math.min(bestAsk, order.getPrice());
+            }
+        }
+        if (bestBid >= bestAsk) {
+            throw new IllegalArgumentException("The Orders loaded would cross the OrderBook: best bid " + bestBid + ", best ask " + bestAsk);
         }
-        return result;
     }
 
     /**
-     * Remove Order from its Orders side (Ask/Bid)
+     * Remove Order from its Orders side (Ask/Bid), or from its trigger index if it is a stop Order
      *
      * @param order
      * @return
      */
     protected boolean remove(Order order) {
-        final double price = order.getPrice();
-        boolean result;
-        if (order.getSide() == OrderSide.BUY) {
-            PriorityBlockingQueue<Order> queue = bidOrders.get(price);
-            result = queue.remove(order);
-            bidOrders.replace(price, queue);
-        } else {
-            PriorityBlockingQueue<Order> queue = askOrders.get(price);
-            result = queue.remove(order);
-            askOrders.replace(price, queue);
-        }
+        ConcurrentNavigableMap<Double, PriceLevel> sideOrders = index(order);
+        PriceLevel level = sideOrders.get(key(order));
+        boolean result = level != null && level.remove(order);
+        removeLevelIfEmpty(sideOrders, level);
         return result;
     }
 
     /**
-     * Update Order in its OrderBook side (Ask/Bid)
+     * Remove a price level from its side once it has no Orders left, so the first levels of each side are always
+     * the best prices with volume
+     *
+     * @param sideOrders
+     * @param level
+     */
+    private void removeLevelIfEmpty(ConcurrentNavigableMap<Double, PriceLevel> sideOrders, PriceLevel level) {
+        if (level != null && level.isEmpty()) {
+            sideOrders.remove(level.getPrice(), level);
+        }
+    }
+
+    /**
+     * Amend the price and/or the amount of a resting Order in place, applying the queue priority rules:
+     * <ul>
+     *     <li>Same price and a smaller amount: the Order keeps its position in the queue, O(1)</li>
+     *     <li>New price or a bigger amount: the Order loses its priority and is moved to the tail of the level of
+     *     its (new) price, O(1) plus the level lookup</li>
+     * </ul>
+     *
+     * @param order     Order resting in this OrderBook
+     * @param newPrice
+     * @param newAmount
+     * @return true if the Order kept its priority
+     */
+    protected boolean amend(Order order, double newPrice, double newAmount) {
+        ConcurrentNavigableMap<Double, PriceLevel> sideOrders = index(order);
+        PriceLevel level = sideOrders.get(key(order));
+        if (order.isStop()) {
+            //A stop Order keeps its place in the trigger index, which only depends on its stop price
+            level.updateAmount(order, newAmount);
+            order.setPrice(newPrice);
+            return true;
+        }
+        if (newPrice == order.getPrice() && newAmount <= order.getAmount()) {
+            level.updateAmount(order, newAmount);
+            return true;
+        }
+        level.remove(order);
+        removeLevelIfEmpty(sideOrders, level);
+        order.setPrice(newPrice);
+        order.setAmount(newAmount);
+        add(order);
+        return false;
+    }
+
+    /**
+     * Remove the stop Orders triggered by the Trades executed between two prices: the BUY stops at or below the
+     * highest price and the SELL stops at or above the lowest one. Only the triggered levels of each index are visited
+     *
+     * @param lowPrice  lowest price of the Trades
+     * @param highPrice highest price of the Trades
+     * @return the Orders triggered, by stop price and time priority
+     */
+    protected List<Order> pollTriggered(double lowPrice, double highPrice) {
+        List<Order> triggered = new ArrayList<>();
+        pollTriggered(buyStops.headMap(highPrice, true), triggered);
+        pollTriggered(sellStops.headMap(lowPrice, true), triggered);
+        return triggered;
+    }
+
+    private static void pollTriggered(ConcurrentNavigableMap<Double, PriceLevel> levels, List<Order> triggered) {
+        for (PriceLevel level : levels.values()) {
+            triggered.addAll(level);
+        }
+        levels.clear();
+    }
+
+    /**
+     * Get the map where an Order rests: its trigger index if it is a stop Order, or its side otherwise
      *
      * @param order
      * @return
      */
-    protected Order update(Order order, Order currentOrder) {
-        Order newOrder;
-        if (order.getAmount() > currentOrder.getAmount()) {
-            //Order.createdAt will be a new
-            newOrder = new Order(order.getId(), order.getMarket(), order.getSide(), order.getPrice(), order.getAmount());
-        } else {
-            //Order.createdAt will be the same
-            newOrder = order;
+    private ConcurrentNavigableMap<Double, PriceLevel> index(Order order) {
+        if (order.isStop()) {
+            return order.getSide() == OrderSide.BUY ? buyStops : sellStops;
         }
-        boolean result = remove(currentOrder);
-        if (result) {
-            result = add(newOrder);
+        return side(order.getSide());
+    }
+
+    /**
+     * Get the key of the level of an Order in its map: its stop price if it is a stop Order, or its price otherwise
+     *
+     * @param order
+     * @return
+     */
+    private static double key(Order order) {
+        return order.isStop() ? order.getStopPrice() : order.getPrice();
+    }
+
+    /**
+     * Get a side of the OrderBook given an {@link OrderSide}
+     *
+     * @param side
+     * @return
+     */
+    private ConcurrentNavigableMap<Double, PriceLevel> side(OrderSide side) {
+        return side == OrderSide.BUY ? bidOrders : askOrders;
+    }
+
+    /**
+     * Check if the whole amount of the Order can be filled with the levels it crosses on the other side of the market.
+     * Only the crossed levels are visited, stopping as soon as there is enough volume
+     *
+     * @param order
+     * @return
+     */
+    protected boolean canFill(Order order) {
+        double available = 0;
+        for (Map.Entry<Double, PriceLevel> level : oppositeSide(order).entrySet()) {
+            if (!order.crosses(level.getKey())) {
+                break;
+            }
+            available += level.getValue().getTotalAmount();
+            if (available >= order.getAmount()) {
+                return true;
+            }
         }
-        log.info("Update result of {} : {}", order.getId(), result);
-        return newOrder;
+        return false;
     }
 
     /**
-     * Fill the Order looking for its counterpart on the other side of the market
+     * Fill the Order looking for its counterparts on the other side of the market, walking the levels from the best
+     * price while the Order crosses them. The Order itself is never added to the OrderBook here.
      *
      * @param order
-     * @return List with all Order filled
+     * @return List with all Trades executed
      */
-    protected List<Order> fillOrder(Order order) {
-        final double price = order.getPrice();
+    protected List<Trade> fillOrder(Order order) {
         final UUID orderId = order.getId();
-        List<Order> filled = new ArrayList<>();
-
-        if (order.getSide() == OrderSide.BUY) {
-            log.info("Looking Sell Orders (Ask Side) to fill: {}", order);
-            PriorityBlockingQueue<Order> queue = askOrders.get(price);
-            if (queue != null) {
-                while (!queue.isEmpty() && order.getAmount() > 0) {
-                    Order headOrder = queue.peek();
-                    final double availableAmount = headOrder.getAmount();
-                    final double amountToFill = order.getAmount();
-                    if (availableAmount == amountToFill) {
-                        log.info("Sell Order fully filled: {}", headOrder);
-                        queue.remove();
-                        log.info("Sell Order {} was removed from the OrderBook", headOrder.getId());
-                        order.setAmount(0);
-                        headOrder.setAmount(0);
-                        filled.add(headOrder);
-                        askOrders.replace(price, queue);
-                        log.info("Buy Trade {} was fully filled", orderId);
-                        remove(order);
-                        log.info("Buy Trade {} was removed from the OrderBook", orderId);
-                    } else if (availableAmount > amountToFill) {
-                        final double remaining = availableAmount - amountToFill;
-                        log.info("Sell Order partially filled: {}, Remaining Amount {}", headOrder, remaining);
-                        order.setAmount(0);
-                        Order orderFilled = headOrder.clone();
-                        orderFilled.setAmount(remaining);
-                        filled.add(headOrder);
-                        update(orderFilled, headOrder);
-                        log.info("Buy Trade {} was fully filled", orderId);
-                        remove(order);
-                        log.info("Buy Trade {} was removed from the OrderBook", orderId);
-                    } else {
-                        // availableAmount < amountToFill
-                        log.info("Sell Order fully filled: {}", headOrder);
-                        queue.remove();
-                        log.info("Sell Order {} was removed from the OrderBook", headOrder.getId());
-                        final double remaining = amountToFill - availableAmount;
-                        order.setAmount(remaining);
-                        headOrder.setAmount(0);
-                        filled.add(headOrder);
-                        askOrders.replace(price, queue);
-                        log.info("Buy Trade {} was partially filled, Remaining Amount {}", orderId, remaining);
-                    }
+        final String trade = order.getSide() == OrderSide.BUY ? "Buy Trade" : "Sell Trade";
+        final String counterpart = order.getSide() == OrderSide.BUY ? "Sell Order" : "Buy Order";
+        List<Trade> trades = new ArrayList<>();
+
+        log.info("Looking {}s to fill: {}", counterpart, order);
+        Iterator<Map.Entry<Double, PriceLevel>> levels = oppositeSide(order).entrySet().iterator();
+        while (order.getAmount() > 0 && levels.hasNext()) {
+            Map.Entry<Double, PriceLevel> level = levels.next();
+            final double price = level.getKey();
+            if (!order.crosses(price)) {
+                break;
+            }
+            PriceLevel queue = level.getValue();
+            while (!queue.isEmpty() && order.getAmount() > 0) {
+                Order headOrder = queue.peek();
+                final double availableAmount = headOrder.getAmount();
+                final double amountToFill = order.getAmount();
+                if (availableAmount > amountToFill) {
+                    //A partially filled Order keeps its place in the queue
+                    final double remaining = availableAmount - amountToFill;
+                    log.info("{} partially filled: {}, Remaining Amount {}", counterpart, headOrder, remaining);
+                    queue.updateAmount(headOrder, remaining);
+                    order.setAmount(0);
+                    trades.add(trade(order, headOrder, price, amountToFill));
+                } else {
+                    log.info("{} fully filled: {}", counterpart, headOrder);
+                    queue.poll();
+                    log.info("{} {} was removed from the OrderBook", counterpart, headOrder.getId());
+                    order.setAmount(amountToFill - availableAmount);
+                    headOrder.setAmount(0);
+                    trades.add(trade(order, headOrder, price, availableAmount));
                 }
+                lastTradePrice = price;
+            }
+            if (queue.isEmpty()) {
+                levels.remove();
+            }
+            if (order.getAmount() > 0) {
+                log.info("{} {} was partially filled at price $ {}, Remaining Amount {}", trade, orderId, price, order.getAmount());
             } else {
-                log.info("There is not any Sell Order at price $ {} to fill the Order {}", price, orderId);
+                log.info("{} {} was fully filled at price $ {}", trade, orderId, price);
             }
-        } else {
-            log.info("Looking Buy Orders (Bid Side) to fill: {}", order);
-            PriorityBlockingQueue<Order> queue = bidOrders.get(price);
-            if (queue != null) {
-                while (!queue.isEmpty() && order.getAmount() > 0) {
-                    Order headOrder = queue.peek();
-                    final double availableAmount = headOrder.getAmount();
-                    final double amountToFill = order.getAmount();
-                    if (availableAmount == amountToFill) {
-                        log.info("Buy Order fully filled: {}", headOrder);
-                        queue.remove();
-                        log.info("Buy Order {} was removed from the OrderBook", headOrder.getId());
-                        order.setAmount(0);
-                        headOrder.setAmount(0);
-                        filled.add(headOrder);
-                        bidOrders.replace(price, queue);
-                        log.info("Sell Trade {} was fully filled", orderId);
-                        remove(order);
-                        log.info("Sell Trade {} was removed from the OrderBook", orderId);
-                    } else if (availableAmount > amountToFill) {
-                        final double remaining = availableAmount - amountToFill;
-                        log.info("Buy Order partially filled: {}, Remaining Amount {}", headOrder, remaining);
-                        order.setAmount(0);
-                        Order orderFilled = headOrder.clone();
-                        orderFilled.setAmount(remaining);
-                        filled.add(headOrder);
-                        update(orderFilled, headOrder);
-                        log.info("Sell Trade {} was fully filled", orderId);
-                        remove(order);
-                        log.info("Sell Trade {} was removed from the OrderBook", orderId);
-                    } else {
-                        // availableAmount < amountToFill
-                        log.info("Buy Order fully filled: {}", headOrder);
-                        queue.remove();
-                        log.info("Buy Order {} was removed from the OrderBook", headOrder.getId());
-                        final double remaining = amountToFill - availableAmount;
-                        order.setAmount(remaining);
-                        headOrder.setAmount(0);
-                        filled.add(headOrder);
-                        bidOrders.replace(price, queue);
-                        log.info("Sell Trade {} was partially filled, Remaining Amount {}", orderId, remaining);
-                    }
-                }
+        }
+        if (trades.isEmpty()) {
+            log.info("There is not any {} crossing the price $ {} to fill the Order {}", counterpart, order.getPrice(), orderId);
+        }
+        return trades;
+    }
+
+    /**
+     * Find the uncrossing price of a call auction from the aggregated amounts of the levels where both sides cross.
+     * For each price of those levels, the volume executed is the minimum between the demand (bids at that price or
+     * higher) and the supply (asks at that price or lower). The uncrossing price is the one with the most volume, then
+     * the smallest surplus, then the highest one if the surplus is on the buy side or the lowest one if it is on the
+     * sell side, and otherwise the one nearest the middle of the prices still tied. Only the crossed levels are
+     * visited, never their Orders
+     *
+     * @return the uncrossing price, NaN if the OrderBook is not crossed
+     */
+    public double getUncrossingPrice() {
+        if (bidOrders.isEmpty() || askOrders.isEmpty() || bidOrders.firstKey() < askOrders.firstKey()) {
+            return Double.NaN;
+        }
+        final Collection<PriceLevel> bids = bidOrders.headMap(askOrders.firstKey(), true).values();
+        final Collection<PriceLevel> asks = askOrders.headMap(bidOrders.firstKey(), true).values();
+
+        //Crossed levels of each side by ascending price
+        final double[] bidPrices = new double[bids.size()];
+        final double[] bidAmounts = new double[bidPrices.length];
+        int index = bidPrices.length;
+        double demand = 0;
+        for (PriceLevel level : bids) {
+            index--;
+            bidPrices[index] = level.getPrice();
+            bidAmounts[index] = level.getTotalAmount();
+            demand += level.getTotalAmount();
+        }
+        final double[] askPrices = new double[asks.size()];
+        final double[] askAmounts = new double[askPrices.length];
+        index = 0;
+        for (PriceLevel level : asks) {
+            askPrices[index] = level.getPrice();
+            askAmounts[index] = level.getTotalAmount();
+            index++;
+        }
+
+        //Volume and surplus at each candidate price, merging the prices of both sides by ascending price
+        final double[] prices = new double[bidPrices.length + askPrices.length];
+        final double[] volumes = new double[prices.length];
+        final double[] surpluses = new double[prices.length];
+        int count = 0;
+        int bid = 0;
+        int ask = 0;
+        double supply = 0;
+        double maxVolume = 0;
+        while (bid < bidPrices.length || ask < askPrices.length) {
+            final double price = ask == askPrices.length || (bid < bidPrices.length && bidPrices[bid] < askPrices[ask]) ? bidPrices[bid] : askPrices[ask];
+            while (ask < askPrices.length && askPrices[ask] <= price) {
+                supply += askAmounts[ask++];
+            }
+            prices[count] = price;
+            volumes[count] = Math.min(demand, supply);
+            surpluses[count] = demand - supply;
+            maxVolume = Math.max(maxVolume, volumes[count]);
+            count++;
+            while (bid < bidPrices.length && bidPrices[bid] <= price) {
+                demand -= bidAmounts[bid++];
+            }
+        }
+
+        double minSurplus = Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (volumes[i] == maxVolume) {
+                minSurplus = Math.min(minSurplus, Math.abs(surpluses[i]));
+            }
+        }
+        int low = -1;
+        int high = -1;
+        boolean buyPressure = true;
+        boolean sellPressure = true;
+        for (int i = 0; i < count; i++) {
+            if (volumes[i] == maxVolume && Math.abs(surpluses[i]) == minSurplus) {
+                low = low < 0 ? i : low;
+                high = i;
+                buyPressure &= surpluses[i] > 0;
+                sellPressure &= surpluses[i] < 0;
+            }
+        }
+        if (buyPressure) {
+            return prices[high];
+        }
+        if (sellPressure) {
+            return prices[low];
+        }
+        final double middle = (prices[low] + prices[high]) / 2;
+        double uncrossingPrice = prices[low];
+        for (int i = low; i <= high; i++) {
+            if (volumes[i] == maxVolume && Math.abs(surpluses[i]) == minSurplus && Math.abs(prices[i] - middle) < Math.abs(uncrossingPrice - middle)) {
+                uncrossingPrice = prices[i];
+            }
+        }
+        return uncrossingPrice;
+    }
+
+    /**
+     * Get the Orders that take part in the uncrossing of a call auction at a price: the bids at that price or higher
+     * and the asks at that price or lower
+     *
+     * @param price
+     * @return
+     */
+    public List<Order> getCrossedOrders(double price) {
+        List<Order> crossed = new ArrayList<>();
+        bidOrders.headMap(price, true).values().forEach(crossed::addAll);
+        askOrders.headMap(price, true).values().forEach(crossed::addAll);
+        return crossed;
+    }
+
+    /**
+     * Uncross a call auction: execute the best bid against the best ask, in price and time priority, while both cross
+     * the uncrossing price, all at that price. Each Trade takes the Order that arrived first as the maker. The filled
+     * Orders and the empty levels are removed, the rest of the Orders keep their priority
+     *
+     * @param price uncrossing price, see {@link #getUncrossingPrice()}
+     * @return List with all Trades executed
+     */
+    protected List<Trade> uncross(double price) {
+        List<Trade> trades = new ArrayList<>();
+        while (!bidOrders.isEmpty() && !askOrders.isEmpty()) {
+            PriceLevel bidLevel = bidOrders.firstEntry().getValue();
+            PriceLevel askLevel = askOrders.firstEntry().getValue();
+            if (bidLevel.getPrice() < price || askLevel.getPrice() > price) {
+                break;
+            }
+            Order buyOrder = bidLevel.peek();
+            Order sellOrder = askLevel.peek();
+            final double amount = Math.min(buyOrder.getAmount(), sellOrder.getAmount());
+            if (buyOrder.getCreatedAt().isAfter(sellOrder.getCreatedAt())) {
+                trades.add(trade(buyOrder, sellOrder, price, amount));
             } else {
-                log.info("There is not any Buy Order at price $ {} to fill the Order {}", price, orderId);
+                trades.add(trade(sellOrder, buyOrder, price, amount));
             }
+            fill(bidOrders, bidLevel, buyOrder, amount);
+            fill(askOrders, askLevel, sellOrder, amount);
+            lastTradePrice = price;
         }
-        return filled;
+        log.info("Auction uncrossed at price $ {} with {} Trades", price, trades.size());
+        return trades;
+    }
+
+    /**
+     * Fill an amount of the Order at the head of a level, removing the Order if it is fully filled and the level if
+     * it is empty
+     *
+     * @param sideOrders
+     * @param level
+     * @param order
+     * @param amount
+     */
+    private void fill(ConcurrentNavigableMap<Double, PriceLevel> sideOrders, PriceLevel level, Order order, double amount) {
+        if (order.getAmount() > amount) {
+            level.updateAmount(order, order.getAmount() - amount);
+        } else {
+            level.poll();
+            order.setAmount(0);
+            removeLevelIfEmpty(sideOrders, level);
+        }
+    }
+
+    private Trade trade(Order taker, Order maker, double price, double amount) {
+        return Trade.builder()
+                .market(taker.getMarket())
+                .price(price)
+                .amount(amount)
+                .takerSide(taker.getSide())
+                .makerOrderId(maker.getId())
+                .makerSessionId(maker.getSessionId())
+                .takerOrderId(taker.getId())
+                .takerSessionId(taker.getSessionId())
+                .build();
+    }
+
+    /**
+     * Get the side of the OrderBook where the counterparts of the Order are
+     *
+     * @param order
+     * @return
+     */
+    private ConcurrentNavigableMap<Double, PriceLevel> oppositeSide(Order order) {
+        return side(order.getSide() == OrderSide.BUY ? OrderSide.SELL : OrderSide.BUY);
     }
 }
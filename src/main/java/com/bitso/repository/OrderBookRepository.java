@@ -2,8 +2,11 @@ package com.bitso.repository;
 
 import com.bitso.model.Market;
 import com.bitso.model.Order;
+import com.bitso.model.OrderSide;
+import com.bitso.model.Trade;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Queue;
 import java.util.UUID;
 
@@ -30,11 +33,16 @@ public interface OrderBookRepository {
     void add(Order order);
 
     /**
-     * Update Order in the OrderBook
+     * Amend the price and/or the amount of an Order resting in the OrderBook in place.
+     * A smaller amount at the same price keeps the queue priority, otherwise the Order is moved to the tail of the
+     * level of its new price
      *
      * @param order
+     * @param newPrice
+     * @param newAmount
+     * @return true if the Order kept its queue priority
      */
-    void update(Order order);
+    boolean amend(Order order, double newPrice, double newAmount);
 
     /**
      * Remove Order from the OrderBook
@@ -43,13 +51,81 @@ public interface OrderBookRepository {
      */
     void remove(Order order);
 
+    /**
+     * Take a resting Order out of the OrderBook to execute it again, as an amendment crossing the market does. Unlike
+     * {@link #remove(Order)}, the {@link OrderFlow} does not record it as cancelled: it is counted as added again
+     * only if it rests, like any incoming Order
+     *
+     * @param order
+     */
+    void detach(Order order);
+
+    /**
+     * Check if the whole amount of the Order can be filled immediately in the OrderBook
+     *
+     * @param order
+     * @return
+     */
+    boolean canFill(Order order);
+
     /**
      * Fill the Order in the OrderBook
      *
      * @param order
-     * @return true is the Order was filled partially or totally, otherwise false
+     * @return the Trades executed, empty if the Order was not filled
+     */
+    List<Trade> fillOrder(Order order);
+
+    /**
+     * Uncross the call auction of a Market at a price, see {@link OrderBook#uncross(double)}
+     *
+     * @param market
+     * @param price
+     * @return the Trades executed, empty if the OrderBook does not cross at that price
+     */
+    List<Trade> uncross(Market market, double price);
+
+    /**
+     * Add resting Orders in bulk straight to the OrderBooks, without matching them, see {@link OrderBook#load(List)}.
+     * The Orders of each price level keep the given order
+     *
+     * @param orders LIMIT GTC Orders that do not cross the OrderBooks
+     * @return the Orders loaded, all but the ones with an id already in use
+     * @throws IllegalArgumentException if the Orders would cross an OrderBook, then none is loaded
+     */
+    List<Order> load(List<Order> orders);
+
+    /**
+     * Remove the stop Orders of a Market triggered by Trades between two prices, see
+     * {@link OrderBook#pollTriggered(double, double)}. The Orders returned are no longer stops, they are executed as
+     * new incoming Orders
+     *
+     * @param market
+     * @param lowPrice
+     * @param highPrice
+     * @return the Orders triggered, empty if none
+     */
+    List<Order> triggerStops(Market market, double lowPrice, double highPrice);
+
+    /**
+     * Advance the expiry clock of the GTT Orders and get the ones that reached their expire time. The Orders are
+     * still in the OrderBooks, to be removed as a cancellation
+     *
+     * @param nowMillis
+     * @return the Orders expired, empty if none
+     */
+    List<Order> pollExpired(long nowMillis);
+
+    /**
+     * Remove all the Orders of a client session, optionally only the ones of a {@link Market} and/or an
+     * {@link OrderSide}. Only the Orders of the session are visited
+     *
+     * @param sessionId
+     * @param market    {@code null} to remove the Orders of all Markets
+     * @param side      {@code null} to remove the Orders of both sides
+     * @return the Orders removed
      */
-    boolean fillOrder(Order order);
+    List<Order> removeSessionOrders(long sessionId, Market market, OrderSide side);
 
     /**
      * Get a collection of all Orders in the Exchange
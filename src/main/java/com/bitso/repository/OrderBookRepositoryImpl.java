@@ -2,16 +2,27 @@ package com.bitso.repository;
 
 import com.bitso.model.Market;
 import com.bitso.model.Order;
+import com.bitso.model.OrderSide;
+import com.bitso.model.Trade;
+import com.bitso.shared.MarketRegistry;
+import com.bitso.shared.TimingWheel;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+
+import static com.bitso.shared.Config.EXPIRY_TICK_MILLIS;
 
 /**
  * Implementation of {@link OrderBookRepository}
@@ -24,14 +35,27 @@ public class OrderBookRepositoryImpl implements OrderBookRepository {
     private static OrderBookRepositoryImpl INSTANCE;
 
     /**
-     * Map to store Orders. Store by id to guarantee O(1) search time in the OrderBooks
+     * Map to store Orders. Store by id to guarantee O(1) search time in the OrderBooks. Replaced by a presized map
+     * when a bulk load starts with no Orders
      */
-    private final Map<UUID, Order> orders = new HashMap<>();
+    private Map<UUID, Order> orders = new HashMap<>();
 
     /**
-     * Map to store the Market with its OrderBooks
+     * Map to store the resting Orders of each client session, to cancel them without searching all the Orders
      */
-    private final ConcurrentMap<Market, OrderBook> orderBooks = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Order>> sessionOrders = new HashMap<>();
+
+    /**
+     * Timers of the resting GTT Orders, cancelled in O(1) when an Order leaves the OrderBook before its expire time
+     */
+    private final TimingWheel<Order> expiryWheel = new TimingWheel<>(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+    private final Map<UUID, TimingWheel.Timeout<Order>> expiries = new HashMap<>();
+
+    /**
+     * OrderBooks indexed by the id of their Market, see {@link MarketRegistry}. Grows when a Market listed at runtime
+     * receives its first Order
+     */
+    private volatile OrderBook[] orderBooks = new OrderBook[MarketRegistry.getInstance().size()];
 
     /**
      * Get Singleton instance
@@ -53,47 +77,205 @@ public class OrderBookRepositoryImpl implements OrderBookRepository {
     @Override
     public void add(Order order) {
         orders.put(order.getId(), order);
+        addSessionOrder(order);
+        if (order.getExpireAt() > 0 && !expiries.containsKey(order.getId())) {
+            expiries.put(order.getId(), expiryWheel.schedule(order.getExpireAt(), order));
+        }
 
-        final Market market = order.getMarket();
-        OrderBook orderBook = orderBooks.getOrDefault(market, new OrderBook());
+        OrderBook orderBook = getOrCreateOrderBook(order.getMarket());
         boolean result = orderBook.add(order);
+        if (result && !order.isStop()) {
+            orderBook.getFlow().onAdded();
+        }
         log.info("Order {} added to the OrderBook: {}", order.getId(), result);
-        orderBooks.put(market, orderBook);
     }
 
     @Override
-    public void update(Order order) {
-        Order currentOrder = orders.get(order.getId());
-        OrderBook orderBook = orderBooks.get(order.getMarket());
-        Order newOrder = orderBook.update(order, currentOrder);
-        log.info("Order {} updated in the OrderBook", newOrder);
-        orders.replace(order.getId(), newOrder);
+    public List<Order> load(List<Order> ordersToLoad) {
+        Map<Market, List<Order>> ordersByMarket = new LinkedHashMap<>();
+        for (Order order : ordersToLoad) {
+            ordersByMarket.computeIfAbsent(order.getMarket(), market -> new ArrayList<>()).add(order);
+        }
+        //Nothing is loaded if any OrderBook would be crossed
+        ordersByMarket.forEach((market, marketOrders) -> getOrCreateOrderBook(market).checkLoad(marketOrders));
+        if (orders.isEmpty()) {
+            orders = new HashMap<>((int) (ordersToLoad.size() / 0.75f) + 1);
+        }
+        List<Order> loaded = new ArrayList<>(ordersToLoad.size());
+        ordersByMarket.forEach((market, marketOrders) -> {
+            marketOrders.removeIf(order -> {
+                if (orders.putIfAbsent(order.getId(), order) != null) {
+                    log.warn("Order {} not loaded, its id is already in use", order.getId());
+                    return true;
+                }
+                addSessionOrder(order);
+                return false;
+            });
+            OrderBook orderBook = getOrCreateOrderBook(market);
+            orderBook.load(marketOrders);
+            marketOrders.forEach(order -> orderBook.getFlow().onAdded());
+            loaded.addAll(marketOrders);
+        });
+        return loaded;
+    }
+
+    @Override
+    public boolean amend(Order order, double newPrice, double newAmount) {
+        OrderBook orderBook = getOrderBook(order.getMarket());
+        boolean keptPriority = orderBook.amend(order, newPrice, newAmount);
+        log.info("Order {} amended in the OrderBook, Priority kept: {}", order, keptPriority);
+        return keptPriority;
     }
 
     @Override
     public void remove(Order order) {
         orders.remove(order.getId());
+        removeSessionOrder(order);
+        cancelExpiry(order);
 
-        OrderBook orderBook = orderBooks.get(order.getMarket());
+        OrderBook orderBook = getOrderBook(order.getMarket());
         boolean result = orderBook.remove(order);
+        if (result) {
+            onRemoved(order, false);
+        }
         log.info("Order {} removed from the OrderBook: {}", order.getId(), result);
     }
 
     @Override
-    public boolean fillOrder(Order order) {
-        OrderBook orderBook = orderBooks.get(order.getMarket());
-        List<Order> ordersFilled = orderBook.fillOrder(order);
-        if (ordersFilled.isEmpty()) {
-            return false;
+    public void detach(Order order) {
+        orders.remove(order.getId());
+        removeSessionOrder(order);
+        cancelExpiry(order);
+
+        OrderBook orderBook = getOrderBook(order.getMarket());
+        boolean result = orderBook.remove(order);
+        if (result && !order.isStop()) {
+            orderBook.getFlow().onDetached();
+        }
+        log.info("Order {} detached from the OrderBook: {}", order.getId(), result);
+    }
+
+    @Override
+    public List<Order> removeSessionOrders(long sessionId, Market market, OrderSide side) {
+        Set<Order> ordersOfSession = sessionOrders.get(sessionId);
+        if (ordersOfSession == null) {
+            return Collections.emptyList();
         }
-        for (Order o : ordersFilled) {
-            if (o.getAmount() == 0) {
-                orders.remove(o.getId());
-            } else {
-                orders.replace(o.getId(), o);
+        List<Order> removed = new ArrayList<>();
+        Iterator<Order> iterator = ordersOfSession.iterator();
+        while (iterator.hasNext()) {
+            Order order = iterator.next();
+            if ((market == null || order.getMarket() == market) && (side == null || order.getSide() == side)) {
+                iterator.remove();
+                orders.remove(order.getId());
+                cancelExpiry(order);
+                if (getOrderBook(order.getMarket()).remove(order)) {
+                    onRemoved(order, false);
+                }
+                removed.add(order);
             }
         }
-        return true;
+        if (ordersOfSession.isEmpty()) {
+            sessionOrders.remove(sessionId);
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean canFill(Order order) {
+        OrderBook orderBook = getOrderBook(order.getMarket());
+        return orderBook != null && orderBook.canFill(order);
+    }
+
+    @Override
+    public List<Trade> fillOrder(Order order) {
+        OrderBook orderBook = getOrderBook(order.getMarket());
+        if (orderBook == null) {
+            return Collections.emptyList();
+        }
+        List<Trade> trades = orderBook.fillOrder(order);
+        for (Trade trade : trades) {
+            Order maker = orders.get(trade.getMakerOrderId());
+            if (maker.getAmount() == 0) {
+                orders.remove(maker.getId());
+                removeSessionOrder(maker);
+                cancelExpiry(maker);
+                onRemoved(maker, true);
+            }
+        }
+        return trades;
+    }
+
+    @Override
+    public List<Trade> uncross(Market market, double price) {
+        OrderBook orderBook = getOrderBook(market);
+        if (orderBook == null) {
+            return Collections.emptyList();
+        }
+        List<Trade> trades = orderBook.uncross(price);
+        //Both Orders of an auction Trade were resting, so both may be filled
+        for (Trade trade : trades) {
+            forgetIfFilled(trade.getMakerOrderId());
+            forgetIfFilled(trade.getTakerOrderId());
+        }
+        return trades;
+    }
+
+    @Override
+    public List<Order> triggerStops(Market market, double lowPrice, double highPrice) {
+        OrderBook orderBook = getOrderBook(market);
+        if (orderBook == null) {
+            return Collections.emptyList();
+        }
+        List<Order> triggered = orderBook.pollTriggered(lowPrice, highPrice);
+        for (Order order : triggered) {
+            orders.remove(order.getId());
+            removeSessionOrder(order);
+            //Scheduled again if the Order rests once triggered
+            cancelExpiry(order);
+            order.setStopPrice(0);
+        }
+        return triggered;
+    }
+
+    @Override
+    public List<Order> pollExpired(long nowMillis) {
+        List<Order> expired = new ArrayList<>();
+        expiryWheel.advance(nowMillis, order -> {
+            expiries.remove(order.getId());
+            expired.add(order);
+        });
+        return expired;
+    }
+
+    private void forgetIfFilled(UUID id) {
+        Order order = orders.get(id);
+        if (order != null && order.getAmount() == 0) {
+            orders.remove(id);
+            removeSessionOrder(order);
+            cancelExpiry(order);
+            onRemoved(order, true);
+        }
+    }
+
+    /**
+     * Record an Order leaving its OrderBook in the {@link OrderFlow}. Pending stop Orders never rested, so they are
+     * not recorded
+     *
+     * @param order
+     * @param filled
+     */
+    private void onRemoved(Order order, boolean filled) {
+        if (!order.isStop()) {
+            getOrderBook(order.getMarket()).getFlow().onRemoved(order.getCreatedAt().toEpochMilli(), System.currentTimeMillis(), filled);
+        }
+    }
+
+    private void cancelExpiry(Order order) {
+        TimingWheel.Timeout<Order> timeout = expiries.remove(order.getId());
+        if (timeout != null) {
+            timeout.cancel();
+        }
     }
 
     @Override
@@ -103,12 +285,15 @@ public class OrderBookRepositoryImpl implements OrderBookRepository {
 
     @Override
     public OrderBook getOrderBook(Market market) {
-        return orderBooks.getOrDefault(market, null);
+        final OrderBook[] orderBooks = this.orderBooks;
+        //Messages without a Market, e.g. DELETE, have no OrderBook
+        final int id = market != null ? market.getId() : -1;
+        return id >= 0 && id < orderBooks.length ? orderBooks[id] : null;
     }
 
     @Override
     public Queue<Order> getAskOrders(Market market, double price) {
-        OrderBook orderBook = orderBooks.get(market);
+        OrderBook orderBook = getOrderBook(market);
         if (orderBook != null) {
             return orderBook.getAskOrders().get(price);
         }
@@ -117,13 +302,41 @@ public class OrderBookRepositoryImpl implements OrderBookRepository {
 
     @Override
     public Queue<Order> getBidOrders(Market market, double price) {
-        OrderBook orderBook = orderBooks.get(market);
+        OrderBook orderBook = getOrderBook(market);
         if (orderBook != null) {
             return orderBook.getBidOrders().get(price);
         }
         return null;
     }
 
+    private OrderBook getOrCreateOrderBook(Market market) {
+        OrderBook orderBook = getOrderBook(market);
+        if (orderBook == null) {
+            if (market.getId() >= orderBooks.length) {
+                orderBooks = Arrays.copyOf(orderBooks, MarketRegistry.getInstance().size());
+            }
+            orderBook = new OrderBook();
+            orderBooks[market.getId()] = orderBook;
+        }
+        return orderBook;
+    }
+
+    private void addSessionOrder(Order order) {
+        if (order.getSessionId() != 0) {
+            sessionOrders.computeIfAbsent(order.getSessionId(), id -> new HashSet<>()).add(order);
+        }
+    }
+
+    private void removeSessionOrder(Order order) {
+        Set<Order> ordersOfSession = sessionOrders.get(order.getSessionId());
+        if (ordersOfSession != null) {
+            ordersOfSession.remove(order);
+            if (ordersOfSession.isEmpty()) {
+                sessionOrders.remove(order.getSessionId());
+            }
+        }
+    }
+
     private OrderBookRepositoryImpl() {
     }
 }
@@ -0,0 +1,107 @@
+package com.bitso.repository;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Flow of the Orders of an OrderBook: the Orders that rested, were cancelled or were filled, and a histogram of how
+ * long they rested. Updated by the matching thread with plain counters, and copied under the matching lock by the
+ * analytics snapshots.
+ * <p>
+ * The lifetime histogram has power-of-two buckets of milliseconds: bucket 0 counts the Orders that rested less than
+ * 1 ms, and bucket {@code i} the ones that rested {@code [2^(i-1), 2^i)} ms, the last bucket holding the longer ones.
+ *
+ * @author Andres Ortiz
+ */
+@Getter
+public class OrderFlow {
+
+    public static final int LIFETIME_BUCKETS = 32;
+
+    private long added;
+    private long cancelled;
+    private long filled;
+    private final long[] lifetimes;
+
+    public OrderFlow() {
+        this.lifetimes = new long[LIFETIME_BUCKETS];
+    }
+
+    private OrderFlow(OrderFlow other) {
+        this.added = other.added;
+        this.cancelled = other.cancelled;
+        this.filled = other.filled;
+        this.lifetimes = other.lifetimes.clone();
+    }
+
+    void onAdded() {
+        added++;
+    }
+
+    /**
+     * Record an Order taken out of the OrderBook to be executed again, which is added again if it rests
+     */
+    void onDetached() {
+        added--;
+    }
+
+    /**
+     * Record an Order leaving the OrderBook
+     *
+     * @param createdAtMillis
+     * @param nowMillis
+     * @param wasFilled       filled, or cancelled (deleted, expired or mass cancelled)
+     */
+    void onRemoved(long createdAtMillis, long nowMillis, boolean wasFilled) {
+        if (wasFilled) {
+            filled++;
+        } else {
+            cancelled++;
+        }
+        lifetimes[bucket(nowMillis - createdAtMillis)]++;
+    }
+
+    /**
+     * Copy the counters, and reset them to start a new period
+     *
+     * @param reset
+     * @return
+     */
+    public OrderFlow copy(boolean reset) {
+        OrderFlow copy = new OrderFlow(this);
+        if (reset) {
+            added = 0;
+            cancelled = 0;
+            filled = 0;
+            Arrays.fill(lifetimes, 0);
+        }
+        return copy;
+    }
+
+    /**
+     * Estimate a percentile of the lifetimes as the upper bound of its bucket
+     *
+     * @param percentile between 0 and 1
+     * @return the lifetime in milliseconds, 0 if no Order was removed
+     */
+    public long getLifetimePercentile(double percentile) {
+        long total = 0;
+        for (long count : lifetimes) {
+            total += count;
+        }
+        final long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < lifetimes.length; i++) {
+            seen += lifetimes[i];
+            if (seen >= rank && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    private static int bucket(long millis) {
+        return millis <= 0 ? 0 : Math.min(LIFETIME_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+}
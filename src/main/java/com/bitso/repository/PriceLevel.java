@@ -0,0 +1,127 @@
+package com.bitso.repository;
+
+import com.bitso.model.Order;
+import lombok.Getter;
+
+import java.util.AbstractQueue;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Orders resting at the same price of one side of the OrderBook, kept in time priority (FIFO) order together with
+ * their aggregated amount.
+ * <p>
+ * Backed by a {@link LinkedHashSet}, so adding an Order to the tail of the level and removing an arbitrary Order are
+ * both O(1), and the iteration order is the priority order. As the rest of the OrderBook, it is only modified by the
+ * matching thread.
+ *
+ * @author Andres Ortiz
+ */
+public class PriceLevel extends AbstractQueue<Order> {
+
+    @Getter
+    private final double price;
+
+    private final LinkedHashSet<Order> orders;
+    private final Set<Order> view;
+
+    /**
+     * Sum of the amount of all Orders in the level
+     */
+    @Getter
+    private double totalAmount;
+
+    public PriceLevel(double price) {
+        this(price, 0);
+    }
+
+    /**
+     * Create a level presized for a number of Orders, so it is not rehashed while they are added, e.g. by a bulk load
+     *
+     * @param price
+     * @param expectedOrders
+     */
+    public PriceLevel(double price, int expectedOrders) {
+        this.price = price;
+        this.orders = expectedOrders > 0 ? new LinkedHashSet<>((int) (expectedOrders / 0.75f) + 1) : new LinkedHashSet<>();
+        this.view = Collections.unmodifiableSet(orders);
+    }
+
+    /**
+     * Add the Order to the tail of the level
+     *
+     * @param order
+     * @return
+     */
+    @Override
+    public boolean offer(Order order) {
+        if (!orders.add(order)) {
+            return false;
+        }
+        totalAmount += order.getAmount();
+        return true;
+    }
+
+    @Override
+    public Order poll() {
+        Order head = peek();
+        if (head != null) {
+            remove(head);
+        }
+        return head;
+    }
+
+    @Override
+    public Order peek() {
+        return orders.isEmpty() ? null : orders.iterator().next();
+    }
+
+    /**
+     * Remove an arbitrary Order from the level in O(1)
+     *
+     * @param o
+     * @return
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (!orders.remove(o)) {
+            return false;
+        }
+        totalAmount = orders.isEmpty() ? 0 : totalAmount - ((Order) o).getAmount();
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return orders.contains(o);
+    }
+
+    /**
+     * Change the amount of an Order of the level without changing its position in the queue
+     *
+     * @param order
+     * @param newAmount
+     */
+    public void updateAmount(Order order, double newAmount) {
+        totalAmount += newAmount - order.getAmount();
+        order.setAmount(newAmount);
+    }
+
+    /**
+     * Iterate the Orders in priority order. The iterator does not support removal, so the aggregated amount is
+     * always consistent
+     *
+     * @return
+     */
+    @Override
+    public Iterator<Order> iterator() {
+        return view.iterator();
+    }
+
+    @Override
+    public int size() {
+        return orders.size();
+    }
+}
@@ -0,0 +1,127 @@
+package com.bitso.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Journal of the messages sent to a client session, to resend them on request. The messages are stored append-only
+ * in memory-mapped files in the directory of the session:
+ * <ul>
+ *     <li>{@code outbound.log}: the messages as they were written to the socket, one after the other</li>
+ *     <li>{@code index.col}: the number of messages and the last sequence received from the client, then the offset
+ *     and length of each message by its sequence (16 bytes per entry)</li>
+ * </ul>
+ * A range of sequences is contiguous in the log, so it is resent with {@link FileChannel#transferTo} straight from
+ * the page cache to the socket, without copying it to the heap.
+ *
+ * @author Andres Ortiz
+ */
+public class SessionJournal implements Closeable {
+
+    private static final long INITIAL_MESSAGES = 64 * 1024;
+    private static final long INITIAL_BYTES = INITIAL_MESSAGES * 128;
+
+    private final TapeColumn log;
+    private final TapeColumn index;
+    private long size;
+    private long bytes;
+
+    /**
+     * Open the journal of a session, creating it if it does not exist
+     *
+     * @param root
+     * @param sessionName
+     * @throws IOException
+     */
+    public SessionJournal(Path root, String sessionName) throws IOException {
+        final Path directory = root.resolve(sessionName);
+        Files.createDirectories(directory);
+        this.log = new TapeColumn(directory.resolve("outbound.log"), 1, true, INITIAL_BYTES);
+        this.index = new TapeColumn(directory.resolve("index.col"), 16, true, INITIAL_MESSAGES);
+        this.size = index.getLong(0, 0);
+        this.bytes = size > 0 ? index.getLong(size, 0) + index.getLong(size, 8) : 0;
+    }
+
+    /**
+     * Append the remaining bytes of a message, without changing the position of the buffer
+     *
+     * @param message
+     * @return the sequence of the message
+     * @throws IOException
+     */
+    public long append(ByteBuffer message) throws IOException {
+        final long sequence = size + 1;
+        final int length = message.remaining();
+        log.ensureCapacity(bytes + length);
+        index.ensureCapacity(sequence + 1);
+        log.put(bytes, message);
+        index.putLong(sequence, 0, bytes);
+        index.putLong(sequence, 8, length);
+        index.putLong(0, 0, sequence);
+        bytes += length;
+        size = sequence;
+        return sequence;
+    }
+
+    /**
+     * Get the number of messages of the journal, which is the sequence of the last one
+     *
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Get the last sequence received from the client
+     *
+     * @return
+     */
+    public long getLastReceived() {
+        return index.getLong(0, 8);
+    }
+
+    public void setLastReceived(long sequence) {
+        index.putLong(0, 8, sequence);
+    }
+
+    /**
+     * Get the offset in the log of the first message of a range of sequences
+     *
+     * @param begin
+     * @return
+     */
+    public long getPosition(long begin) {
+        return index.getLong(begin, 0);
+    }
+
+    /**
+     * Get the number of bytes in the log of a range of sequences
+     *
+     * @param begin
+     * @param end
+     * @return
+     */
+    public long getLength(long begin, long end) {
+        return index.getLong(end, 0) + index.getLong(end, 8) - index.getLong(begin, 0);
+    }
+
+    /**
+     * Get the channel of the log, to transfer a range of messages to a socket
+     *
+     * @return
+     */
+    public FileChannel getChannel() {
+        return log.getChannel();
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+        index.close();
+    }
+}
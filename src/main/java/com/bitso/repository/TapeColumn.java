@@ -0,0 +1,112 @@
+package com.bitso.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Column of fixed width values of a {@link TradeTapeSegment} or a {@link SessionJournal}, stored in its own
+ * memory-mapped file.
+ * <p>
+ * A writable column maps more rows than it has, and doubles the mapping when it is full. A read-only column maps the
+ * whole file. The buffer is only used with absolute gets and puts, so readers in other threads do not share a position.
+ *
+ * @author Andres Ortiz
+ */
+final class TapeColumn implements Closeable {
+
+    private final FileChannel channel;
+    private final int width;
+    private final boolean writable;
+    private volatile MappedByteBuffer buffer;
+
+    TapeColumn(Path path, int width, boolean writable, long initialRows) throws IOException {
+        this.channel = writable
+                ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ);
+        this.width = width;
+        this.writable = writable;
+        final long size = writable ? Math.max(channel.size(), initialRows * width) : channel.size();
+        map(size);
+    }
+
+    /**
+     * Remap the column if it cannot hold the given number of rows
+     *
+     * @param rows
+     * @throws IOException
+     */
+    void ensureCapacity(long rows) throws IOException {
+        final long required = rows * width;
+        if (required > buffer.capacity()) {
+            if (required > Integer.MAX_VALUE) {
+                throw new IOException("Column full, max rows per segment: " + Integer.MAX_VALUE / width);
+            }
+            map(Math.min(Integer.MAX_VALUE, Math.max(required, 2L * buffer.capacity())));
+        }
+    }
+
+    long getLong(long row, int offset) {
+        return buffer.getLong((int) (row * width) + offset);
+    }
+
+    double getDouble(long row) {
+        return buffer.getDouble((int) (row * width));
+    }
+
+    byte getByte(long row) {
+        return buffer.get((int) (row * width));
+    }
+
+    void putLong(long row, int offset, long value) {
+        buffer.putLong((int) (row * width) + offset, value);
+    }
+
+    void putDouble(long row, double value) {
+        buffer.putDouble((int) (row * width), value);
+    }
+
+    void putByte(long row, byte value) {
+        buffer.put((int) (row * width), value);
+    }
+
+    /**
+     * Put the remaining bytes of a buffer from a row on, without changing its position
+     */
+    void put(long row, ByteBuffer src) {
+        buffer.put((int) (row * width), src, src.position(), src.remaining());
+    }
+
+    /**
+     * Get the channel of the file, e.g. to transfer its bytes to a socket without copying them to the heap
+     *
+     * @return
+     */
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Flush the changes of the mapping to the file
+     */
+    void force() {
+        if (writable) {
+            buffer.force();
+        }
+    }
+
+    private void map(long size) throws IOException {
+        //Mapping beyond the end of a writable file grows it
+        buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
@@ -0,0 +1,62 @@
+package com.bitso.repository;
+
+import com.bitso.model.Market;
+import com.bitso.model.Trade;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Persistent tape of the Trades executed, stored in columnar segments per Market per day, see {@link TradeTapeSegment}
+ *
+ * @author Andres Ortiz
+ */
+public interface TradeTapeRepository {
+
+    /**
+     * Append a Trade to the segment of its Market and day
+     *
+     * @param trade
+     */
+    void append(Trade trade);
+
+    /**
+     * Get the segment of a Market and day
+     *
+     * @param market
+     * @param day
+     * @return the segment or null if there are no Trades of that Market and day
+     * @throws IOException
+     */
+    TradeTapeSegment getSegment(Market market, LocalDate day) throws IOException;
+
+    /**
+     * Get the Trades of a Market executed in the time range {@code [from, to)}
+     *
+     * @param market
+     * @param from
+     * @param to
+     * @return
+     * @throws IOException
+     */
+    List<Trade> getTrades(Market market, Instant from, Instant to) throws IOException;
+
+    /**
+     * Volume-weighted average price of the Trades of a Market executed in the time range {@code [from, to)}.
+     * Only the timestamp, price and amount columns are scanned
+     *
+     * @param market
+     * @param from
+     * @param to
+     * @return the VWAP or NaN if there are no Trades in the range
+     * @throws IOException
+     */
+    double getVwap(Market market, Instant from, Instant to) throws IOException;
+
+    /**
+     * Flush and close all the segments
+     */
+    void close();
+}
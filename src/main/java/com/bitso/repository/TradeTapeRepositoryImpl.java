@@ -0,0 +1,158 @@
+package com.bitso.repository;
+
+import com.bitso.model.Market;
+import com.bitso.model.Trade;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.bitso.shared.Config.TRADE_TAPE_DIR;
+
+/**
+ * Implementation of {@link TradeTapeRepository}. Trades are appended by the matching thread to the segment of the
+ * current day of their Market, and queries can run in other threads.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class TradeTapeRepositoryImpl implements TradeTapeRepository {
+
+    private static final long NANOS_PER_DAY = 86_400_000_000_000L;
+
+    private static TradeTapeRepositoryImpl INSTANCE;
+
+    private final Path root;
+
+    /**
+     * Segments being appended, indexed by the id of their Market
+     */
+    private volatile TradeTapeSegment[] writers = new TradeTapeSegment[0];
+
+    /**
+     * Read-only segments of the past days already opened by a query, by Market id and day
+     */
+    private final Map<String, TradeTapeSegment> readers = new ConcurrentHashMap<>();
+
+    /**
+     * Get Singleton instance
+     *
+     * @return
+     */
+    public static TradeTapeRepositoryImpl getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new TradeTapeRepositoryImpl(Path.of(TRADE_TAPE_DIR != null ? TRADE_TAPE_DIR : "tape"));
+        }
+        return INSTANCE;
+    }
+
+    @Override
+    public void append(Trade trade) {
+        final Market market = trade.getMarket();
+        final long timestamp = TradeTapeSegment.toNanos(trade.getExecutedAt());
+        final LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(timestamp, NANOS_PER_DAY));
+        try {
+            if (market.getId() >= writers.length) {
+                writers = Arrays.copyOf(writers, market.getId() + 1);
+            }
+            TradeTapeSegment writer = writers[market.getId()];
+            if (writer == null || !writer.getDay().equals(day)) {
+                if (writer != null) {
+                    writer.close();
+                }
+                writer = new TradeTapeSegment(root, market, day, true);
+                writers[market.getId()] = writer;
+            }
+            writer.append(trade);
+        } catch (IOException e) {
+            //The tape is a record of the Trades, it must not stop the matching
+            log.error("Trade {} could not be appended to the tape", trade, e);
+        }
+    }
+
+    @Override
+    public TradeTapeSegment getSegment(Market market, LocalDate day) throws IOException {
+        final TradeTapeSegment[] writers = this.writers;
+        if (market.getId() < writers.length) {
+            final TradeTapeSegment writer = writers[market.getId()];
+            if (writer != null && writer.getDay().equals(day)) {
+                return writer;
+            }
+        }
+        final String key = market.getId() + "/" + day;
+        TradeTapeSegment segment = readers.get(key);
+        if (segment == null && TradeTapeSegment.exists(root, market, day)) {
+            segment = new TradeTapeSegment(root, market, day, false);
+            readers.put(key, segment);
+        }
+        return segment;
+    }
+
+    @Override
+    public List<Trade> getTrades(Market market, Instant from, Instant to) throws IOException {
+        List<Trade> trades = new ArrayList<>();
+        final long fromNanos = TradeTapeSegment.toNanos(from);
+        final long toNanos = TradeTapeSegment.toNanos(to);
+        for (long day = Math.floorDiv(fromNanos, NANOS_PER_DAY); day <= Math.floorDiv(toNanos - 1, NANOS_PER_DAY); day++) {
+            TradeTapeSegment segment = getSegment(market, LocalDate.ofEpochDay(day));
+            if (segment == null) {
+                continue;
+            }
+            final long end = segment.firstRow(toNanos);
+            for (long row = segment.firstRow(fromNanos); row < end; row++) {
+                trades.add(segment.getTrade(row));
+            }
+        }
+        return trades;
+    }
+
+    @Override
+    public double getVwap(Market market, Instant from, Instant to) throws IOException {
+        double notional = 0;
+        double volume = 0;
+        final long fromNanos = TradeTapeSegment.toNanos(from);
+        final long toNanos = TradeTapeSegment.toNanos(to);
+        for (long day = Math.floorDiv(fromNanos, NANOS_PER_DAY); day <= Math.floorDiv(toNanos - 1, NANOS_PER_DAY); day++) {
+            TradeTapeSegment segment = getSegment(market, LocalDate.ofEpochDay(day));
+            if (segment == null) {
+                continue;
+            }
+            final long end = segment.firstRow(toNanos);
+            for (long row = segment.firstRow(fromNanos); row < end; row++) {
+                final double amount = segment.getAmount(row);
+                notional += segment.getPrice(row) * amount;
+                volume += amount;
+            }
+        }
+        return volume > 0 ? notional / volume : Double.NaN;
+    }
+
+    @Override
+    public void close() {
+        List<TradeTapeSegment> segments = new ArrayList<>(readers.values());
+        segments.addAll(Arrays.asList(writers));
+        for (TradeTapeSegment segment : segments) {
+            try {
+                if (segment != null) {
+                    segment.close();
+                }
+            } catch (IOException e) {
+                log.error("Segment {} {} could not be closed", segment.getMarket(), segment.getDay(), e);
+            }
+        }
+        readers.clear();
+        writers = new TradeTapeSegment[0];
+    }
+
+    private TradeTapeRepositoryImpl(Path root) {
+        this.root = root;
+        log.info("Trade tape at {}", root.toAbsolutePath());
+    }
+}
@@ -0,0 +1,311 @@
+package com.bitso.repository;
+
+import com.bitso.model.Market;
+import com.bitso.model.OrderSide;
+import com.bitso.model.Trade;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Trades of a Market in a day (UTC), stored append-only in columns. Each column is its own memory-mapped file in the
+ * directory of the segment, so a query only maps and scans the columns it needs:
+ * <ul>
+ *     <li>{@code timestamp.col}: execution time in epoch nanoseconds (8 bytes)</li>
+ *     <li>{@code price.col} and {@code amount.col}: doubles (8 bytes)</li>
+ *     <li>{@code maker.col} and {@code taker.col}: Order ids as two longs (16 bytes)</li>
+ *     <li>{@code side.col}: side of the taker, 'B' or 'S' (1 byte)</li>
+ *     <li>{@code index.col}: the number of rows, then a sparse time index with the timestamp of one row every
+ *     {@link #INDEX_INTERVAL} rows (16 bytes per entry)</li>
+ * </ul>
+ * Timestamps never decrease along the segment, so a time range is found with a binary search of the sparse index and a
+ * scan of at most {@link #INDEX_INTERVAL} timestamps. The number of rows is written after the columns of a new row,
+ * so readers never see a partial row.
+ *
+ * @author Andres Ortiz
+ */
+public class TradeTapeSegment implements Closeable {
+
+    public static final int INDEX_INTERVAL = 4096;
+    private static final long INITIAL_ROWS = 64 * 1024;
+
+    @Getter
+    private final Market market;
+    @Getter
+    private final LocalDate day;
+    private final Path directory;
+    private final boolean writable;
+
+    private final TapeColumn index;
+    private TapeColumn timestamps;
+    private TapeColumn prices;
+    private TapeColumn amounts;
+    private TapeColumn makers;
+    private TapeColumn takers;
+    private TapeColumn sides;
+
+    private volatile long size;
+    private long indexEntries;
+    private long lastTimestamp;
+
+    /**
+     * Open the segment of a Market and day, creating it if it is writable
+     *
+     * @param root
+     * @param market
+     * @param day
+     * @param writable
+     * @throws IOException
+     */
+    public TradeTapeSegment(Path root, Market market, LocalDate day, boolean writable) throws IOException {
+        this.market = market;
+        this.day = day;
+        this.directory = root.resolve(market.getSymbol()).resolve(day.toString());
+        this.writable = writable;
+        if (writable) {
+            Files.createDirectories(directory);
+        }
+        this.index = new TapeColumn(directory.resolve("index.col"), 16, writable, INITIAL_ROWS / INDEX_INTERVAL + 1);
+        this.size = index.getLong(0, 0);
+        this.indexEntries = index.getLong(0, 8);
+        if (writable) {
+            timestamps();
+            prices();
+            amounts();
+            makers();
+            takers();
+            sides();
+            lastTimestamp = size > 0 ? timestamps.getLong(size - 1, 0) : Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Check if a segment exists in the tape
+     *
+     * @param root
+     * @param market
+     * @param day
+     * @return
+     */
+    public static boolean exists(Path root, Market market, LocalDate day) {
+        return Files.exists(root.resolve(market.getSymbol()).resolve(day.toString()).resolve("index.col"));
+    }
+
+    /**
+     * Append a Trade. A timestamp older than the last one (e.g. the wall clock was adjusted) is stored as the last one,
+     * to keep the column sorted
+     *
+     * @param trade
+     * @throws IOException
+     */
+    public void append(Trade trade) throws IOException {
+        final long row = size;
+        final long timestamp = Math.max(toNanos(trade.getExecutedAt()), lastTimestamp);
+        ensureCapacity(row + 1);
+        timestamps.putLong(row, 0, timestamp);
+        prices.putDouble(row, trade.getPrice());
+        amounts.putDouble(row, trade.getAmount());
+        makers.putLong(row, 0, trade.getMakerOrderId().getMostSignificantBits());
+        makers.putLong(row, 8, trade.getMakerOrderId().getLeastSignificantBits());
+        takers.putLong(row, 0, trade.getTakerOrderId().getMostSignificantBits());
+        takers.putLong(row, 8, trade.getTakerOrderId().getLeastSignificantBits());
+        sides.putByte(row, (byte) (trade.getTakerSide() == OrderSide.BUY ? 'B' : 'S'));
+        if (row % INDEX_INTERVAL == 0) {
+            index.ensureCapacity(indexEntries + 2);
+            index.putLong(indexEntries + 1, 0, timestamp);
+            index.putLong(indexEntries + 1, 8, row);
+            index.putLong(0, 8, ++indexEntries);
+        }
+        lastTimestamp = timestamp;
+        index.putLong(0, 0, row + 1);
+        size = row + 1;
+    }
+
+    /**
+     * Get the number of Trades of the segment
+     *
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Find the first row with a timestamp at or after the given time, {@link #size()} if there is none.
+     * The rows of a range {@code [from, to)} are {@code [firstRow(from), firstRow(to))}
+     *
+     * @param epochNanos
+     * @return
+     * @throws IOException
+     */
+    public long firstRow(long epochNanos) throws IOException {
+        final long size = this.size;
+        //Last index entry before the time: all the rows before it are before the time as well
+        long low = 1;
+        long high = Math.min(indexEntries, (size + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+        long start = 0;
+        while (low <= high) {
+            final long mid = (low + high) >>> 1;
+            if (index.getLong(mid, 0) < epochNanos) {
+                start = index.getLong(mid, 8);
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        final TapeColumn timestamps = timestamps();
+        long row = start;
+        while (row < size && timestamps.getLong(row, 0) < epochNanos) {
+            row++;
+        }
+        return row;
+    }
+
+    public long getTimestamp(long row) throws IOException {
+        return timestamps().getLong(row, 0);
+    }
+
+    public double getPrice(long row) throws IOException {
+        return prices().getDouble(row);
+    }
+
+    public double getAmount(long row) throws IOException {
+        return amounts().getDouble(row);
+    }
+
+    public UUID getMakerOrderId(long row) throws IOException {
+        final TapeColumn makers = makers();
+        return new UUID(makers.getLong(row, 0), makers.getLong(row, 8));
+    }
+
+    public UUID getTakerOrderId(long row) throws IOException {
+        final TapeColumn takers = takers();
+        return new UUID(takers.getLong(row, 0), takers.getLong(row, 8));
+    }
+
+    public OrderSide getTakerSide(long row) throws IOException {
+        return sides().getByte(row) == 'B' ? OrderSide.BUY : OrderSide.SELL;
+    }
+
+    /**
+     * Visit the price, amount and taker side of the rows {@code [from, to)}, getting those three columns once instead of
+     * once per row. Disjoint ranges can be scanned by many threads at the same time
+     *
+     * @param from
+     * @param to
+     * @param visitor
+     * @throws IOException
+     */
+    public void scan(long from, long to, RowVisitor visitor) throws IOException {
+        final TapeColumn prices = prices();
+        final TapeColumn amounts = amounts();
+        final TapeColumn sides = sides();
+        for (long row = from; row < to; row++) {
+            visitor.visit(prices.getDouble(row), amounts.getDouble(row), sides.getByte(row) == 'B' ? OrderSide.BUY : OrderSide.SELL);
+        }
+    }
+
+    /**
+     * Visitor of the rows of a {@link #scan(long, long, RowVisitor)}
+     */
+    @FunctionalInterface
+    public interface RowVisitor {
+        void visit(double price, double amount, OrderSide takerSide);
+    }
+
+    /**
+     * Rebuild the Trade of a row, reading all the columns
+     *
+     * @param row
+     * @return
+     * @throws IOException
+     */
+    public Trade getTrade(long row) throws IOException {
+        final long timestamp = getTimestamp(row);
+        return Trade.builder()
+                .market(market)
+                .price(getPrice(row))
+                .amount(getAmount(row))
+                .takerSide(getTakerSide(row))
+                .makerOrderId(getMakerOrderId(row))
+                .takerOrderId(getTakerOrderId(row))
+                .executedAt(Instant.ofEpochSecond(0, timestamp))
+                .build();
+    }
+
+    public static long toNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private void ensureCapacity(long rows) throws IOException {
+        timestamps.ensureCapacity(rows);
+        prices.ensureCapacity(rows);
+        amounts.ensureCapacity(rows);
+        makers.ensureCapacity(rows);
+        takers.ensureCapacity(rows);
+        sides.ensureCapacity(rows);
+    }
+
+    //The columns of a read-only segment are mapped on first use
+
+    private synchronized TapeColumn timestamps() throws IOException {
+        if (timestamps == null) {
+            timestamps = column("timestamp.col", 8);
+        }
+        return timestamps;
+    }
+
+    private synchronized TapeColumn prices() throws IOException {
+        if (prices == null) {
+            prices = column("price.col", 8);
+        }
+        return prices;
+    }
+
+    private synchronized TapeColumn amounts() throws IOException {
+        if (amounts == null) {
+            amounts = column("amount.col", 8);
+        }
+        return amounts;
+    }
+
+    private synchronized TapeColumn makers() throws IOException {
+        if (makers == null) {
+            makers = column("maker.col", 16);
+        }
+        return makers;
+    }
+
+    private synchronized TapeColumn takers() throws IOException {
+        if (takers == null) {
+            takers = column("taker.col", 16);
+        }
+        return takers;
+    }
+
+    private synchronized TapeColumn sides() throws IOException {
+        if (sides == null) {
+            sides = column("side.col", 1);
+        }
+        return sides;
+    }
+
+    private TapeColumn column(String name, int width) throws IOException {
+        return new TapeColumn(directory.resolve(name), width, writable, INITIAL_ROWS);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (TapeColumn column : new TapeColumn[]{timestamps, prices, amounts, makers, takers, sides, index}) {
+            if (column != null) {
+                column.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.bitso.services;
+
+import com.bitso.model.Candle;
+import com.bitso.model.CandleInterval;
+import com.bitso.model.Market;
+import com.bitso.model.Trade;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import static com.bitso.shared.Config.CANDLE_HISTORY;
+
+/**
+ * Incremental aggregation of the Trades executed into OHLCV candles of each {@link CandleInterval} and a running VWAP
+ * per Market.
+ * <p>
+ * The candles of a Market and interval are kept in a ring of {@link com.bitso.shared.Config#CANDLE_HISTORY} slots of
+ * primitive arrays, indexed by the number of the interval since the epoch. A Trade updates one slot per interval in
+ * O(1) without allocating; a slot left by an older interval is reset when it is reused, and intervals without Trades
+ * have no candle. Readers use optimistic reads of a {@link StampedLock}, so polling does not block the matching thread.
+ *
+ * @author Andres Ortiz
+ */
+public class CandleAggregator implements TradeListener {
+
+    private static CandleAggregator INSTANCE;
+
+    /**
+     * Candles and VWAP indexed by the id of the Market
+     */
+    private volatile Series[] series = new Series[0];
+
+    /**
+     * Get Singleton instance
+     *
+     * @return
+     */
+    public static CandleAggregator getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new CandleAggregator();
+        }
+        return INSTANCE;
+    }
+
+    @Override
+    public void onTrade(Trade trade) {
+        final Market market = trade.getMarket();
+        Series[] series = this.series;
+        if (market.getId() >= series.length) {
+            series = Arrays.copyOf(series, market.getId() + 1);
+            this.series = series;
+        }
+        if (series[market.getId()] == null) {
+            series[market.getId()] = new Series();
+        }
+        series[market.getId()].onTrade(trade.getExecutedAt().toEpochMilli(), trade.getPrice(), trade.getAmount());
+    }
+
+    /**
+     * Get the most recent candles of a Market, oldest first. Only the intervals with Trades have a candle
+     *
+     * @param market
+     * @param interval
+     * @param count max number of intervals to look back from the last Trade, up to the history kept
+     * @return
+     */
+    public List<Candle> getCandles(Market market, CandleInterval interval, int count) {
+        final Series series = series(market);
+        if (series == null) {
+            return Collections.emptyList();
+        }
+        final Ring ring = series.rings[interval.ordinal()];
+        final StampedLock lock = series.lock;
+        long stamp = lock.tryOptimisticRead();
+        List<Candle> candles = ring.read(market, interval, count);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                candles = ring.read(market, interval, count);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return candles;
+    }
+
+    /**
+     * Get the volume-weighted average price of all the Trades of a Market since the start of the Exchange
+     *
+     * @param market
+     * @return the VWAP or NaN if the Market has no Trades
+     */
+    public double getVwap(Market market) {
+        final Series series = series(market);
+        if (series == null) {
+            return Double.NaN;
+        }
+        final StampedLock lock = series.lock;
+        long stamp = lock.tryOptimisticRead();
+        double notional = series.notional;
+        double volume = series.volume;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                notional = series.notional;
+                volume = series.volume;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return volume > 0 ? notional / volume : Double.NaN;
+    }
+
+    private Series series(Market market) {
+        final Series[] series = this.series;
+        return market.getId() >= 0 && market.getId() < series.length ? series[market.getId()] : null;
+    }
+
+    /**
+     * Candles of every interval and the running VWAP of a Market
+     */
+    private static final class Series {
+
+        private final StampedLock lock = new StampedLock();
+        private final Ring[] rings = new Ring[CandleInterval.values().length];
+        private double notional;
+        private double volume;
+
+        private Series() {
+            for (CandleInterval interval : CandleInterval.values()) {
+                rings[interval.ordinal()] = new Ring(interval.getMillis(), CANDLE_HISTORY);
+            }
+        }
+
+        private void onTrade(long timeMillis, double price, double amount) {
+            final long stamp = lock.writeLock();
+            try {
+                notional += price * amount;
+                volume += amount;
+                for (Ring ring : rings) {
+                    ring.onTrade(timeMillis, price, amount);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Fixed-size ring of the candles of an interval, one slot per interval number modulo the capacity
+     */
+    private static final class Ring {
+
+        private final long intervalMillis;
+        private final long[] numbers;
+        private final double[] open;
+        private final double[] high;
+        private final double[] low;
+        private final double[] close;
+        private final double[] volume;
+        private final double[] notional;
+        private final int[] trades;
+        private long lastNumber = -1;
+
+        private Ring(long intervalMillis, int capacity) {
+            this.intervalMillis = intervalMillis;
+            this.numbers = new long[capacity];
+            this.open = new double[capacity];
+            this.high = new double[capacity];
+            this.low = new double[capacity];
+            this.close = new double[capacity];
+            this.volume = new double[capacity];
+            this.notional = new double[capacity];
+            this.trades = new int[capacity];
+            Arrays.fill(numbers, -1);
+        }
+
+        private void onTrade(long timeMillis, double price, double amount) {
+            final long number = timeMillis / intervalMillis;
+            final int slot = (int) (number % numbers.length);
+            if (numbers[slot] != number) {
+                numbers[slot] = number;
+                open[slot] = price;
+                high[slot] = price;
+                low[slot] = price;
+                volume[slot] = 0;
+                notional[slot] = 0;
+                trades[slot] = 0;
+            }
+            high[slot] = Math.max(high[slot], price);
+            low[slot] = Math.min(low[slot], price);
+            close[slot] = price;
+            volume[slot] += amount;
+            notional[slot] += price * amount;
+            trades[slot]++;
+            lastNumber = Math.max(lastNumber, number);
+        }
+
+        private List<Candle> read(Market market, CandleInterval interval, int count) {
+            final long last = lastNumber;
+            if (last < 0) {
+                return Collections.emptyList();
+            }
+            final long first = Math.max(0, last - Math.min(count, numbers.length) + 1);
+            List<Candle> candles = new ArrayList<>();
+            for (long number = first; number <= last; number++) {
+                final int slot = (int) (number % numbers.length);
+                if (numbers[slot] != number) {
+                    continue;
+                }
+                candles.add(Candle.builder()
+                        .market(market)
+                        .interval(interval)
+                        .startTime(Instant.ofEpochMilli(number * intervalMillis))
+                        .open(open[slot])
+                        .high(high[slot])
+                        .low(low[slot])
+                        .close(close[slot])
+                        .volume(volume[slot])
+                        .vwap(volume[slot] > 0 ? notional[slot] / volume[slot] : Double.NaN)
+                        .trades(trades[slot])
+                        .build());
+            }
+            return candles;
+        }
+    }
+
+    private CandleAggregator() {
+    }
+}
@@ -0,0 +1,110 @@
+package com.bitso.services;
+
+import lombok.extern.slf4j.Slf4j;
+
+import static com.bitso.shared.Config.VECTOR_EP;
+
+/**
+ * Kernel of the Equilibrium mid-market price (EP): the cumulative discounted volume of one side of an OrderBook at
+ * its best price, for many half-lives at once.
+ * <p>
+ * The volumes of the levels are given as a primitive array from the best price, and each half-life as its decay factor
+ * per level {@code f = 0.5^(1/halfLife)}, so the discounted volume is {@code sum(volume[k] * f^k)}. It is evaluated
+ * with Horner's rule from the last level, one multiply-add per level and half-life, instead of a {@code Math.pow} per
+ * level.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public abstract class DiscountedVolume {
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final double LOG_2 = Math.log(2);
+    private static DiscountedVolume INSTANCE;
+
+    /**
+     * Get the vectorized kernel (SIMD lanes over the half-lives) when the JVM is started with
+     * {@code --add-modules jdk.incubator.vector}, or the scalar one otherwise or with {@code -DvectorEp=false}
+     *
+     * @return
+     */
+    public static DiscountedVolume getInstance() {
+        if (INSTANCE == null) {
+            if (VECTOR_EP && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+                INSTANCE = new VectorDiscountedVolume();
+            } else {
+                INSTANCE = new ScalarDiscountedVolume();
+            }
+            log.info("Equilibrium price kernel: {}", INSTANCE.getClass().getSimpleName());
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Compute the discounted volume of one side for each decay factor
+     *
+     * @param volumes volumes of the levels, from the best price
+     * @param levels  number of levels in {@code volumes}
+     * @param factors decay factor per level of each half-life
+     * @param result  discounted volume of each half-life, same length as {@code factors}
+     */
+    public abstract void sum(double[] volumes, int levels, double[] factors, double[] result);
+
+    /**
+     * Get the decay factor per level of each half-life, {@code 0.5^(1/halfLife)}
+     *
+     * @param halfLives
+     * @return
+     */
+    public static double[] factors(double[] halfLives) {
+        double[] factors = new double[halfLives.length];
+        for (int j = 0; j < halfLives.length; j++) {
+            factors[j] = Math.pow(0.5, 1 / halfLives[j]);
+        }
+        return factors;
+    }
+
+    /**
+     * Solve the Equilibrium mid-market price of each half-life from the discounted volumes of both sides
+     *
+     * @param bestBid
+     * @param bestAsk
+     * @param bidSums   discounted volume of the bids of each half-life
+     * @param askSums   discounted volume of the asks of each half-life
+     * @param halfLives
+     * @param result    EP of each half-life
+     */
+    public static void equilibriumPrices(double bestBid, double bestAsk, double[] bidSums, double[] askSums,
+                                         double[] halfLives, double[] result) {
+        /*
+            Same equation as OrderBookService.getEquilibriumMidMarketPrice: with Vb and Va the discounted volumes at
+            the best bid Pb and the best ask Pa, and f=0.5^(1/h), a1=Vb*f^(-Pb), a2=Va*f^(Pa) and b1=b2=1/f, so
+            x = Math.log(a1/a2) / Math.log(b2*b1) = (Pb+Pa)/2 + h*Math.log(Vb/Va)/(2*Math.log(2)),
+            which does not overflow the powers of the prices
+         */
+        final double mid = (bestBid + bestAsk) / 2;
+        for (int j = 0; j < halfLives.length; j++) {
+            result[j] = mid + halfLives[j] * Math.log(bidSums[j] / askSums[j]) / (2 * LOG_2);
+        }
+    }
+
+    /**
+     * Scalar Horner's rule for the half-lives from {@code from}, also the tail of the vectorized kernel
+     *
+     * @param volumes
+     * @param levels
+     * @param factors
+     * @param result
+     * @param from
+     */
+    static void sumScalar(double[] volumes, int levels, double[] factors, double[] result, int from) {
+        for (int j = from; j < factors.length; j++) {
+            final double factor = factors[j];
+            double sum = 0;
+            for (int k = levels - 1; k >= 0; k--) {
+                sum = Math.fma(sum, factor, volumes[k]);
+            }
+            result[j] = sum;
+        }
+    }
+}
@@ -1,12 +1,30 @@
 package com.bitso.services;
 
+import com.bitso.model.Market;
 import com.bitso.model.Order;
+import com.bitso.model.OrderSide;
+import com.bitso.model.Trade;
+import com.bitso.model.TimeInForce;
+import com.bitso.model.TradingPhase;
+import com.bitso.repository.OrderBook;
 import com.bitso.repository.OrderBookRepository;
 import com.bitso.repository.OrderBookRepositoryImpl;
+import com.bitso.repository.PriceLevel;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
- * Matching Engine in charge to execute trades and update the LOB
+ * Matching Engine in charge to execute trades and update the LOB. Each Market is either matched continuously or
+ * collects its Orders in a call auction, uncrossed in one pass, see {@link TradingPhase}.
+ * <p>
+ * Stop Orders wait in the trigger indexes of their OrderBook. The Trades of an execution trigger the stops their
+ * prices cross, which are executed right after it as new incoming Orders, in the same call, and may trigger others
  *
  * @author Andres Ortiz
  */
@@ -15,6 +33,19 @@ public class MatchingEngine {
 
     private static MatchingEngine INSTANCE;
     private final OrderBookRepository orderBookRepository = OrderBookRepositoryImpl.getInstance();
+    private final RiskEngine riskEngine = RiskEngine.getInstance();
+    private final List<TradeListener> tradeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Trading phase of each Market indexed by its id, null until the Market is first used. Markets matched by
+     * periodic call auctions start in {@link TradingPhase#AUCTION}
+     */
+    private TradingPhase[] phases = new TradingPhase[0];
+
+    /**
+     * Stop Orders triggered and waiting to be executed, in trigger order
+     */
+    private final ArrayDeque<Order> triggered = new ArrayDeque<>();
 
     /**
      * Get Singleton instance
@@ -29,14 +60,260 @@ public class MatchingEngine {
     }
 
     /**
-     * Execute the Trade trying to fill the Order in the OrderBook
+     * Register a listener of the Trades executed
+     *
+     * @param listener
+     */
+    public void addTradeListener(TradeListener listener) {
+        tradeListeners.add(listener);
+    }
+
+    /**
+     * Unregister a listener of the Trades executed
+     *
+     * @param listener
+     */
+    public void removeTradeListener(TradeListener listener) {
+        tradeListeners.remove(listener);
+    }
+
+    /**
+     * Execute the Trade trying to fill the Order in the OrderBook.
+     * <p>
+     * The Order is matched first and only its remaining amount is added to the OrderBook, if the Order can rest
+     * (LIMIT and GTC). MARKET and IOC Orders cancel their remaining amount, and FOK Orders are cancelled without any
+     * fill when the OrderBook does not have enough volume to fill them completely.
+     *
      * @param order
-     * @return
+     * @return true if the Order was filled partially or totally, otherwise false
      */
     public synchronized boolean executeTrade(Order order) {
+        final boolean result = execute(order);
+        executeTriggered();
+        return result;
+    }
+
+    /**
+     * Execute the stop Orders triggered, including the ones triggered by their own Trades
+     */
+    private void executeTriggered() {
+        while (!triggered.isEmpty()) {
+            execute(triggered.poll());
+        }
+    }
+
+    private boolean execute(Order order) {
         log.info("Executing new incoming Trade: {}", order);
-        boolean result = orderBookRepository.fillOrder(order);
+        if (order.isStop() && !trigger(order)) {
+            return false;
+        }
+        if (getPhase(order.getMarket()) == TradingPhase.AUCTION) {
+            collect(order);
+            return false;
+        }
+        if (order.getTimeInForce() == TimeInForce.FOK && !orderBookRepository.canFill(order)) {
+            log.info("FOK Order {} was killed, there is not enough volume to fill it", order.getId());
+            return false;
+        }
+        List<Trade> trades = orderBookRepository.fillOrder(order);
+        for (Trade trade : trades) {
+            riskEngine.onTrade(trade);
+            for (TradeListener listener : tradeListeners) {
+                listener.onTrade(trade);
+            }
+        }
+        final boolean result = !trades.isEmpty();
         log.info("Result of filling of {}: {}", order.getId(), result);
+        if (result) {
+            //The Trades of a sweep go away from the best price, so the first and last ones bound the prices crossed
+            final double firstPrice = trades.get(0).getPrice();
+            final double lastPrice = trades.get(trades.size() - 1).getPrice();
+            triggerStops(order.getMarket(), Math.min(firstPrice, lastPrice), Math.max(firstPrice, lastPrice));
+        }
+        if (order.getAmount() > 0) {
+            if (order.canRest()) {
+                orderBookRepository.add(order);
+                riskEngine.onRest(order);
+            } else {
+                log.info("Remaining amount {} of {} {} Order {} was cancelled", order.getAmount(), order.getType(), order.getTimeInForce(), order.getId());
+            }
+        }
         return result;
     }
+
+    /**
+     * Amend the price and/or the amount of a resting Order as an atomic cancel-replace.
+     * <p>
+     * When the new price crosses the other side of the market, the Order is taken out of the OrderBook and executed
+     * as a new incoming Trade, so its remaining amount rests at the tail of the new level. Otherwise the Order is
+     * amended in place in the OrderBook.
+     *
+     * @param order     Order resting in the OrderBook
+     * @param newPrice
+     * @param newAmount
+     */
+    public synchronized void amendOrder(Order order, double newPrice, double newAmount) {
+        if (newPrice != order.getPrice() && !order.isStop() && getPhase(order.getMarket()) == TradingPhase.CONTINUOUS && crosses(order, newPrice)) {
+            log.info("New price {} of Order {} crosses the market", newPrice, order.getId());
+            orderBookRepository.detach(order);
+            riskEngine.onCancel(order);
+            order.setPrice(newPrice);
+            order.setAmount(newAmount);
+            executeTrade(order);
+        } else {
+            final double oldPrice = order.getPrice();
+            final double oldAmount = order.getAmount();
+            orderBookRepository.amend(order, newPrice, newAmount);
+            riskEngine.onAmend(order, oldPrice, oldAmount);
+        }
+    }
+
+    /**
+     * Get the trading phase of a Market
+     *
+     * @param market
+     * @return
+     */
+    public synchronized TradingPhase getPhase(Market market) {
+        final int id = market.getId();
+        if (id < 0) {
+            return TradingPhase.CONTINUOUS;
+        }
+        if (id >= phases.length) {
+            phases = Arrays.copyOf(phases, id + 1);
+        }
+        if (phases[id] == null) {
+            phases[id] = market.getAuctionSeconds() > 0 ? TradingPhase.AUCTION : TradingPhase.CONTINUOUS;
+        }
+        return phases[id];
+    }
+
+    /**
+     * Set the trading phase of a Market, e.g. an auction for the open or a halt, and continuous matching for the
+     * (re)open. A call auction in progress is uncrossed first, so setting {@link TradingPhase#AUCTION} again uncrosses
+     * the Orders collected and starts a new call, as periodic call auctions do
+     *
+     * @param market
+     * @param phase
+     * @return the Trades executed by the uncrossing, empty if there was no auction or it did not cross
+     */
+    public synchronized List<Trade> setPhase(Market market, TradingPhase phase) {
+        if (market.getId() < 0) {
+            return Collections.emptyList();
+        }
+        final TradingPhase previous = getPhase(market);
+        final List<Trade> trades = previous == TradingPhase.AUCTION ? uncross(market) : Collections.emptyList();
+        phases[market.getId()] = phase;
+        if (previous != phase) {
+            log.info("Market {} in {} phase", market, phase);
+        }
+        executeTriggered();
+        return trades;
+    }
+
+    /**
+     * Collect an Order in the call auction of its Market without matching it. Only Orders that can rest take part in
+     * an auction, the rest are cancelled
+     *
+     * @param order
+     */
+    private void collect(Order order) {
+        if (!order.canRest()) {
+            log.info("{} {} Order {} was cancelled, only LIMIT GTC Orders take part in the auction of {}", order.getType(), order.getTimeInForce(), order.getId(), order.getMarket());
+            return;
+        }
+        orderBookRepository.add(order);
+        riskEngine.onRest(order);
+        log.info("Order {} collected in the auction of {}", order.getId(), order.getMarket());
+    }
+
+    /**
+     * Uncross the call auction of a Market in one pass: find the price that executes the most volume from the
+     * aggregated amounts of the crossed levels, then execute all the crossed Orders at that price. Instead of one
+     * sweep of the OrderBook per incoming Order, a burst of Orders is matched once
+     *
+     * @param market
+     * @return the Trades executed
+     */
+    private List<Trade> uncross(Market market) {
+        OrderBook orderBook = orderBookRepository.getOrderBook(market);
+        final double price = orderBook != null ? orderBook.getUncrossingPrice() : Double.NaN;
+        if (Double.isNaN(price)) {
+            log.info("Auction of {} does not cross", market);
+            return Collections.emptyList();
+        }
+        //The resting notional of the crossed Orders is accounted again after the uncrossing, at their own prices
+        List<Order> crossed = orderBook.getCrossedOrders(price);
+        crossed.forEach(riskEngine::onCancel);
+        List<Trade> trades = orderBookRepository.uncross(market, price);
+        for (Order order : crossed) {
+            if (order.getAmount() > 0) {
+                riskEngine.onRest(order);
+            }
+        }
+        double volume = 0;
+        for (Trade trade : trades) {
+            volume += trade.getAmount();
+            for (TradeListener listener : tradeListeners) {
+                listener.onTrade(trade);
+            }
+        }
+        log.info("Auction of {} uncrossed at price $ {}, {} Trades, Volume {}", market, price, trades.size(), volume);
+        if (!trades.isEmpty()) {
+            triggerStops(market, price, price);
+        }
+        return trades;
+    }
+
+    /**
+     * Check a new stop Order against the last Trade price of its Market: it is executed right away as a plain Order if
+     * that price already triggers it, otherwise it waits in the trigger index
+     *
+     * @param order
+     * @return true if the Order was triggered and must be executed
+     */
+    private boolean trigger(Order order) {
+        OrderBook orderBook = orderBookRepository.getOrderBook(order.getMarket());
+        if (orderBook != null && order.isTriggeredBy(orderBook.getLastTradePrice())) {
+            log.info("Stop Order {} triggered on arrival by the last price $ {}", order.getId(), orderBook.getLastTradePrice());
+            order.setStopPrice(0);
+            return true;
+        }
+        orderBookRepository.add(order);
+        riskEngine.onRest(order);
+        log.info("Stop Order {} waiting for the price $ {}", order.getId(), order.getStopPrice());
+        return false;
+    }
+
+    /**
+     * Queue the stop Orders triggered by Trades between two prices to be executed in this same call
+     *
+     * @param market
+     * @param lowPrice
+     * @param highPrice
+     */
+    private void triggerStops(Market market, double lowPrice, double highPrice) {
+        for (Order order : orderBookRepository.triggerStops(market, lowPrice, highPrice)) {
+            log.info("Stop Order {} triggered by a Trade between $ {} and $ {}", order.getId(), lowPrice, highPrice);
+            riskEngine.onCancel(order);
+            triggered.add(order);
+        }
+    }
+
+    /**
+     * Check if an Order at a given price would cross the best price of the other side of the market
+     *
+     * @param order
+     * @param price
+     * @return
+     */
+    private boolean crosses(Order order, double price) {
+        OrderBook orderBook = orderBookRepository.getOrderBook(order.getMarket());
+        ConcurrentNavigableMap<Double, PriceLevel> otherSide = order.getSide() == OrderSide.BUY ? orderBook.getAskOrders() : orderBook.getBidOrders();
+        if (otherSide.isEmpty()) {
+            return false;
+        }
+        final double bestPrice = otherSide.firstKey();
+        return order.getSide() == OrderSide.BUY ? bestPrice <= price : bestPrice >= price;
+    }
 }
@@ -1,8 +1,13 @@
 package com.bitso.services;
 
+import com.bitso.model.Candle;
+import com.bitso.model.CandleInterval;
+import com.bitso.model.DepthSnapshot;
+import com.bitso.model.DepthType;
 import com.bitso.model.Market;
 import com.bitso.model.Order;
 
+import java.util.List;
 import java.util.Queue;
 
 /**
@@ -43,6 +48,18 @@ public interface OrderBookService {
      */
     void printOrderBook(Market market);
 
+    /**
+     * Fill the given {@link DepthSnapshot} with the top {@code depth} price levels ({@link DepthType#L2}) or the top
+     * {@code depth} Orders ({@link DepthType#L3}) of each side of a {@link Market}.
+     * Only the requested entries are visited, the rest of the OrderBook is not copied.
+     *
+     * @param market
+     * @param depthType
+     * @param depth
+     * @param snapshot reusable snapshot to fill
+     */
+    void getDepth(Market market, DepthType depthType, int depth, DepthSnapshot snapshot);
+
     /**
      * Calculate the equilibrium mid-market price (EP) which is the equilibrium price of cumulative discounted total
      * volume functions of bid and ask side of a {@link Market} given a {@code halfLife}
@@ -52,4 +69,42 @@ public interface OrderBookService {
      * @return
      */
     double getEquilibriumMidMarketPrice(Market market, double halfLife);
+
+    /**
+     * Calculate the equilibrium mid-market price (EP) of a {@link Market} for many half-lives in one pass over the
+     * OrderBook, see {@link #getEquilibriumMidMarketPrice(Market, double)}
+     *
+     * @param market
+     * @param halfLives
+     * @return the EP of each half-life, NaN if a side of the OrderBook is empty
+     */
+    double[] getEquilibriumMidMarketPrices(Market market, double[] halfLives);
+
+    /**
+     * Calculate the equilibrium mid-market price (EP) of many {@link Market}s for many half-lives
+     *
+     * @param markets
+     * @param halfLives
+     * @return the EPs of each Market, in the order of {@code markets}
+     */
+    double[][] getEquilibriumMidMarketPrices(List<Market> markets, double[] halfLives);
+
+    /**
+     * Get the most recent OHLCV candles of a {@link Market}, oldest first, aggregated from the Trades as they are
+     * executed. Only the intervals with Trades have a candle
+     *
+     * @param market
+     * @param interval
+     * @param count max number of intervals to look back from the last Trade
+     * @return
+     */
+    List<Candle> getCandles(Market market, CandleInterval interval, int count);
+
+    /**
+     * Get the volume-weighted average price of all the Trades of a {@link Market}
+     *
+     * @param market
+     * @return the VWAP or NaN if the Market has no Trades
+     */
+    double getVwap(Market market);
 }
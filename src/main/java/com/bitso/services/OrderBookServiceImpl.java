@@ -1,17 +1,25 @@
 package com.bitso.services;
 
+import com.bitso.model.Candle;
+import com.bitso.model.CandleInterval;
+import com.bitso.model.DepthSnapshot;
+import com.bitso.model.DepthType;
 import com.bitso.model.Market;
 import com.bitso.model.Order;
 import com.bitso.model.OrderSide;
 import com.bitso.repository.OrderBook;
 import com.bitso.repository.OrderBookRepository;
 import com.bitso.repository.OrderBookRepositoryImpl;
+import com.bitso.repository.PriceLevel;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
 
 /**
  * Implementation of {@link OrderBookService}
@@ -23,6 +31,8 @@ public class OrderBookServiceImpl implements OrderBookService {
 
     private static OrderBookServiceImpl INSTANCE;
     private final OrderBookRepository orderBookRepository = OrderBookRepositoryImpl.getInstance();
+    private final CandleAggregator candleAggregator = CandleAggregator.getInstance();
+    private final DiscountedVolume discountedVolume = DiscountedVolume.getInstance();
 
     /**
      * Get Singleton instance
@@ -57,12 +67,37 @@ public class OrderBookServiceImpl implements OrderBookService {
         log.debug("--OrderBook Map");
         OrderBook orderBook = orderBookRepository.getOrderBook(market);
         log.debug("----Market: {}", market);
+        if (orderBook == null) {
+            return;
+        }
         log.debug("------Ask Orders:");
         printSide(orderBook.getAskOrders());
         log.debug("------Bid Orders:");
         printSide(orderBook.getBidOrders());
     }
 
+    @Override
+    public void getDepth(Market market, DepthType depthType, int depth, DepthSnapshot snapshot) {
+        snapshot.reset(market, depthType);
+        OrderBook orderBook = orderBookRepository.getOrderBook(market);
+        if (orderBook == null) {
+            return;
+        }
+        final int limit = Math.max(0, Math.min(depth, snapshot.getCapacity()));
+        fillDepth(orderBook.getBidOrders(), OrderSide.BUY, depthType, limit, snapshot);
+        fillDepth(orderBook.getAskOrders(), OrderSide.SELL, depthType, limit, snapshot);
+    }
+
+    @Override
+    public List<Candle> getCandles(Market market, CandleInterval interval, int count) {
+        return candleAggregator.getCandles(market, interval, count);
+    }
+
+    @Override
+    public double getVwap(Market market) {
+        return candleAggregator.getVwap(market);
+    }
+
     @Override
     public double getEquilibriumMidMarketPrice(Market market, double halfLife) {
         OrderBook orderBook = orderBookRepository.getOrderBook(market);
@@ -88,6 +123,63 @@ public class OrderBookServiceImpl implements OrderBookService {
         return Math.log(expDecayValues[0] / expGrowthValues[0]) / Math.log(expGrowthValues[1] * expDecayValues[1]);
     }
 
+    @Override
+    public double[] getEquilibriumMidMarketPrices(Market market, double[] halfLives) {
+        return getEquilibriumMidMarketPrices(List.of(market), halfLives)[0];
+    }
+
+    @Override
+    public double[][] getEquilibriumMidMarketPrices(List<Market> markets, double[] halfLives) {
+        final int count = halfLives.length;
+        final double[] factors = DiscountedVolume.factors(halfLives);
+        double[][] prices = new double[markets.size()][count];
+        LevelVolumes bids = new LevelVolumes();
+        LevelVolumes asks = new LevelVolumes();
+        double[] bidSums = new double[count];
+        double[] askSums = new double[count];
+        for (int i = 0; i < markets.size(); i++) {
+            OrderBook orderBook = orderBookRepository.getOrderBook(markets.get(i));
+            if (orderBook == null || !bids.fill(orderBook.getBidOrders()) || !asks.fill(orderBook.getAskOrders())) {
+                Arrays.fill(prices[i], Double.NaN);
+                continue;
+            }
+            discountedVolume.sum(bids.volumes, bids.levels, factors, bidSums);
+            discountedVolume.sum(asks.volumes, asks.levels, factors, askSums);
+            DiscountedVolume.equilibriumPrices(bids.bestPrice, asks.bestPrice, bidSums, askSums, halfLives, prices[i]);
+        }
+        return prices;
+    }
+
+    /**
+     * Volumes of the levels of one side of an OrderBook from the best price, reused for all the Markets of a batch
+     */
+    private static class LevelVolumes {
+
+        private double[] volumes = new double[64];
+        private int levels;
+        private double bestPrice;
+
+        /**
+         * Copy the total amount of each level
+         *
+         * @param sideOrders
+         * @return false if the side is empty
+         */
+        private boolean fill(ConcurrentNavigableMap<Double, PriceLevel> sideOrders) {
+            levels = 0;
+            for (Map.Entry<Double, PriceLevel> level : sideOrders.entrySet()) {
+                if (levels == volumes.length) {
+                    volumes = Arrays.copyOf(volumes, levels * 2);
+                }
+                if (levels == 0) {
+                    bestPrice = level.getKey();
+                }
+                volumes[levels++] = level.getValue().getTotalAmount();
+            }
+            return levels > 0;
+        }
+    }
+
     /**
      * Bonus Track
      * <p>
@@ -99,7 +191,7 @@ public class OrderBookServiceImpl implements OrderBookService {
      * @param hl
      * @return
      */
-    private double[] getPointsLastDecay(Market market, ConcurrentMap<Double, PriorityBlockingQueue<Order>> orders, OrderSide side, double hl) {
+    private double[] getPointsLastDecay(Market market, ConcurrentMap<Double, PriceLevel> orders, OrderSide side, double hl) {
         /*
             Exponential Decay Formula y=A*F^(Δ/H)
             A = Previous value
@@ -221,13 +313,46 @@ public class OrderBookServiceImpl implements OrderBookService {
         return new double[]{a, b};
     }
 
+    /**
+     * Fill one side of the snapshot walking the price levels from the best price, stopping as soon as {@code limit}
+     * entries were added
+     *
+     * @param sideOrders
+     * @param side
+     * @param depthType
+     * @param limit
+     * @param snapshot
+     */
+    private void fillDepth(ConcurrentNavigableMap<Double, PriceLevel> sideOrders, OrderSide side,
+                           DepthType depthType, int limit, DepthSnapshot snapshot) {
+        int count = 0;
+        for (Map.Entry<Double, PriceLevel> level : sideOrders.entrySet()) {
+            if (count == limit) {
+                break;
+            }
+            final double price = level.getKey();
+            if (depthType == DepthType.L2) {
+                snapshot.add(side, price, level.getValue().getTotalAmount(), null);
+                count++;
+            } else {
+                for (Order order : level.getValue()) {
+                    if (count == limit) {
+                        break;
+                    }
+                    snapshot.add(side, price, order.getAmount(), order.getId());
+                    count++;
+                }
+            }
+        }
+    }
+
     /**
      * Print the sorted Orders of a side (Ask or Bid)
      * At time to sort the keys to print them in desc order, the time complexity could go from O(1) to O(nlogn) in the worst case
      *
      * @param sideOrders
      */
-    private void printSide(ConcurrentMap<Double, PriorityBlockingQueue<Order>> sideOrders) {
+    private void printSide(ConcurrentMap<Double, PriceLevel> sideOrders) {
         TreeSet<Double> keys = (TreeSet<Double>) new TreeSet<>(sideOrders.keySet()).descendingSet();
         keys.forEach(price -> {
             log.debug("--------Price $ {}:", price);
@@ -236,5 +361,6 @@ public class OrderBookServiceImpl implements OrderBookService {
     }
 
     private OrderBookServiceImpl() {
+        MatchingEngine.getInstance().addTradeListener(candleAggregator);
     }
 }
@@ -2,10 +2,14 @@ package com.bitso.services;
 
 import com.bitso.exception.MessageNotSupportedException;
 import com.bitso.exception.OrderNotFoundException;
+import com.bitso.exception.OrderRejectedException;
+import com.bitso.model.Market;
 import com.bitso.model.Message;
 import com.bitso.model.MessageType;
 import com.bitso.model.Order;
+import com.bitso.model.OrderSide;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -16,7 +20,9 @@ import java.util.UUID;
 public interface OrderService {
 
     /**
-     * Create a new Order object given a {@link Message} of type {@link MessageType#ADD}
+     * Create a new Order object given a {@link Message} of type {@link MessageType#ADD}.
+     * Orders are LIMIT and GTC by default, and MARKET Orders are always IOC or FOK.
+     * The OrderId of the Message is used when the client assigns it, otherwise a random one is generated
      *
      * @param msg
      * @return new {@link Order} object
@@ -31,6 +37,14 @@ public interface OrderService {
      */
     void addOrder(Order order);
 
+    /**
+     * Get an Order resting in the Exchange, or waiting for its stop price
+     *
+     * @param orderId
+     * @return the Order, or null if it is not in the Exchange
+     */
+    Order getOrder(UUID orderId);
+
     /**
      * Delete an Order from the Exchange given its {@code orderId}
      *
@@ -40,13 +54,46 @@ public interface OrderService {
     void deleteOrder(UUID orderId) throws OrderNotFoundException;
 
     /**
-     * Modify an existing {@link Order} of the Exchange given its {@code orderId} and the new amount to set.
+     * Modify an existing {@link Order} of the Exchange given its {@code orderId}, the new amount and optionally the
+     * new price to set, as an atomic cancel-replace.
+     * A smaller amount keeps the queue priority of the Order, a new price or a bigger amount moves it to the tail
+     * of the level of its new price.
      *
      * @param orderId
      * @param newAmount
+     * @param newPrice  0 to keep the current price
      * @throws OrderNotFoundException
+     * @throws OrderRejectedException when the modification does not pass the pre-trade risk checks
+     */
+    void modifyOrder(UUID orderId, double newAmount, double newPrice) throws OrderNotFoundException, OrderRejectedException;
+
+    /**
+     * Cancel all the Orders of a client session in one pass, optionally only the ones of a {@link Market} and/or an
+     * {@link OrderSide}
+     *
+     * @param sessionId
+     * @param market    {@code null} to cancel the Orders of all Markets
+     * @param side      {@code null} to cancel the Orders of both sides
+     * @return number of Orders cancelled
+     */
+    int cancelOrders(long sessionId, Market market, OrderSide side);
+
+    /**
+     * Seed the OrderBooks with resting Orders in bulk, without sending them as messages nor matching them. They are
+     * accounted by the pre-trade risk checks as any resting Order
+     *
+     * @param orders LIMIT GTC Orders that do not cross the OrderBooks
+     * @return number of Orders loaded
+     */
+    int loadOrders(List<Order> orders);
+
+    /**
+     * Get the GTT Orders that reached their expire time, to be deleted with {@link #deleteOrder(UUID)}
+     *
+     * @param nowMillis
+     * @return the Orders expired, empty if none
      */
-    void modifyOrder(UUID orderId, double newAmount) throws OrderNotFoundException;
+    List<Order> pollExpired(long nowMillis);
 
     /**
      * Print all Orders currently on the Exchange
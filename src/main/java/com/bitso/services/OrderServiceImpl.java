@@ -2,13 +2,20 @@ package com.bitso.services;
 
 import com.bitso.exception.MessageNotSupportedException;
 import com.bitso.exception.OrderNotFoundException;
+import com.bitso.exception.OrderRejectedException;
+import com.bitso.model.Market;
 import com.bitso.model.Message;
 import com.bitso.model.MessageType;
 import com.bitso.model.Order;
+import com.bitso.model.OrderSide;
+import com.bitso.model.OrderType;
+import com.bitso.model.TimeInForce;
 import com.bitso.repository.OrderBookRepository;
 import com.bitso.repository.OrderBookRepositoryImpl;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 /**
@@ -21,6 +28,8 @@ public class OrderServiceImpl implements OrderService {
 
     private static OrderServiceImpl INSTANCE;
     private final OrderBookRepository orderBookRepository = OrderBookRepositoryImpl.getInstance();
+    private final MatchingEngine matchingEngine = MatchingEngine.getInstance();
+    private final RiskEngine riskEngine = RiskEngine.getInstance();
 
     /**
      * Get Singleton instance
@@ -39,7 +48,17 @@ public class OrderServiceImpl implements OrderService {
         if (msg.getMessageType() != MessageType.ADD) {
             throw new MessageNotSupportedException("The Message to parse is not of type MessageType.ADD");
         }
-        return new Order(UUID.randomUUID(), msg.getMarket(), msg.getOrderSide(), msg.getPrice(), msg.getAmount());
+        OrderType type = Optional.ofNullable(msg.getOrderType()).orElse(OrderType.LIMIT);
+        TimeInForce timeInForce = Optional.ofNullable(msg.getTimeInForce()).orElse(TimeInForce.GTC);
+        if (type == OrderType.MARKET && timeInForce == TimeInForce.GTC) {
+            //MARKET Orders never rest in the OrderBook
+            timeInForce = TimeInForce.IOC;
+        }
+        UUID orderId = Optional.ofNullable(msg.getOrderId()).orElseGet(UUID::randomUUID);
+        Order order = new Order(orderId, msg.getMarket(), msg.getOrderSide(), msg.getPrice(), msg.getAmount(), type, timeInForce, msg.getSessionId());
+        order.setStopPrice(msg.getStopPrice());
+        order.setExpireAt(timeInForce == TimeInForce.GTT ? msg.getExpireAt() : 0);
+        return order;
     }
 
     @Override
@@ -48,6 +67,11 @@ public class OrderServiceImpl implements OrderService {
         orderBookRepository.add(order);
     }
 
+    @Override
+    public Order getOrder(UUID orderId) {
+        return orderBookRepository.get(orderId);
+    }
+
     @Override
     public void deleteOrder(UUID orderId) throws OrderNotFoundException {
         log.info("Order to delete: {}", orderId);
@@ -56,22 +80,48 @@ public class OrderServiceImpl implements OrderService {
             throw new OrderNotFoundException("Order " + orderId + " not found to be deleted");
         }
         orderBookRepository.remove(order);
+        riskEngine.onCancel(order);
     }
 
     @Override
-    public void modifyOrder(UUID orderId, double newAmount) throws OrderNotFoundException {
+    public void modifyOrder(UUID orderId, double newAmount, double newPrice) throws OrderNotFoundException, OrderRejectedException {
         Order order = orderBookRepository.get(orderId);
         if (order == null) {
             throw new OrderNotFoundException("Order " + orderId + " not found to be updated");
         }
-        log.info("Order to modify: {}, Amount: {}, New Amount: {}", orderId, order.getAmount(), newAmount);
-        Order cOrder = order.clone();
-        if (newAmount != cOrder.getAmount()) {
-            cOrder.setAmount(newAmount);
-            orderBookRepository.update(cOrder);
+        final double price = newPrice > 0 ? newPrice : order.getPrice();
+        log.info("Order to modify: {}, Amount: {}, New Amount: {}, Price: {}, New Price: {}", orderId, order.getAmount(), newAmount, order.getPrice(), price);
+        if (newAmount != order.getAmount() || price != order.getPrice()) {
+            riskEngine.checkAmend(order, price, newAmount);
+            matchingEngine.amendOrder(order, price, newAmount);
         } else {
-            log.info("Order " + orderId + " was not modified because the new amount is the same");
+            log.info("Order " + orderId + " was not modified because the new amount and price are the same");
+        }
+    }
+
+    @Override
+    public int cancelOrders(long sessionId, Market market, OrderSide side) {
+        List<Order> cancelled = orderBookRepository.removeSessionOrders(sessionId, market, side);
+        for (Order order : cancelled) {
+            riskEngine.onCancel(order);
         }
+        log.info("{} Orders of session {} cancelled (Market: {}, Side: {})", cancelled.size(), sessionId, market, side);
+        return cancelled.size();
+    }
+
+    @Override
+    public int loadOrders(List<Order> orders) {
+        List<Order> loaded = orderBookRepository.load(orders);
+        for (Order order : loaded) {
+            riskEngine.onRest(order);
+        }
+        log.info("{} Orders loaded", loaded.size());
+        return loaded.size();
+    }
+
+    @Override
+    public List<Order> pollExpired(long nowMillis) {
+        return orderBookRepository.pollExpired(nowMillis);
     }
 
     @Override
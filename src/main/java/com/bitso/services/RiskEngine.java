@@ -0,0 +1,315 @@
+package com.bitso.services;
+
+import com.bitso.exception.OrderRejectedException;
+import com.bitso.model.Market;
+import com.bitso.model.Message;
+import com.bitso.model.Order;
+import com.bitso.model.OrderSide;
+import com.bitso.model.OrderType;
+import com.bitso.model.TimeInForce;
+import com.bitso.model.Trade;
+import com.bitso.repository.OrderBook;
+import com.bitso.repository.OrderBookRepository;
+import com.bitso.repository.OrderBookRepositoryImpl;
+import com.bitso.repository.PriceLevel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.bitso.shared.Config.MAX_MESSAGES_PER_SECOND;
+import static com.bitso.shared.Config.MAX_OPEN_NOTIONAL;
+import static com.bitso.shared.Config.MAX_ORDER_AMOUNT;
+import static com.bitso.shared.Config.PRICE_BAND;
+
+/**
+ * Pre-trade risk stage in front of the {@link MatchingEngine}.
+ * <p>
+ * Validates the Orders against the tick and lot size of their Market and applies limits: max Order amount, price band
+ * against the best price of the other side of the market, and per-account message rate and max open notional. An
+ * account is a client session; Orders without a session (e.g. replayed or loaded offline) are not subject to the
+ * per-account limits. The checks only use primitive counters of the account, which are updated as Orders rest, fill,
+ * are amended and cancelled, and the best prices of the OrderBook, so no Order is searched.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class RiskEngine {
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double INCREMENT_TOLERANCE = 1e-6;
+    private static final double NOTIONAL_TOLERANCE = 1e-6;
+
+    private static RiskEngine INSTANCE;
+    private final OrderBookRepository orderBookRepository = OrderBookRepositoryImpl.getInstance();
+
+    /**
+     * Risk counters indexed by account (session id), so the checks of each message do not box the session id. Grows
+     * with the session ids, which are assigned in sequence by the {@link com.bitso.session.SessionManager}
+     */
+    private Account[] accounts = new Account[64];
+
+    /**
+     * Get Singleton instance
+     *
+     * @return
+     */
+    public static RiskEngine getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new RiskEngine();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Count a message of the session in the current window of one second and reject it when the session exceeds
+     * the max messages per second
+     *
+     * @param sessionId
+     * @throws OrderRejectedException
+     */
+    public void checkMessageRate(long sessionId) throws OrderRejectedException {
+        if (sessionId == 0) {
+            return;
+        }
+        Account account = account(sessionId);
+        final long now = System.nanoTime();
+        if (now - account.windowStart >= WINDOW_NANOS) {
+            account.windowStart = now;
+            account.messages = 0;
+        }
+        if (++account.messages > MAX_MESSAGES_PER_SECOND) {
+            throw new OrderRejectedException("Session " + sessionId + " exceeded " + MAX_MESSAGES_PER_SECOND + " messages per second");
+        }
+    }
+
+    /**
+     * Check a new Order given its {@link Message} of type ADD, before any Order is created
+     *
+     * @param msg
+     * @throws OrderRejectedException
+     */
+    public void checkOrder(Message msg) throws OrderRejectedException {
+        if (msg.getOrderSide() == null) {
+            throw new OrderRejectedException("Unknown Order side");
+        }
+        if (msg.getMarket() == null || msg.getMarket() == Market.NONE) {
+            throw new OrderRejectedException("Unknown Market");
+        }
+        if (msg.getOrderId() != null && orderBookRepository.get(msg.getOrderId()) != null) {
+            throw new OrderRejectedException("Duplicated OrderId " + msg.getOrderId());
+        }
+        checkAmount(msg.getAmount());
+        checkIncrement("Amount", msg.getAmount(), msg.getMarket().getLotSize());
+        if (msg.getTimeInForce() == TimeInForce.GTT && (msg.getOrderType() == OrderType.MARKET || msg.getExpireAt() <= 0)) {
+            throw new OrderRejectedException("A GTT Order must be a LIMIT Order with an expire time");
+        }
+        if (msg.getStopPrice() < 0) {
+            throw new OrderRejectedException("Invalid stop price " + msg.getStopPrice());
+        }
+        checkIncrement("Stop price", msg.getStopPrice(), msg.getMarket().getTickSize());
+        if (msg.getOrderType() == OrderType.MARKET) {
+            return;
+        }
+        //A stop-limit Order is priced for the market of its trigger, the price band of the current market does not apply
+        if (msg.getStopPrice() == 0) {
+            checkPrice(msg.getMarket(), msg.getOrderSide(), msg.getPrice());
+        }
+        checkIncrement("Price", msg.getPrice(), msg.getMarket().getTickSize());
+        if (msg.getTimeInForce() == null || msg.getTimeInForce() == TimeInForce.GTC || msg.getTimeInForce() == TimeInForce.GTT) {
+            checkOpenNotional(msg.getSessionId(), msg.getPrice() * msg.getAmount());
+        }
+    }
+
+    /**
+     * Check that the Order of a DELETE or MODIFY message belongs to the session which sent it. An Order not found is
+     * left to the {@link OrderService}
+     *
+     * @param msg
+     * @throws OrderRejectedException if the Order belongs to another session
+     */
+    public void checkOwner(Message msg) throws OrderRejectedException {
+        final Order order = orderBookRepository.get(msg.getOrderId());
+        if (order != null && order.getSessionId() != msg.getSessionId()) {
+            throw new OrderRejectedException("Order " + msg.getOrderId() + " does not belong to session " + msg.getSessionId());
+        }
+    }
+
+    /**
+     * Check the amendment of a resting Order
+     *
+     * @param order
+     * @param newPrice
+     * @param newAmount
+     * @throws OrderRejectedException
+     */
+    public void checkAmend(Order order, double newPrice, double newAmount) throws OrderRejectedException {
+        checkAmount(newAmount);
+        checkIncrement("Amount", newAmount, order.getMarket().getLotSize());
+        if (newPrice != order.getPrice()) {
+            checkPrice(order.getMarket(), order.getSide(), newPrice);
+            checkIncrement("Price", newPrice, order.getMarket().getTickSize());
+        }
+        checkOpenNotional(order.getSessionId(), newPrice * newAmount - order.getPrice() * order.getAmount());
+    }
+
+    /**
+     * Account an Order that rests in the OrderBook
+     *
+     * @param order
+     */
+    public void onRest(Order order) {
+        account(order.getSessionId()).addNotional(order.getPrice() * order.getAmount());
+    }
+
+    /**
+     * Account a Trade, which reduces the open notional of the maker
+     *
+     * @param trade
+     */
+    public void onTrade(Trade trade) {
+        account(trade.getMakerSessionId()).addNotional(-trade.getPrice() * trade.getAmount());
+    }
+
+    /**
+     * Account a resting Order amended in place, given its price and amount before the amendment
+     *
+     * @param order
+     * @param oldPrice
+     * @param oldAmount
+     */
+    public void onAmend(Order order, double oldPrice, double oldAmount) {
+        account(order.getSessionId()).addNotional(order.getPrice() * order.getAmount() - oldPrice * oldAmount);
+    }
+
+    /**
+     * Account a resting Order removed from the OrderBook
+     *
+     * @param order
+     */
+    public void onCancel(Order order) {
+        account(order.getSessionId()).addNotional(-order.getPrice() * order.getAmount());
+    }
+
+    /**
+     * Get the notional of the Orders of a session resting in the OrderBooks
+     *
+     * @param sessionId
+     * @return
+     */
+    public double getOpenNotional(long sessionId) {
+        Account account = sessionId < accounts.length ? accounts[(int) sessionId] : null;
+        return account != null ? account.openNotional : 0;
+    }
+
+    /**
+     * Forget the counters of a closed session when it does not have open Orders anymore
+     *
+     * @param sessionId
+     */
+    public void removeSession(long sessionId) {
+        Account account = sessionId < accounts.length ? accounts[(int) sessionId] : null;
+        if (account != null && account.openNotional == 0) {
+            accounts[(int) sessionId] = null;
+        }
+    }
+
+    private void checkAmount(double amount) throws OrderRejectedException {
+        //Negated comparison to reject NaN as well
+        if (!(amount > 0) || amount > MAX_ORDER_AMOUNT) {
+            throw new OrderRejectedException("Amount " + amount + " out of the range (0, " + MAX_ORDER_AMOUNT + "]");
+        }
+    }
+
+    /**
+     * Check that a price or an amount is a multiple of the tick or lot size of the Market. The tolerance absorbs the
+     * binary representation of decimal values, e.g. 0.3 is not an exact multiple of 0.1 as a double
+     *
+     * @param name
+     * @param value
+     * @param increment
+     * @throws OrderRejectedException
+     */
+    private void checkIncrement(String name, double value, double increment) throws OrderRejectedException {
+        if (increment <= 0) {
+            return;
+        }
+        final double units = value / increment;
+        if (Math.abs(units - Math.rint(units)) > INCREMENT_TOLERANCE) {
+            throw new OrderRejectedException(name + " " + value + " is not a multiple of " + increment);
+        }
+    }
+
+    /**
+     * Check the price band: a BUY price cannot be higher than the best ask plus the band, and a SELL price cannot be
+     * lower than the best bid minus the band
+     *
+     * @param market
+     * @param side
+     * @param price
+     * @throws OrderRejectedException
+     */
+    private void checkPrice(Market market, OrderSide side, double price) throws OrderRejectedException {
+        if (!(price > 0) || Double.isInfinite(price)) {
+            throw new OrderRejectedException("Invalid price " + price);
+        }
+        OrderBook orderBook = orderBookRepository.getOrderBook(market);
+        if (orderBook == null) {
+            return;
+        }
+        if (side == OrderSide.BUY) {
+            ConcurrentNavigableMap<Double, PriceLevel> asks = orderBook.getAskOrders();
+            if (!asks.isEmpty() && price > asks.firstKey() * (1 + PRICE_BAND)) {
+                throw new OrderRejectedException("Buy price " + price + " out of the band of the best ask " + asks.firstKey());
+            }
+        } else {
+            ConcurrentNavigableMap<Double, PriceLevel> bids = orderBook.getBidOrders();
+            if (!bids.isEmpty() && price < bids.firstKey() * (1 - PRICE_BAND)) {
+                throw new OrderRejectedException("Sell price " + price + " out of the band of the best bid " + bids.firstKey());
+            }
+        }
+    }
+
+    private void checkOpenNotional(long sessionId, double notional) throws OrderRejectedException {
+        if (sessionId == 0) {
+            return;
+        }
+        final double openNotional = getOpenNotional(sessionId);
+        if (openNotional + notional > MAX_OPEN_NOTIONAL) {
+            throw new OrderRejectedException("Session " + sessionId + " would exceed the max open notional " + MAX_OPEN_NOTIONAL + " (current " + openNotional + ")");
+        }
+    }
+
+    private Account account(long sessionId) {
+        if (sessionId >= accounts.length) {
+            accounts = Arrays.copyOf(accounts, Math.max((int) sessionId + 1, accounts.length * 2));
+        }
+        Account account = accounts[(int) sessionId];
+        if (account == null) {
+            account = new Account();
+            accounts[(int) sessionId] = account;
+        }
+        return account;
+    }
+
+    /**
+     * Primitive risk counters of an account
+     */
+    private static class Account {
+        private double openNotional;
+        private long windowStart = System.nanoTime();
+        private int messages;
+
+        private void addNotional(double notional) {
+            //Avoid a residual of floating point operations once all the Orders are closed, e.g. after partial fills
+            openNotional += notional;
+            if (openNotional < NOTIONAL_TOLERANCE) {
+                openNotional = 0;
+            }
+        }
+    }
+
+    private RiskEngine() {
+    }
+}
@@ -0,0 +1,14 @@
+package com.bitso.services;
+
+/**
+ * Scalar {@link DiscountedVolume}, used when the Vector API is not available
+ *
+ * @author Andres Ortiz
+ */
+class ScalarDiscountedVolume extends DiscountedVolume {
+
+    @Override
+    public void sum(double[] volumes, int levels, double[] factors, double[] result) {
+        sumScalar(volumes, levels, factors, result, 0);
+    }
+}
@@ -0,0 +1,18 @@
+package com.bitso.services;
+
+import com.bitso.model.Trade;
+
+/**
+ * Listener of the Trades executed by the {@link MatchingEngine}
+ *
+ * @author Andres Ortiz
+ */
+public interface TradeListener {
+
+    /**
+     * Called by the matching thread for each Trade, in execution order
+     *
+     * @param trade
+     */
+    void onTrade(Trade trade);
+}
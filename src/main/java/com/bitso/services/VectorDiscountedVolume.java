@@ -0,0 +1,32 @@
+package com.bitso.services;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link DiscountedVolume} with the half-lives in the lanes of SIMD vectors of the preferred size of the CPU (e.g. 4
+ * with AVX2, 8 with AVX-512). Each level is broadcast to all the lanes and accumulated with one fused multiply-add per
+ * vector. The half-lives that do not fill a vector are computed by the scalar loop.
+ * <p>
+ * Only loaded when the {@code jdk.incubator.vector} module is in the boot layer, see {@link DiscountedVolume#getInstance()}.
+ *
+ * @author Andres Ortiz
+ */
+class VectorDiscountedVolume extends DiscountedVolume {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void sum(double[] volumes, int levels, double[] factors, double[] result) {
+        final int bound = SPECIES.loopBound(factors.length);
+        for (int j = 0; j < bound; j += SPECIES.length()) {
+            final DoubleVector factor = DoubleVector.fromArray(SPECIES, factors, j);
+            DoubleVector sum = DoubleVector.zero(SPECIES);
+            for (int k = levels - 1; k >= 0; k--) {
+                sum = sum.fma(factor, DoubleVector.broadcast(SPECIES, volumes[k]));
+            }
+            sum.intoArray(result, j);
+        }
+        sumScalar(volumes, levels, factors, result, bound);
+    }
+}
@@ -0,0 +1,225 @@
+package com.bitso.session;
+
+import com.bitso.Connection;
+import com.bitso.model.DepthSnapshot;
+import com.bitso.model.Message;
+import com.bitso.model.MessageType;
+import com.bitso.repository.SessionJournal;
+import com.bitso.shared.Encoder;
+import com.bitso.shared.OutboundQueue;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.bitso.shared.Config.BUFFER_CAPACITY;
+
+/**
+ * Session of a client, identified by the name given in its Logon. It outlives its connections: a client reconnecting
+ * with the same name keeps its session id (and its Orders) and its sequence numbers.
+ * <p>
+ * Each message received must carry the next inbound sequence: duplicates are ignored and gaps are answered with a
+ * Resend Request. The messages received after a gap are discarded until the resent ones fill it, so the messages of
+ * the client are always processed in order. Each message sent gets the next outbound sequence and is appended to the {@link SessionJournal}
+ * of the session before it is written, so it can be resent on request. Depth responses are market data: they are not
+ * sequenced nor journaled, so a snapshot conflated for a slow consumer (see {@link OutboundQueue}) leaves no gap.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class Session {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final long sessionId;
+    private final SessionJournal journal;
+
+    /**
+     * Buffer reused to encode the session messages, under the lock of the session
+     */
+    private final ByteBuffer outbound = ByteBuffer.allocate(BUFFER_CAPACITY);
+
+    /**
+     * Current connection of the session, null while the client is disconnected
+     */
+    @Getter
+    private volatile Connection connection;
+
+    /**
+     * Next sequence expected from the client
+     */
+    @Getter
+    private volatile long expectedSequence;
+
+    /**
+     * Last sequence requested to the client by a Resend Request, while the gap is not filled
+     */
+    private volatile long resendEndSequence;
+    @Getter
+    private volatile long lastReceivedMillis;
+    @Getter
+    private volatile long lastSentMillis;
+
+    Session(String name, long sessionId, SessionJournal journal) {
+        this.name = name;
+        this.sessionId = sessionId;
+        this.journal = journal;
+        this.expectedSequence = journal.getLastReceived() + 1;
+    }
+
+    /**
+     * Attach a new connection of the client to the session
+     *
+     * @param connection
+     */
+    public synchronized void attach(Connection connection) {
+        this.connection = connection;
+        connection.logon(this);
+        lastReceivedMillis = System.currentTimeMillis();
+        lastSentMillis = lastReceivedMillis;
+    }
+
+    /**
+     * Detach a closed connection from the session, if it is still its current one
+     *
+     * @param connection
+     */
+    public synchronized void detach(Connection connection) {
+        if (this.connection == connection) {
+            this.connection = null;
+        }
+    }
+
+    /**
+     * Check the sequence of a message received. A Logon with sequence 1 starts a new inbound stream
+     *
+     * @param msg
+     * @return false if the message must be ignored: it is a duplicate, it has no sequence or it is after a gap
+     * @throws IOException
+     */
+    public boolean onReceived(Message msg) throws IOException {
+        lastReceivedMillis = System.currentTimeMillis();
+        final long sequence = msg.getSequence();
+        if (msg.getMessageType() == MessageType.LOGON && sequence == 1) {
+            expectedSequence = 1;
+            resendEndSequence = 0;
+        }
+        if (sequence == 0) {
+            log.warn("Message of session {} without sequence number ignored", name);
+            return false;
+        }
+        if (sequence < expectedSequence) {
+            log.warn("Duplicate message {} of session {} ignored, expected {}", sequence, name, expectedSequence);
+            return false;
+        }
+        if (sequence > expectedSequence) {
+            //The message is discarded and requested again with the gap, a gap already requested is not requested twice
+            if (sequence > resendEndSequence) {
+                final long beginSequence = Math.max(expectedSequence, resendEndSequence + 1);
+                log.warn("Gap in the messages of session {}: expected {}, received {}", name, expectedSequence, sequence);
+                send(Message.builder()
+                        .messageType(MessageType.RESEND_REQUEST)
+                        .beginSequence(beginSequence)
+                        .endSequence(sequence)
+                        .build());
+                resendEndSequence = sequence;
+            }
+            return false;
+        }
+        expectedSequence = sequence + 1;
+        journal.setLastReceived(sequence);
+        return true;
+    }
+
+    /**
+     * Send a session message, with the next outbound sequence
+     *
+     * @param msg
+     * @return false if the client is a slow consumer that must be disconnected
+     * @throws IOException
+     */
+    public synchronized boolean send(Message msg) throws IOException {
+        return send(msg, 0);
+    }
+
+    /**
+     * Send a message, with the next outbound sequence, once a replicated command is released
+     *
+     * @param msg
+     * @param sequence last replicated command reflected by the message, 0 without replication
+     * @return false if the client is a slow consumer that must be disconnected
+     * @throws IOException
+     */
+    public synchronized boolean send(Message msg, long sequence) throws IOException {
+        outbound.clear();
+        Encoder.frame(msg, journal.size() + 1, outbound);
+        return send(outbound.flip(), OutboundQueue.NO_KEY, sequence);
+    }
+
+    /**
+     * Send a Depth response, without sequence
+     *
+     * @param snapshot
+     * @param buffer   buffer to encode the response
+     * @param key      key to conflate the response, see {@link OutboundQueue#offer(ByteBuffer, int, long)}
+     * @param sequence last replicated command reflected by the response
+     * @return false if the client is a slow consumer that must be disconnected
+     * @throws IOException
+     */
+    public synchronized boolean send(DepthSnapshot snapshot, ByteBuffer buffer, int key, long sequence) throws IOException {
+        Encoder.encodeDepth(snapshot, 0, buffer);
+        return write(buffer, key, sequence);
+    }
+
+    /**
+     * Send a Heartbeat if nothing was sent since the given time. It is only queued when the connection is blocking,
+     * its writer writes it
+     *
+     * @param sentBeforeMillis
+     * @throws IOException
+     */
+    public synchronized void heartbeat(long sentBeforeMillis) throws IOException {
+        final Connection connection = this.connection;
+        if (connection == null || lastSentMillis > sentBeforeMillis) {
+            return;
+        }
+        send(Message.builder().messageType(MessageType.HEARTBEAT).build());
+    }
+
+    /**
+     * Resend a range of messages from the journal, transferring them from the file to the socket
+     *
+     * @param begin first sequence
+     * @param end   last sequence, 0 for up to the last one
+     * @throws IOException
+     */
+    public synchronized void resend(long begin, long end) throws IOException {
+        final Connection connection = this.connection;
+        final long last = journal.size();
+        begin = Math.max(begin, 1);
+        end = end == 0 ? last : Math.min(end, last);
+        if (connection == null || begin > end) {
+            log.warn("Nothing to resend to session {} from {} to {}, last sequence {}", name, begin, end, last);
+            return;
+        }
+        log.info("Resending messages {} to {} of session {}", begin, end, name);
+        connection.resend(journal.getChannel(), journal.getPosition(begin), journal.getLength(begin, end));
+    }
+
+    private boolean send(ByteBuffer message, int key, long sequence) throws IOException {
+        journal.append(message);
+        return write(message, key, sequence);
+    }
+
+    private boolean write(ByteBuffer message, int key, long sequence) throws IOException {
+        lastSentMillis = System.currentTimeMillis();
+        final Connection connection = this.connection;
+        return connection == null || connection.send(message, key, sequence);
+    }
+
+    void close() throws IOException {
+        journal.close();
+    }
+}
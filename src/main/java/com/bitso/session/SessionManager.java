@@ -0,0 +1,153 @@
+package com.bitso.session;
+
+import com.bitso.Connection;
+import com.bitso.repository.SessionJournal;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static com.bitso.shared.Config.HEARTBEAT_SECONDS;
+import static com.bitso.shared.Config.JOURNAL_DIR;
+
+/**
+ * Sessions of the clients of the Exchange by name, with their journals in {@link com.bitso.shared.Config#JOURNAL_DIR}.
+ * <p>
+ * A "sessions" thread checks the heartbeats every second, away from the matching stage: a Heartbeat is sent to a
+ * client without messages for {@link com.bitso.shared.Config#HEARTBEAT_SECONDS}, and a client silent for twice that
+ * time is disconnected. The Heartbeats are only queued to the connections, so this thread never waits for a client.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class SessionManager {
+
+    private static SessionManager INSTANCE;
+
+    /**
+     * Valid names of a session, also used as the directory of its journal
+     */
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong lastSessionId = new AtomicLong();
+    private ScheduledExecutorService heartbeats;
+
+    /**
+     * Get Singleton instance
+     *
+     * @return
+     */
+    public static SessionManager getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new SessionManager();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Check if a name can be used for a session
+     *
+     * @param name
+     * @return
+     */
+    public static boolean isValidName(String name) {
+        return name != null && NAME.matcher(name).matches();
+    }
+
+    /**
+     * Get the session of a name, creating it with a new session id and opening its journal the first time
+     *
+     * @param name
+     * @return
+     * @throws IOException
+     */
+    public Session getSession(String name) throws IOException {
+        try {
+            return sessions.computeIfAbsent(name, this::newSession);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Continue the session ids from the last one used, e.g. by the primary before a takeover
+     *
+     * @param sessionId
+     */
+    public void setLastSessionId(long sessionId) {
+        lastSessionId.accumulateAndGet(sessionId, Math::max);
+    }
+
+    /**
+     * Start checking the heartbeats of the sessions
+     *
+     * @param disconnect callback to disconnect a client that stopped sending messages
+     */
+    public synchronized void start(Consumer<Connection> disconnect) {
+        if (heartbeats != null || HEARTBEAT_SECONDS <= 0) {
+            return;
+        }
+        heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sessions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats.scheduleAtFixedRate(() -> checkHeartbeats(disconnect), 1, 1, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    private void checkHeartbeats(Consumer<Connection> disconnect) {
+        final long now = System.currentTimeMillis();
+        final long interval = TimeUnit.SECONDS.toMillis(HEARTBEAT_SECONDS);
+        for (Session session : sessions.values()) {
+            final Connection connection = session.getConnection();
+            if (connection == null) {
+                continue;
+            }
+            try {
+                if (now - session.getLastReceivedMillis() > 2 * interval) {
+                    log.warn("Session {} did not send messages in {} seconds, disconnecting", session.getName(), 2 * HEARTBEAT_SECONDS);
+                    disconnect.accept(connection);
+                } else {
+                    session.heartbeat(now - interval);
+                }
+            } catch (IOException e) {
+                log.warn("Error sending a heartbeat to session {}: {}", session.getName(), e.getMessage());
+                disconnect.accept(connection);
+            }
+        }
+    }
+
+    private Session newSession(String name) {
+        try {
+            final long sessionId = lastSessionId.incrementAndGet();
+            log.info("New session {} with id {}", name, sessionId);
+            return new Session(name, sessionId, new SessionJournal(Path.of(JOURNAL_DIR), name));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void close() {
+        for (Session session : sessions.values()) {
+            try {
+                session.close();
+            } catch (IOException e) {
+                log.warn("Error closing the journal of session {}", session.getName(), e);
+            }
+        }
+    }
+
+    private SessionManager() {
+    }
+}
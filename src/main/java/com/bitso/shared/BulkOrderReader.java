@@ -0,0 +1,254 @@
+package com.bitso.shared;
+
+import com.bitso.model.Market;
+import com.bitso.model.Order;
+import com.bitso.model.OrderSide;
+import com.bitso.model.OrderType;
+import com.bitso.model.TimeInForce;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Reader of a bulk-load file of resting Orders, to seed the OrderBooks without sending them as messages.
+ * <p>
+ * One LIMIT GTC Order per line, in priority order: {@code market,side,price,amount[,orderId[,sessionId]]}, e.g.
+ * {@code BTC_USD,B,23728.9,0.01}. The side is {@code B} or {@code S}, the Order id is derived from the position of the
+ * line in the file when it is empty, so the primary and the replica seeded with the same file create the same Orders,
+ * and the session id is 0 when it is missing. Empty lines, lines starting with {@code #} and a {@code market,...} header
+ * are skipped.
+ * <p>
+ * The file is memory-mapped through a {@link FileChannel} and split in chunks aligned on line feeds, which are parsed
+ * in parallel. The Orders of the chunks are concatenated in the order of the file, so the time priority is kept.
+ *
+ * @author Andres Ortiz
+ */
+public class BulkOrderReader {
+
+    /**
+     * Max size of a chunk, below the max size of a {@link MappedByteBuffer}
+     */
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+    private static final byte[] HEADER = "market,".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private BulkOrderReader() {
+    }
+
+    /**
+     * Read all the Orders of a bulk-load file
+     *
+     * @param path
+     * @return the Orders in the order of the file
+     * @throws IOException
+     * @throws IllegalArgumentException if a line is not a valid Order
+     */
+    public static List<Order> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long[] bounds = split(channel);
+            try {
+                List<List<Order>> chunks = IntStream.range(0, bounds.length - 1)
+                        .parallel()
+                        .mapToObj(i -> parse(channel, bounds[i], bounds[i + 1]))
+                        .toList();
+                List<Order> orders = new ArrayList<>(chunks.stream().mapToInt(List::size).sum());
+                chunks.forEach(orders::addAll);
+                return orders;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Split the file in one chunk per processor, or more to keep them under {@link #MAX_CHUNK_SIZE}. Each boundary is
+     * moved right after the next line feed
+     *
+     * @param channel
+     * @return the start of each chunk followed by the size of the file
+     * @throws IOException
+     */
+    private static long[] split(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final int chunks = (int) Math.max(Math.min(Runtime.getRuntime().availableProcessors(), Math.max(1, size / 4096)),
+                (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        long[] bounds = new long[chunks + 1];
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        for (int i = 1; i < chunks; i++) {
+            long position = Math.max(bounds[i - 1], size / chunks * i);
+            bounds[i] = nextLine(channel, position, size, buffer);
+        }
+        bounds[chunks] = size;
+        return bounds;
+    }
+
+    private static long nextLine(FileChannel channel, long position, long size, ByteBuffer buffer) throws IOException {
+        while (position < size) {
+            buffer.clear();
+            final int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static List<Order> parse(FileChannel channel, long start, long end) {
+        List<Order> orders = new ArrayList<>();
+        if (start >= end) {
+            return orders;
+        }
+        final MappedByteBuffer chunk;
+        try {
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final int limit = chunk.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && chunk.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int length = lineEnd - lineStart;
+            if (length > 0 && chunk.get(lineEnd - 1) == '\r') {
+                length--;
+            }
+            if (length > 0 && chunk.get(lineStart) != '#' && !isHeader(chunk, lineStart, length)) {
+                orders.add(parseLine(chunk, lineStart, lineStart + length, start));
+            }
+            lineStart = lineEnd + 1;
+        }
+        return orders;
+    }
+
+    /**
+     * Parse one line into an Order
+     *
+     * @param chunk
+     * @param from       index of the line in the chunk
+     * @param to         index of the end of the line (excluded)
+     * @param chunkStart position of the chunk in the file, for the errors
+     * @return
+     */
+    private static Order parseLine(ByteBuffer chunk, int from, int to, long chunkStart) {
+        int[] commas = new int[5];
+        int fields = 0;
+        for (int i = from; i < to && fields < commas.length; i++) {
+            if (chunk.get(i) == ',') {
+                commas[fields++] = i;
+            }
+        }
+        if (fields < 3) {
+            throw invalid(chunk, from, to, chunkStart, "4 fields expected");
+        }
+        final Market market = MarketRegistry.getInstance().get(ascii(chunk, from, commas[0]));
+        final OrderSide side = switch (commas[1] - commas[0] == 2 ? chunk.get(commas[0] + 1) : 0) {
+            case 'B' -> OrderSide.BUY;
+            case 'S' -> OrderSide.SELL;
+            default -> null;
+        };
+        final double price = parseDecimal(chunk, commas[1] + 1, commas[2]);
+        final int amountEnd = fields > 3 ? commas[3] : to;
+        final double amount = parseDecimal(chunk, commas[2] + 1, amountEnd);
+        if (market == Market.NONE || side == null || !(price > 0) || !(amount > 0)) {
+            throw invalid(chunk, from, to, chunkStart, "unknown market or side, or price or amount not positive");
+        }
+        UUID id = null;
+        long sessionId = 0;
+        if (fields > 3) {
+            final int idEnd = fields > 4 ? commas[4] : to;
+            if (idEnd > commas[3] + 1) {
+                id = UUID.fromString(ascii(chunk, commas[3] + 1, idEnd));
+            }
+            if (fields > 4 && to > commas[4] + 1) {
+                sessionId = Long.parseLong(ascii(chunk, commas[4] + 1, to));
+            }
+        }
+        if (id == null) {
+            id = lineId(chunkStart + from);
+        }
+        return new Order(id, market, side, price, amount, OrderType.LIMIT, TimeInForce.GTC, sessionId);
+    }
+
+    /**
+     * Parse a plain decimal number. Up to {@link #MAX_FAST_DIGITS} digits the digits are read as an exact long divided
+     * by an exact power of ten, which gives the same double as {@link Double#parseDouble(String)}
+     *
+     * @param chunk
+     * @param from
+     * @param to
+     * @return
+     */
+    private static double parseDecimal(ByteBuffer chunk, int from, int to) {
+        long digits = 0;
+        int count = 0;
+        int decimals = -1;
+        for (int i = from; i < to; i++) {
+            final byte b = chunk.get(i);
+            if (b >= '0' && b <= '9' && count < MAX_FAST_DIGITS) {
+                digits = digits * 10 + (b - '0');
+                count++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                return Double.parseDouble(ascii(chunk, from, to));
+            }
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        return decimals > 0 ? digits / POWERS_OF_TEN[decimals] : digits;
+    }
+
+    /**
+     * Name based UUID of the position of a line in the file, the same in every process reading the file whatever its
+     * chunks
+     *
+     * @param position
+     * @return
+     */
+    private static UUID lineId(long position) {
+        return UUID.nameUUIDFromBytes(ByteBuffer.allocate(Long.BYTES).putLong(position).array());
+    }
+
+    private static boolean isHeader(ByteBuffer chunk, int from, int length) {
+        if (length < HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < HEADER.length; i++) {
+            if (chunk.get(from + i) != HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String ascii(ByteBuffer chunk, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        chunk.get(from, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static IllegalArgumentException invalid(ByteBuffer chunk, int from, int to, long chunkStart, String reason) {
+        return new IllegalArgumentException("Invalid Order at byte " + (chunkStart + from) + " (" + reason + "): " + ascii(chunk, from, to));
+    }
+}
@@ -1,12 +1,160 @@
 package com.bitso.shared;
 
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.LocalTime;
 
 public final class Config {
 
     public static final int PORT = 9090;
     public static final InetSocketAddress BIND_ADDRESS = new InetSocketAddress("localhost", PORT);
-    public static final int BUFFER_CAPACITY = 57;
+
+    /**
+     * Name of the session of the {@code Client}, {@code client} by default. Select it with {@code -Dsession=<name>}
+     */
+    public static final String SESSION_NAME = System.getProperty("session", "client");
+    public static final int BUFFER_CAPACITY = 1024;
+    public static final int MAX_DEPTH = 50;
+    public static final int OUTBOUND_BUFFER_CAPACITY = 16 * 1024;
+
+    /**
+     * Max bytes queued per connection waiting to be written (256KB by default, {@code -DoutboundQueue=<bytes>}), and
+     * the policy applied to a slow consumer when its queue is full, {@link SlowConsumerPolicy#CONFLATE} by default.
+     * Select it with {@code -DslowConsumer=<POLICY>}
+     */
+    public static final int OUTBOUND_QUEUE_CAPACITY = Integer.parseInt(System.getProperty("outboundQueue", String.valueOf(256 * 1024)));
+    public static final SlowConsumerPolicy SLOW_CONSUMER_POLICY = SlowConsumerPolicy.valueOf(System.getProperty("slowConsumer", SlowConsumerPolicy.CONFLATE.name()));
+
+    /**
+     * Mode of the Exchange to receive clients connections, {@link GatewayMode#SELECTOR} by default.
+     * Select it with {@code -Dgateway=VIRTUAL_THREADS} or with the first argument of {@code Exchange.main}
+     */
+    public static final GatewayMode GATEWAY_MODE = GatewayMode.valueOf(System.getProperty("gateway", GatewayMode.SELECTOR.name()));
+
+    /**
+     * Interval in seconds of the heartbeats of the client sessions (30 by default, 0 to disable them). Select it with
+     * {@code -Dheartbeat=<seconds>}. A client silent for twice the interval is disconnected
+     */
+    public static final int HEARTBEAT_SECONDS = Integer.parseInt(System.getProperty("heartbeat", "30"));
+
+    /**
+     * Directory of the journals of the messages sent to each client session, {@code bitso-journal} in the temporary
+     * directory by default. Select another one with {@code -Djournal=<dir>}
+     */
+    public static final String JOURNAL_DIR = System.getProperty("journal", Path.of(System.getProperty("java.io.tmpdir"), "bitso-journal").toString());
+
+    /**
+     * Strategy of the Selector thread to wait for events, {@link IdleStrategy#BLOCKING} by default. Select it with
+     * {@code -DidleStrategy=<STRATEGY>}. The Selector thread is pinned to the CPUs given with
+     * {@code -Daffinity=<cpus>} (Linux only, e.g. {@code -Daffinity=3}), not pinned by default
+     */
+    public static final IdleStrategy IDLE_STRATEGY = IdleStrategy.valueOf(System.getProperty("idleStrategy", IdleStrategy.BLOCKING.name()));
+    public static final String AFFINITY = System.getProperty("affinity");
+
+    /**
+     * Directory of the shared-memory connections of co-located clients, e.g. {@code -Dipc=/dev/shm/bitso}. Disabled by
+     * default. Each connection has two rings of {@code -DipcRing=<bytes>} (1MB by default, a power of two)
+     */
+    public static final String IPC_DIR = System.getProperty("ipc");
+    public static final int IPC_RING_CAPACITY = Integer.parseInt(System.getProperty("ipcRing", String.valueOf(1024 * 1024)));
+
+    /**
+     * File with the Markets listed on the Exchange, {@code markets.conf} of the classpath by default.
+     * Select another one with {@code -Dmarkets=<path>}
+     */
+    public static final String MARKETS_FILE = System.getProperty("markets");
+
+    /**
+     * Resolution in milliseconds of the expiry of Good-Till-Time Orders, the tick of their timing wheel
+     */
+    public static final int EXPIRY_TICK_MILLIS = 10;
+
+    /**
+     * Bulk-load file of resting Orders to seed the OrderBooks at startup (see {@link BulkOrderReader}). Disabled
+     * unless it is given with {@code -Dseed=<path>}
+     */
+    public static final String SEED_FILE = System.getProperty("seed");
+
+    /**
+     * Pre-trade risk limits, per account (client session)
+     */
+    public static final double MAX_ORDER_AMOUNT = 1_000_000;
+    public static final double MAX_OPEN_NOTIONAL = 1_000_000_000;
+    public static final double PRICE_BAND = 0.10;
+    public static final int MAX_MESSAGES_PER_SECOND = 1_000;
+
+    /**
+     * Compute the Equilibrium mid-market price of many half-lives with the Vector API when the JVM is started with
+     * {@code --add-modules jdk.incubator.vector}. Force the scalar kernel with {@code -DvectorEp=false}
+     */
+    public static final boolean VECTOR_EP = Boolean.parseBoolean(System.getProperty("vectorEp", "true"));
+
+    /**
+     * Directory of the persistent tape of Trades. The tape is disabled unless it is given with
+     * {@code -DtradeTape=<dir>}
+     */
+    public static final String TRADE_TAPE_DIR = System.getProperty("tradeTape");
+
+    /**
+     * File recording the commands processed by the matching stage, to replay them offline with {@code Replay}. The
+     * recording is disabled unless it is given with {@code -Drecord=<path>}, in the TEXT format by default or in the
+     * one given with {@code -DrecordFormat=<FORMAT>}
+     */
+    public static final String RECORD_FILE = System.getProperty("record");
+    public static final RecordFormat RECORD_FORMAT = RecordFormat.valueOf(System.getProperty("recordFormat", RecordFormat.TEXT.name()));
+
+    /**
+     * Number of candles kept per Market and interval by the {@code CandleAggregator}
+     */
+    public static final int CANDLE_HISTORY = 1_024;
+
+    /**
+     * Period in seconds of the text dump of the metrics in the logs. Disabled by default, the metrics are always
+     * exposed through JMX. Enable it with {@code -DmetricsDump=<seconds>}
+     */
+    public static final int METRICS_DUMP_SECONDS = Integer.parseInt(System.getProperty("metricsDump", "0"));
+
+    /**
+     * Time of the day (UTC) of the end-of-day analytics report of all the Markets, e.g. {@code -DendOfDay=23:59}.
+     * Disabled by default. The statistics are computed by {@code -DanalyticsThreads=<n>} threads, all the processors
+     * but one by default
+     */
+    public static final LocalTime END_OF_DAY = System.getProperty("endOfDay") != null ? LocalTime.parse(System.getProperty("endOfDay")) : null;
+    public static final int ANALYTICS_THREADS = Integer.parseInt(System.getProperty("analyticsThreads",
+            String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() - 1))));
+
+    /**
+     * Bands around the mid price of the depth profiles of the analytics, as fractions of the mid price, and half-lives
+     * of their Equilibrium mid-market prices
+     */
+    public static final double[] ANALYTICS_DEPTH_BANDS = {0.001, 0.005, 0.01, 0.02, 0.05};
+    public static final double[] ANALYTICS_HALF_LIVES = {0.5, 1, 2, 5, 10};
+
+    /**
+     * Sample the bytes allocated by each stage of one message every {@code n} messages of each connection, 64 by
+     * default. Sample every message with {@code -DallocationSampling=1}, disable it with {@code -DallocationSampling=0}
+     */
+    public static final int ALLOCATION_SAMPLING = Integer.parseInt(System.getProperty("allocationSampling", "64"));
+
+    /**
+     * Role of the Exchange in the hot-standby replication, {@link ReplicationMode#NONE} by default. Select it with
+     * {@code -Dreplication=<MODE>}. The replica listens to the primary on {@code -DreplicaAddress=<host:port>},
+     * localhost:9091 by default
+     */
+    public static final ReplicationMode REPLICATION_MODE = ReplicationMode.valueOf(System.getProperty("replication", ReplicationMode.NONE.name()));
+    public static final InetSocketAddress REPLICA_ADDRESS = address(System.getProperty("replicaAddress", "localhost:9091"));
+
+    /**
+     * Cancel all the Orders of a client session when its connection is closed. Disabled by default because a session
+     * outlives its connections, so a client reconnecting with the same name (e.g. the {@code Script}, which logs on
+     * again for each message) keeps its Orders. Enable it with {@code -DcancelOnDisconnect=true}
+     */
+    public static final boolean CANCEL_ON_DISCONNECT = Boolean.parseBoolean(System.getProperty("cancelOnDisconnect", "false"));
+
+    private static InetSocketAddress address(String hostAndPort) {
+        final int separator = hostAndPort.lastIndexOf(':');
+        return new InetSocketAddress(hostAndPort.substring(0, separator), Integer.parseInt(hostAndPort.substring(separator + 1)));
+    }
 
     private Config() {
     }
@@ -1,10 +1,15 @@
 package com.bitso.shared;
 
 import com.bitso.exception.MessageNotSupportedException;
+import com.bitso.model.DepthType;
 import com.bitso.model.Market;
 import com.bitso.model.Message;
 import com.bitso.model.MessageType;
 import com.bitso.model.OrderSide;
+import com.bitso.model.OrderStatus;
+import com.bitso.model.OrderType;
+import com.bitso.model.TimeInForce;
+import com.bitso.model.TradingPhase;
 
 import java.util.UUID;
 
@@ -21,7 +26,7 @@ import static com.bitso.shared.Encoder.DELIMITER;
  */
 public class Decoder {
 
-    private static final int MAX_TAGS = 7;
+    private static final int MAX_TAGS = 22;
 
     public static Message decode(String msg) throws MessageNotSupportedException {
         String[] fields = new String[MAX_TAGS];
@@ -35,12 +40,29 @@ public class Decoder {
             throw new MessageNotSupportedException("The tag 0 is not a begin string supported by the Exchange");
         }
         MessageType type = getMessageType(fields[1]);
-        return switch (type) {
+        Message message = switch (type) {
             case ADD -> decodeAddMessage(fields);
             case DELETE -> decodeDeleteMessage(fields);
             case MODIFY -> decodeModifyMessage(fields);
             case PRINT -> decodePrintMessage(fields);
+            case DEPTH -> decodeDepthMessage(fields);
+            case MASS_CANCEL -> decodeMassCancelMessage(fields);
+            case GAP -> decodeGapMessage(fields);
+            case LOGON -> decodeLogonMessage(fields);
+            case HEARTBEAT -> Message.builder().messageType(MessageType.HEARTBEAT).build();
+            case RESEND_REQUEST -> decodeResendRequestMessage(fields);
+            case TRADING_PHASE -> decodeTradingPhaseMessage(fields);
+            case EXECUTION_REPORT -> decodeExecutionReportMessage(fields);
         };
+        //Any message may carry its sequence number
+        if (fields[14] != null) {
+            message.setSequence(Long.parseLong(fields[14]));
+        }
+        //Recorded messages carry the session of their sender, the Exchange sets it from the connection instead
+        if (fields[21] != null) {
+            message.setSessionId(Long.parseLong(fields[21]));
+        }
+        return message;
     }
 
     private static MessageType getMessageType(String value) {
@@ -49,19 +71,44 @@ public class Decoder {
             case "D" -> MessageType.DELETE;
             case "M" -> MessageType.MODIFY;
             case "P" -> MessageType.PRINT;
+            case "L" -> MessageType.DEPTH;
+            case "C" -> MessageType.MASS_CANCEL;
+            case "G" -> MessageType.GAP;
+            case "O" -> MessageType.LOGON;
+            case "H" -> MessageType.HEARTBEAT;
+            case "R" -> MessageType.RESEND_REQUEST;
+            case "T" -> MessageType.TRADING_PHASE;
+            case "E" -> MessageType.EXECUTION_REPORT;
             default -> null;
         };
     }
 
-    private static Message decodeAddMessage(String[] fields) {
+    private static Message decodeAddMessage(String[] fields) throws MessageNotSupportedException {
         OrderSide orderSide = getOrderSide(fields[2]);
-        double price = Double.parseDouble(fields[3]);
+        double price = fields[3] != null ? Double.parseDouble(fields[3]) : 0;
         double amount = Double.parseDouble(fields[4]);
-        Market market = Market.valueOf(fields[6]);
+        double stopPrice = fields[18] != null ? Double.parseDouble(fields[18]) : 0;
+        long expireAt = fields[19] != null ? Long.parseLong(fields[19]) : 0;
+        Market market = getMarket(fields[6]);
+        UUID orderId = fields[5] != null ? UUID.fromString(fields[5]) : null;
+        OrderType orderType = fields[10] != null ? getOrderType(fields[10]) : OrderType.LIMIT;
+        if (orderType == null) {
+            throw new MessageNotSupportedException("The tag 10 is not an order type supported by the Exchange");
+        }
+        //An absent time in force is GTC, or IOC for a MARKET Order, see OrderService#parseOrder
+        TimeInForce timeInForce = fields[11] != null ? getTimeInForce(fields[11]) : null;
+        if (fields[11] != null && timeInForce == null) {
+            throw new MessageNotSupportedException("The tag 11 is not a time in force supported by the Exchange");
+        }
         return Message.builder()
                 .messageType(MessageType.ADD)
+                .orderId(orderId)
                 .orderSide(orderSide)
+                .orderType(orderType)
+                .timeInForce(timeInForce)
+                .expireAt(expireAt)
                 .price(price)
+                .stopPrice(stopPrice)
                 .amount(amount)
                 .market(market)
                 .build();
@@ -76,23 +123,166 @@ public class Decoder {
     }
 
     private static Message decodeModifyMessage(String[] fields) {
+        double price = fields[3] != null ? Double.parseDouble(fields[3]) : 0;
         double amount = Double.parseDouble(fields[4]);
         UUID orderId = UUID.fromString(fields[5]);
         return Message.builder()
                 .messageType(MessageType.MODIFY)
+                .price(price)
                 .amount(amount)
                 .orderId(orderId)
                 .build();
     }
 
     private static Message decodePrintMessage(String[] fields) {
-        Market market = Market.valueOf(fields[6]);
+        Market market = getMarket(fields[6]);
         return Message.builder()
                 .messageType(MessageType.PRINT)
                 .market(market)
                 .build();
     }
 
+    private static Message decodeDepthMessage(String[] fields) throws MessageNotSupportedException {
+        Market market = getMarket(fields[6]);
+        int depth;
+        try {
+            depth = Integer.parseInt(fields[7]);
+        } catch (NumberFormatException e) {
+            throw new MessageNotSupportedException("The tag 7 is not a depth supported by the Exchange");
+        }
+        if (depth < 0) {
+            throw new MessageNotSupportedException("The tag 7 is a negative depth");
+        }
+        DepthType depthType = fields[8] != null ? getDepthType(fields[8]) : DepthType.L2;
+        if (depthType == null) {
+            throw new MessageNotSupportedException("The tag 8 is not a depth type supported by the Exchange");
+        }
+        return Message.builder()
+                .messageType(MessageType.DEPTH)
+                .market(market)
+                .depth(depth)
+                .depthType(depthType)
+                .build();
+    }
+
+    private static Message decodeMassCancelMessage(String[] fields) {
+        OrderSide orderSide = fields[2] != null ? getOrderSide(fields[2]) : null;
+        Market market = fields[6] != null ? getMarket(fields[6]) : null;
+        return Message.builder()
+                .messageType(MessageType.MASS_CANCEL)
+                .orderSide(orderSide)
+                .market(market)
+                .build();
+    }
+
+    private static Message decodeGapMessage(String[] fields) {
+        long dropped = Long.parseLong(fields[12]);
+        return Message.builder()
+                .messageType(MessageType.GAP)
+                .dropped(dropped)
+                .build();
+    }
+
+    private static Message decodeLogonMessage(String[] fields) {
+        long beginSequence = fields[15] != null ? Long.parseLong(fields[15]) : 0;
+        return Message.builder()
+                .messageType(MessageType.LOGON)
+                .sessionName(fields[13])
+                .beginSequence(beginSequence)
+                .build();
+    }
+
+    private static Message decodeResendRequestMessage(String[] fields) {
+        long beginSequence = Long.parseLong(fields[15]);
+        long endSequence = fields[16] != null ? Long.parseLong(fields[16]) : 0;
+        return Message.builder()
+                .messageType(MessageType.RESEND_REQUEST)
+                .beginSequence(beginSequence)
+                .endSequence(endSequence)
+                .build();
+    }
+
+    private static Message decodeTradingPhaseMessage(String[] fields) throws MessageNotSupportedException {
+        Market market = getMarket(fields[6]);
+        TradingPhase tradingPhase = fields[17] != null ? getTradingPhase(fields[17]) : null;
+        if (tradingPhase == null) {
+            throw new MessageNotSupportedException("The tag 17 is not a trading phase supported by the Exchange");
+        }
+        return Message.builder()
+                .messageType(MessageType.TRADING_PHASE)
+                .market(market)
+                .tradingPhase(tradingPhase)
+                .build();
+    }
+
+    private static Message decodeExecutionReportMessage(String[] fields) throws MessageNotSupportedException {
+        UUID orderId = UUID.fromString(fields[5]);
+        OrderStatus orderStatus = fields[20] != null ? getOrderStatus(fields[20]) : null;
+        if (orderStatus == null) {
+            throw new MessageNotSupportedException("The tag 20 is not an order status supported by the Exchange");
+        }
+        double amount = fields[4] != null ? Double.parseDouble(fields[4]) : 0;
+        return Message.builder()
+                .messageType(MessageType.EXECUTION_REPORT)
+                .orderId(orderId)
+                .orderStatus(orderStatus)
+                .amount(amount)
+                .build();
+    }
+
+    /**
+     * Resolve a Market symbol through the {@link MarketRegistry}, {@link Market#NONE} if it is not listed
+     */
+    private static Market getMarket(String value) {
+        return MarketRegistry.getInstance().get(value);
+    }
+
+    private static DepthType getDepthType(String value) {
+        return switch (value) {
+            case "2" -> DepthType.L2;
+            case "3" -> DepthType.L3;
+            default -> null;
+        };
+    }
+
+    private static OrderType getOrderType(String value) {
+        return switch (value) {
+            case "L" -> OrderType.LIMIT;
+            case "M" -> OrderType.MARKET;
+            default -> null;
+        };
+    }
+
+    private static TimeInForce getTimeInForce(String value) {
+        return switch (value) {
+            case "G" -> TimeInForce.GTC;
+            case "I" -> TimeInForce.IOC;
+            case "F" -> TimeInForce.FOK;
+            case "T" -> TimeInForce.GTT;
+            default -> null;
+        };
+    }
+
+    private static TradingPhase getTradingPhase(String value) {
+        return switch (value) {
+            case "C" -> TradingPhase.CONTINUOUS;
+            case "A" -> TradingPhase.AUCTION;
+            default -> null;
+        };
+    }
+
+    private static OrderStatus getOrderStatus(String value) {
+        return switch (value) {
+            case "0" -> OrderStatus.NEW;
+            case "1" -> OrderStatus.PARTIALLY_FILLED;
+            case "2" -> OrderStatus.FILLED;
+            case "4" -> OrderStatus.CANCELLED;
+            case "5" -> OrderStatus.REPLACED;
+            case "8" -> OrderStatus.REJECTED;
+            default -> null;
+        };
+    }
+
     private static OrderSide getOrderSide(String value) {
         return switch (value) {
             case "B" -> OrderSide.BUY;
@@ -1,11 +1,18 @@
 package com.bitso.shared;
 
+import com.bitso.model.DepthSnapshot;
+import com.bitso.model.DepthType;
 import com.bitso.model.Market;
 import com.bitso.model.Message;
+import com.bitso.model.OrderType;
 
-import java.util.Optional;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
+import static com.bitso.shared.Config.OUTBOUND_BUFFER_CAPACITY;
+
 /**
  * Encoder for a message that wants to be sent to the Exchange server-
  * The message is encoded in a similar way to how Financial Information eXchange (FIX) protocol works.
@@ -29,8 +36,9 @@ import java.util.UUID;
  *   <tr>
  *     <th scope="row">1</th>
  *     <td>MessageType</td>
- *     <td>"A","D","M","P"</td>
- *     <td>Add, Delete, Modify, Print</td>
+ *     <td>"A","D","M","P","L","C","G","O","H","R","T","E"</td>
+ *     <td>Add, Delete, Modify, Print, Depth, Mass Cancel, Gap, Logon, Heartbeat, Resend Request, Trading Phase,
+ *     Execution Report</td>
  *   </tr>
  *   <tr>
  *     <th scope="row">2</th>
@@ -54,7 +62,7 @@ import java.util.UUID;
  *     <th scope="row">5</th>
  *     <td>OrderId</td>
  *     <td>e.g. 123e4567-e89b-12d3-a456-426614174000</td>
- *     <td>Unique UUID</td>
+ *     <td>Unique UUID, optional in ADD Messages to use a client assigned id</td>
  *   </tr>
  *   <tr>
  *     <th scope="row">6</th>
@@ -62,6 +70,96 @@ import java.util.UUID;
  *     <td>e.g. "BTC_USD"</td>
  *     <td>Market Symbol</td>
  *   </tr>
+ *   <tr>
+ *     <th scope="row">7</th>
+ *     <td>Depth</td>
+ *     <td>e.g. 10</td>
+ *     <td>Number of levels (L2) or Orders (L3) per side</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">8</th>
+ *     <td>DepthType</td>
+ *     <td>"2","3"</td>
+ *     <td>L2 (Aggregated levels), L3 (Orders)</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">9</th>
+ *     <td>NoEntries</td>
+ *     <td>e.g. 20</td>
+ *     <td>Number of repeated entries (2, 3, 4 and 5 tags) in a Depth response</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">10</th>
+ *     <td>OrderType</td>
+ *     <td>"L","M"</td>
+ *     <td>Limit (default), Market</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">11</th>
+ *     <td>TimeInForce</td>
+ *     <td>"G","I","F","T"</td>
+ *     <td>Good-Till-Cancel (default), Immediate-Or-Cancel, Fill-Or-Kill, Good-Till-Time</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">12</th>
+ *     <td>Dropped</td>
+ *     <td>e.g. 3</td>
+ *     <td>Number of messages dropped for a slow client, in a Gap message</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">13</th>
+ *     <td>SessionName</td>
+ *     <td>e.g. "trader-1"</td>
+ *     <td>Name of the session of the client, in a Logon message</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">14</th>
+ *     <td>MsgSeqNum</td>
+ *     <td>e.g. 42</td>
+ *     <td>Sequence number of the message in the stream of its sender, starting at 1</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">15</th>
+ *     <td>BeginSeqNo</td>
+ *     <td>e.g. 40</td>
+ *     <td>First sequence to resend. In a Logon, the next sequence expected from the other side (0 for none)</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">16</th>
+ *     <td>EndSeqNo</td>
+ *     <td>e.g. 41</td>
+ *     <td>Last sequence to resend, 0 (default) for up to the last one</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">17</th>
+ *     <td>TradingPhase</td>
+ *     <td>"C","A"</td>
+ *     <td>Continuous, Auction</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">18</th>
+ *     <td>StopPrice</td>
+ *     <td>e.g. 23500.0</td>
+ *     <td>Trigger price of a stop (with 10=M) or stop-limit Order, optional in ADD Messages</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">19</th>
+ *     <td>ExpireTime</td>
+ *     <td>e.g. 1767225600000</td>
+ *     <td>Expire time of a Good-Till-Time Order, in epoch milliseconds</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">20</th>
+ *     <td>OrderStatus</td>
+ *     <td>"0","1","2","4","5","8"</td>
+ *     <td>New, Partially Filled, Filled, Cancelled, Replaced, Rejected, in an Execution Report</td>
+ *   </tr>
+ *   <tr>
+ *     <th scope="row">21</th>
+ *     <td>SessionId</td>
+ *     <td>e.g. 3</td>
+ *     <td>Session id of the sender, only in recorded messages (see {@link RecordedMessageWriter})</td>
+ *   </tr>
  * </tbody>
  * </table>
  * </blockquote>
@@ -71,8 +169,35 @@ import java.util.UUID;
  *    "0=BITSO;1=P;6=BTC_USD"                                       -- 21 bytes
  *    "0=BITSO;1=A;2=B;3=23728.9;4=0.01;6=BTC_USD"                  -- 42 bytes
  *    "0=BITSO;1=A;2=S;3=24001.25;4=0.02;6=BTC_USD"                 -- 42 bytes
+ *    "0=BITSO;1=A;2=B;3=23728.9;4=0.01;6=BTC_USD;11=F"             -- 47 bytes
+ *    "0=BITSO;1=A;2=B;3=23728.9;4=0.01;6=BTC_USD;11=T;19=1767225600000"   -- 64 bytes
+ *    "0=BITSO;1=A;2=S;4=0.5;6=BTC_USD;10=M"                        -- 36 bytes
+ *    "0=BITSO;1=A;2=S;4=0.5;6=BTC_USD;10=M;18=23500.0"             -- 47 bytes
  *    "0=BITSO;1=D;5=12300000-0000-0000-0000-000000000000"          -- 50 bytes
  *    "0=BITSO;1=M;4=0.02;5=12300000-0000-0000-0000-000000000000"   -- 57 bytes
+ *    "0=BITSO;1=M;3=23730.5;4=0.02;5=12300000-0000-0000-0000-000000000000"   -- 67 bytes
+ *    "0=BITSO;1=L;6=BTC_USD;7=10;8=2"                              -- 30 bytes
+ *    "0=BITSO;1=C;2=B;6=BTC_USD"                                   -- 25 bytes
+ *    "0=BITSO;1=T;6=BTC_USD;17=A"                                  -- 26 bytes
+ * </pre>
+ * Session messages:
+ * <pre>
+ *    "0=BITSO;1=O;13=trader-1;15=1;14=1"                           -- Logon, nothing received yet
+ *    "0=BITSO;1=H;14=7"                                            -- Heartbeat
+ *    "0=BITSO;1=R;15=3;16=5;14=8"                                  -- Resend Request of the sequences 3 to 5
+ * </pre>
+ * On the wire each message ends with {@link #END_OF_MESSAGE}.
+ * Depth response (sent back by the Exchange, as market data without sequence number):
+ * <pre>
+ *    "0=BITSO;1=L;6=BTC_USD;8=2;9=2;2=B;3=100.0;4=12.0;2=S;3=101.0;4=7.5"
+ * </pre>
+ * Execution Report (sent back by the Exchange after each ADD, DELETE or MODIFY message, with the amount left):
+ * <pre>
+ *    "0=BITSO;1=E;5=12300000-0000-0000-0000-000000000000;20=1;4=0.5;14=4"
+ * </pre>
+ * Gap notification (sent back by the Exchange before the next message, after dropping messages of a slow client):
+ * <pre>
+ *    "0=BITSO;1=G;12=3"
  * </pre>
  *
  * @author Andres Ortiz
@@ -83,65 +208,429 @@ public class Encoder {
     protected static final String DELIMITER = ";";
     protected static final String BEGIN_STRING = "BITSO";
 
+    /**
+     * Terminator of each message on the wire, so the messages of a stream are framed regardless of how TCP splits or
+     * coalesces them
+     */
+    public static final char END_OF_MESSAGE = '\n';
+
+    private static final byte SEPARATOR = ';';
+    private static final byte[] HEADER = ascii("0=" + BEGIN_STRING + DELIMITER);
+    private static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+    private static final UUID NO_ORDER_ID = new UUID(0L, 0L);
+
+    /**
+     * Doubles in this range are written with the digits of {@link Double#toString(double)}, without scientific
+     * notation. The rest are rare on the wire and written with {@link Double#toString(double)} itself
+     */
+    private static final double MIN_PLAIN_DOUBLE = 1e-3;
+    private static final double MAX_PLAIN_DOUBLE = 1e7;
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L};
+
+    /**
+     * Buffer of each thread to encode a message as a String
+     */
+    private static final ThreadLocal<ByteBuffer> STRING_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(OUTBOUND_BUFFER_CAPACITY));
+
+    /**
+     * Encode a message as a String, e.g. to record or log it. See {@link #encode(Message, ByteBuffer)} to write it to
+     * the wire without allocations
+     *
+     * @param msg
+     * @return
+     */
     public static String encode(Message msg) {
-        StringBuilder builder = new StringBuilder("0=").append(BEGIN_STRING).append(DELIMITER);
+        ByteBuffer buffer = STRING_BUFFER.get().clear();
+        encode(msg, buffer);
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encode a message straight into a buffer, from its position and without the terminator. Numbers, Order ids and
+     * symbols are written as ASCII bytes without creating any object
+     *
+     * @param msg
+     * @param buffer
+     * @throws java.nio.BufferOverflowException if the message does not fit in the buffer
+     */
+    public static void encode(Message msg, ByteBuffer buffer) {
+        encodeBody(msg, buffer);
+        if (msg.getSequence() > 0) {
+            buffer.put(SEPARATOR);
+            tag(buffer, 14, msg.getSequence());
+        }
+    }
+
+    /**
+     * Frame a message straight into a buffer, from its position: the message with the given sequence number and the
+     * terminator, ready to be written to the wire once the buffer is flipped
+     *
+     * @param msg
+     * @param sequence
+     * @param buffer
+     */
+    public static void frame(Message msg, long sequence, ByteBuffer buffer) {
+        encodeBody(msg, buffer);
+        buffer.put(SEPARATOR);
+        tag(buffer, 14, sequence);
+        buffer.put((byte) END_OF_MESSAGE);
+    }
+
+    private static void encodeBody(Message msg, ByteBuffer buffer) {
+        buffer.put(HEADER);
         switch (msg.getMessageType()) {
-            case ADD -> builder.append(encodeAddMessage(msg));
-            case DELETE -> builder.append(encodeDeleteMessage(msg));
-            case MODIFY -> builder.append(encodeModifyMessage(msg));
-            case PRINT -> builder.append(encodePrintMessage(msg));
+            case ADD -> encodeAddMessage(msg, buffer);
+            case DELETE -> encodeDeleteMessage(msg, buffer);
+            case MODIFY -> encodeModifyMessage(msg, buffer);
+            case PRINT -> encodePrintMessage(msg, buffer);
+            case DEPTH -> encodeDepthMessage(msg, buffer);
+            case MASS_CANCEL -> encodeMassCancelMessage(msg, buffer);
+            case GAP -> encodeGapMessage(msg, buffer);
+            case LOGON -> encodeLogonMessage(msg, buffer);
+            case HEARTBEAT -> tag(buffer, 1, 'H');
+            case RESEND_REQUEST -> encodeResendRequestMessage(msg, buffer);
+            case TRADING_PHASE -> encodeTradingPhaseMessage(msg, buffer);
+            case EXECUTION_REPORT -> encodeExecutionReportMessage(msg, buffer);
+        }
+    }
+
+    /**
+     * Frame an encoded message to be written to the wire, with its sequence number and terminator
+     *
+     * @param message
+     * @param sequence
+     * @return
+     */
+    public static String frame(String message, long sequence) {
+        return message + DELIMITER + "14=" + sequence + END_OF_MESSAGE;
+    }
+
+    /**
+     * Encode a {@link DepthSnapshot} as a Depth response into the given buffer, terminated and ready to be written to
+     * a channel. The buffer is cleared first, so it can be reused between responses.
+     *
+     * @param snapshot
+     * @param sequence sequence number of the response in the stream of the session, 0 for an unsequenced response
+     * @param buffer
+     */
+    public static void encodeDepth(DepthSnapshot snapshot, long sequence, ByteBuffer buffer) {
+        buffer.clear();
+        buffer.put(HEADER);
+        tag(buffer, 1, 'L');
+        buffer.put(SEPARATOR);
+        if (sequence > 0) {
+            tag(buffer, 14, sequence);
+            buffer.put(SEPARATOR);
+        }
+        putMarket(buffer, snapshot.getMarket());
+        buffer.put(SEPARATOR);
+        putDepthType(buffer, snapshot.getDepthType());
+        buffer.put(SEPARATOR);
+        tag(buffer, 9, snapshot.size());
+        for (int i = 0; i < snapshot.getBidCount(); i++) {
+            putEntry(buffer, 'B', snapshot.getBidPrices()[i], snapshot.getBidAmounts()[i], snapshot.getBidOrderIds()[i]);
+        }
+        for (int i = 0; i < snapshot.getAskCount(); i++) {
+            putEntry(buffer, 'S', snapshot.getAskPrices()[i], snapshot.getAskAmounts()[i], snapshot.getAskOrderIds()[i]);
+        }
+        buffer.put((byte) END_OF_MESSAGE);
+        buffer.flip();
+    }
+
+    private static void putEntry(ByteBuffer buffer, char side, double price, double amount, UUID orderId) {
+        buffer.put(SEPARATOR);
+        tag(buffer, 2, side);
+        buffer.put(SEPARATOR);
+        tag(buffer, 3, price);
+        buffer.put(SEPARATOR);
+        tag(buffer, 4, amount);
+        if (orderId != null) {
+            buffer.put(SEPARATOR);
+            putOrderId(buffer, orderId);
+        }
+    }
+
+    private static void encodeAddMessage(Message msg, ByteBuffer buffer) {
+        final boolean market = msg.getOrderType() == OrderType.MARKET;
+        tag(buffer, 1, 'A');
+        buffer.put(SEPARATOR);
+        putSide(buffer, msg);
+        buffer.put(SEPARATOR);
+        if (!market) {
+            tag(buffer, 3, msg.getPrice());
+            buffer.put(SEPARATOR);
+        }
+        tag(buffer, 4, msg.getAmount());
+        buffer.put(SEPARATOR);
+        //The OrderId is optional in an ADD Message, the Exchange assigns a random one without it
+        if (msg.getOrderId() != null) {
+            putOrderId(buffer, msg.getOrderId());
+            buffer.put(SEPARATOR);
+        }
+        putMarket(buffer, msg.getMarket());
+        //LIMIT and GTC are the default values, so they are not sent
+        if (market) {
+            buffer.put(SEPARATOR);
+            tag(buffer, 10, 'M');
+        }
+        if (msg.getTimeInForce() != null) {
+            switch (msg.getTimeInForce()) {
+                case IOC -> tag(buffer.put(SEPARATOR), 11, 'I');
+                case FOK -> tag(buffer.put(SEPARATOR), 11, 'F');
+                case GTT -> {
+                    tag(buffer.put(SEPARATOR), 11, 'T');
+                    tag(buffer.put(SEPARATOR), 19, msg.getExpireAt());
+                }
+            }
+        }
+        if (msg.getStopPrice() > 0) {
+            buffer.put(SEPARATOR);
+            tag(buffer, 18, msg.getStopPrice());
+        }
+    }
+
+    private static void encodeDeleteMessage(Message msg, ByteBuffer buffer) {
+        tag(buffer, 1, 'D');
+        buffer.put(SEPARATOR);
+        putOrderId(buffer, msg.getOrderId());
+    }
+
+    private static void encodeModifyMessage(Message msg, ByteBuffer buffer) {
+        tag(buffer, 1, 'M');
+        buffer.put(SEPARATOR);
+        //The new price is optional, the current price of the Order is kept without it
+        if (msg.getPrice() > 0) {
+            tag(buffer, 3, msg.getPrice());
+            buffer.put(SEPARATOR);
+        }
+        tag(buffer, 4, msg.getAmount());
+        buffer.put(SEPARATOR);
+        putOrderId(buffer, msg.getOrderId());
+    }
+
+    private static void encodePrintMessage(Message msg, ByteBuffer buffer) {
+        tag(buffer, 1, 'P');
+        buffer.put(SEPARATOR);
+        putMarket(buffer, msg.getMarket());
+    }
+
+    private static void encodeDepthMessage(Message msg, ByteBuffer buffer) {
+        tag(buffer, 1, 'L');
+        buffer.put(SEPARATOR);
+        putMarket(buffer, msg.getMarket());
+        buffer.put(SEPARATOR);
+        tag(buffer, 7, msg.getDepth());
+        buffer.put(SEPARATOR);
+        putDepthType(buffer, msg.getDepthType() != null ? msg.getDepthType() : DepthType.L2);
+    }
+
+    private static void encodeMassCancelMessage(Message msg, ByteBuffer buffer) {
+        //Side and Market are optional filters, without them all the Orders of the session are cancelled
+        tag(buffer, 1, 'C');
+        if (msg.getOrderSide() != null) {
+            buffer.put(SEPARATOR);
+            putSide(buffer, msg);
+        }
+        if (msg.getMarket() != null) {
+            buffer.put(SEPARATOR);
+            putMarket(buffer, msg.getMarket());
         }
-        return builder.toString();
     }
 
-    private static String encodeAddMessage(Message msg) {
-        StringBuilder builder = new StringBuilder("1=A").append(DELIMITER)
-                .append(encodeSide(msg)).append(DELIMITER)
-                .append(encodePrice(msg)).append(DELIMITER)
-                .append(encodeAmount(msg)).append(DELIMITER)
-                .append(encodeMarket(msg));
-        return builder.toString();
+    private static void encodeGapMessage(Message msg, ByteBuffer buffer) {
+        tag(buffer, 1, 'G');
+        buffer.put(SEPARATOR);
+        tag(buffer, 12, msg.getDropped());
     }
 
-    private static String encodeDeleteMessage(Message msg) {
-        StringBuilder builder = new StringBuilder("1=D").append(DELIMITER)
-                .append(encodeOrderId(msg));
-        return builder.toString();
+    private static void encodeLogonMessage(Message msg, ByteBuffer buffer) {
+        tag(buffer, 1, 'O');
+        buffer.put(SEPARATOR);
+        putTag(buffer, 13);
+        putAscii(buffer, String.valueOf(msg.getSessionName()));
+        buffer.put(SEPARATOR);
+        tag(buffer, 15, msg.getBeginSequence());
     }
 
-    private static String encodeModifyMessage(Message msg) {
-        StringBuilder builder = new StringBuilder("1=M").append(DELIMITER)
-                .append(encodeAmount(msg)).append(DELIMITER)
-                .append(encodeOrderId(msg));
-        return builder.toString();
+    private static void encodeResendRequestMessage(Message msg, ByteBuffer buffer) {
+        tag(buffer, 1, 'R');
+        buffer.put(SEPARATOR);
+        tag(buffer, 15, msg.getBeginSequence());
+        buffer.put(SEPARATOR);
+        tag(buffer, 16, msg.getEndSequence());
     }
 
-    private static String encodePrintMessage(Message msg) {
-        StringBuilder builder = new StringBuilder("1=P").append(DELIMITER)
-                .append(encodeMarket(msg));
-        return builder.toString();
+    private static void encodeTradingPhaseMessage(Message msg, ByteBuffer buffer) {
+        tag(buffer, 1, 'T');
+        buffer.put(SEPARATOR);
+        putMarket(buffer, msg.getMarket());
+        buffer.put(SEPARATOR);
+        tag(buffer, 17, switch (msg.getTradingPhase()) {
+            case CONTINUOUS -> 'C';
+            case AUCTION -> 'A';
+        });
     }
 
-    private static String encodeSide(Message msg) {
-        return switch (msg.getOrderSide()) {
-            case BUY -> "2=B";
-            case SELL -> "2=S";
-        };
+    private static void encodeExecutionReportMessage(Message msg, ByteBuffer buffer) {
+        tag(buffer, 1, 'E');
+        buffer.put(SEPARATOR);
+        putOrderId(buffer, msg.getOrderId());
+        buffer.put(SEPARATOR);
+        tag(buffer, 20, switch (msg.getOrderStatus()) {
+            case NEW -> '0';
+            case PARTIALLY_FILLED -> '1';
+            case FILLED -> '2';
+            case CANCELLED -> '4';
+            case REPLACED -> '5';
+            case REJECTED -> '8';
+        });
+        buffer.put(SEPARATOR);
+        tag(buffer, 4, msg.getAmount());
     }
 
-    private static String encodePrice(Message msg) {
-        return "3=" + msg.getPrice();
+    private static void putSide(ByteBuffer buffer, Message msg) {
+        tag(buffer, 2, switch (msg.getOrderSide()) {
+            case BUY -> 'B';
+            case SELL -> 'S';
+        });
     }
 
-    private static String encodeAmount(Message msg) {
-        return "4=" + msg.getAmount();
+    private static void putDepthType(ByteBuffer buffer, DepthType depthType) {
+        tag(buffer, 8, switch (depthType) {
+            case L2 -> '2';
+            case L3 -> '3';
+        });
     }
 
-    private static String encodeOrderId(Message msg) {
-        return "5=" + Optional.ofNullable(msg.getOrderId()).orElse(new UUID(0L, 0L));
+    private static void putMarket(ByteBuffer buffer, Market market) {
+        putTag(buffer, 6);
+        buffer.put((market != null ? market : Market.NONE).getSymbolBytes());
+    }
+
+    /**
+     * Write an Order id in its canonical form (8-4-4-4-12 hex digits)
+     *
+     * @param buffer
+     * @param orderId
+     */
+    private static void putOrderId(ByteBuffer buffer, UUID orderId) {
+        putTag(buffer, 5);
+        final UUID id = orderId != null ? orderId : NO_ORDER_ID;
+        putHex(buffer, id.getMostSignificantBits() >>> 32, 8);
+        buffer.put((byte) '-');
+        putHex(buffer, id.getMostSignificantBits() >>> 16, 4);
+        buffer.put((byte) '-');
+        putHex(buffer, id.getMostSignificantBits(), 4);
+        buffer.put((byte) '-');
+        putHex(buffer, id.getLeastSignificantBits() >>> 48, 4);
+        buffer.put((byte) '-');
+        putHex(buffer, id.getLeastSignificantBits(), 12);
+    }
+
+    private static void putHex(ByteBuffer buffer, long bits, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            buffer.put(HEX_DIGITS[(int) (bits >>> shift) & 0xF]);
+        }
+    }
+
+    private static void tag(ByteBuffer buffer, int tag, char value) {
+        putTag(buffer, tag);
+        buffer.put((byte) value);
+    }
+
+    private static void tag(ByteBuffer buffer, int tag, long value) {
+        putTag(buffer, tag);
+        putLong(buffer, value);
+    }
+
+    private static void tag(ByteBuffer buffer, int tag, double value) {
+        putTag(buffer, tag);
+        putDouble(buffer, value);
+    }
+
+    private static void putTag(ByteBuffer buffer, int tag) {
+        putLong(buffer, tag);
+        buffer.put((byte) '=');
+    }
+
+    /**
+     * Write the decimal digits of a long. They are written backwards with absolute puts, so the space is checked first
+     * to fail as the relative puts do
+     *
+     * @param buffer
+     * @param value
+     * @throws BufferOverflowException if the digits do not fit in the buffer
+     */
+    private static void putLong(ByteBuffer buffer, long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                putAscii(buffer, Long.toString(value));
+                return;
+            }
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        if (buffer.remaining() < digits) {
+            throw new BufferOverflowException();
+        }
+        final int end = buffer.position() + digits;
+        for (int index = end - 1; index >= buffer.position(); index--) {
+            buffer.put(index, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * Write a double as {@link Double#toString(double)} does. In the plain range, the shortest number of decimals
+     * that parses back to the same double is found with exact long arithmetic, since an integer below 2^53 divided by
+     * an exact power of ten is rounded as the parser rounds the decimal
+     *
+     * @param buffer
+     * @param value
+     */
+    private static void putDouble(ByteBuffer buffer, double value) {
+        final double magnitude = Math.abs(value);
+        if (Double.doubleToRawLongBits(value) == 0) {
+            buffer.put((byte) '0').put((byte) '.').put((byte) '0');
+            return;
+        }
+        if (magnitude >= MIN_PLAIN_DOUBLE && magnitude < MAX_PLAIN_DOUBLE) {
+            for (int decimals = 0; decimals < POWERS_OF_TEN.length; decimals++) {
+                final long digits = Math.round(magnitude * POWERS_OF_TEN[decimals]);
+                if (digits / (double) POWERS_OF_TEN[decimals] == magnitude) {
+                    if (value < 0) {
+                        buffer.put((byte) '-');
+                    }
+                    putLong(buffer, digits / POWERS_OF_TEN[decimals]);
+                    buffer.put((byte) '.');
+                    if (decimals == 0) {
+                        buffer.put((byte) '0');
+                        return;
+                    }
+                    final long fraction = digits % POWERS_OF_TEN[decimals];
+                    for (int zeros = decimals - 1; zeros > 0 && fraction < POWERS_OF_TEN[zeros]; zeros--) {
+                        buffer.put((byte) '0');
+                    }
+                    putLong(buffer, fraction);
+                    return;
+                }
+            }
+        }
+        putAscii(buffer, Double.toString(value));
+    }
+
+    private static void putAscii(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            buffer.put((byte) value.charAt(i));
+        }
     }
 
-    private static String encodeMarket(Message msg) {
-        return "6=" + Optional.ofNullable(msg.getMarket()).orElse(Market.NONE);
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
     }
 }
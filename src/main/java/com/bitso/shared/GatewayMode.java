@@ -0,0 +1,15 @@
+package com.bitso.shared;
+
+/**
+ * Modes of the Exchange to receive clients connections and messages
+ * <ul>
+ *     <li>SELECTOR: One thread polling all the non-blocking connections with a NIO Selector</li>
+ *     <li>VIRTUAL_THREADS: One virtual thread per connection doing blocking reads (JDK 21+, platform threads on
+ *     older JVMs)</li>
+ * </ul>
+ *
+ * @author Andres Ortiz
+ */
+public enum GatewayMode {
+    SELECTOR, VIRTUAL_THREADS
+}
@@ -0,0 +1,21 @@
+package com.bitso.shared;
+
+/**
+ * Strategies of an event loop of the Exchange (e.g. the Selector thread) to wait when there is no work, from the
+ * lowest CPU usage to the lowest wake-up latency
+ * <ul>
+ *     <li>BLOCKING: Block in the kernel until there is work, e.g. {@code Selector.select()}. Each wake-up pays the
+ *     latency of the scheduler. Suited for shared machines</li>
+ *     <li>YIELDING: Poll without blocking and yield the CPU to other threads between polls</li>
+ *     <li>BACKOFF: Poll without blocking, spinning first, then yielding, then parking for exponentially longer periods
+ *     while there is no work</li>
+ *     <li>BUSY_SPIN: Poll without blocking in a tight loop with {@code Thread.onSpinWait()}, burning a whole core.
+ *     Suited for latency-sensitive deployments with the thread pinned to an isolated core</li>
+ * </ul>
+ * See {@link Idler}.
+ *
+ * @author Andres Ortiz
+ */
+public enum IdleStrategy {
+    BLOCKING, YIELDING, BACKOFF, BUSY_SPIN
+}
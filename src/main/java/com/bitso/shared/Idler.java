@@ -0,0 +1,98 @@
+package com.bitso.shared;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies an {@link IdleStrategy} to an event loop. It keeps the state of the backoff, so each event loop has its own.
+ * Not thread-safe.
+ *
+ * @author Andres Ortiz
+ */
+public class Idler {
+
+    private static final int MAX_SPINS = 100;
+    private static final int MAX_YIELDS = 10;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final IdleStrategy strategy;
+
+    /**
+     * Max time a blocking select waits, 0 to wait for a key without limit
+     */
+    private final long selectTimeoutMillis;
+    private int spins;
+    private int yields;
+    private long parkNanos = MIN_PARK_NANOS;
+
+    public Idler(IdleStrategy strategy) {
+        this(strategy, 0);
+    }
+
+    /**
+     * @param strategy
+     * @param selectTimeoutMillis max time a blocking select waits, so the loop also polls sources that a Selector
+     *                            cannot wait for, 0 to wait for a key without limit
+     */
+    public Idler(IdleStrategy strategy, long selectTimeoutMillis) {
+        this.strategy = strategy;
+        this.selectTimeoutMillis = selectTimeoutMillis;
+    }
+
+    /**
+     * Select the keys of a Selector ready for I/O, blocking or polling according to the strategy. A polling loop
+     * calls {@link #idle(int)} with the work of the whole iteration afterwards
+     *
+     * @param selector
+     * @return number of keys selected
+     * @throws IOException
+     */
+    public int select(Selector selector) throws IOException {
+        if (strategy == IdleStrategy.BLOCKING) {
+            return selectTimeoutMillis > 0 ? selector.select(selectTimeoutMillis) : selector.select();
+        }
+        return selector.selectNow();
+    }
+
+    /**
+     * Wait according to the strategy if the last iteration of the loop did no work, or reset the backoff otherwise
+     *
+     * @param workCount work done by the last iteration of the loop
+     */
+    public void idle(int workCount) {
+        if (workCount > 0) {
+            reset();
+            return;
+        }
+        switch (strategy) {
+            case BLOCKING -> {
+                //A blocking loop waits in its blocking call, e.g. Selector.select()
+            }
+            case BUSY_SPIN -> Thread.onSpinWait();
+            case YIELDING -> Thread.yield();
+            case BACKOFF -> backoff();
+        }
+    }
+
+    public void reset() {
+        spins = 0;
+        yields = 0;
+        parkNanos = MIN_PARK_NANOS;
+    }
+
+    private void backoff() {
+        if (spins < MAX_SPINS) {
+            spins++;
+            Thread.onSpinWait();
+        } else if (yields < MAX_YIELDS) {
+            yields++;
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.bitso.shared;
+
+import com.bitso.model.Market;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.bitso.shared.Config.MARKETS_FILE;
+
+/**
+ * Registry of the Markets listed on the Exchange, loaded at startup from a config file with one Market per line:
+ * {@code <symbol> <tickSize> <lotSize> [<auctionSeconds>]}, the last one for Markets matched by periodic call
+ * auctions. The file is {@code markets.conf} of the classpath unless
+ * {@code -Dmarkets=<path>} is given, so a listing is added without a recompile.
+ * <p>
+ * Each Market gets a dense id, in order of registration, to index its OrderBook in a plain array. Symbols are resolved
+ * with a precomputed open addressing table over the ASCII bytes of the symbol, so the decoder neither allocates nor
+ * goes through {@code String.hashCode} and {@code equals} of a map.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public class MarketRegistry {
+
+    private static MarketRegistry INSTANCE;
+
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    /**
+     * Markets indexed by id
+     */
+    private volatile Market[] markets = new Market[0];
+
+    /**
+     * Lookup table of Markets indexed by the hash of the symbol, with linear probing. Its length is a power of two at
+     * least twice the number of Markets, so there is always an empty slot to end a probe
+     */
+    private volatile Market[] table = new Market[2];
+    private volatile byte[][] symbols = new byte[2][];
+
+    /**
+     * Get Singleton instance
+     *
+     * @return
+     */
+    public static MarketRegistry getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new MarketRegistry();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * List a new Market at runtime. A symbol already listed keeps its Market
+     *
+     * @param symbol
+     * @param tickSize
+     * @param lotSize
+     * @return the Market of the symbol
+     */
+    public Market register(String symbol, double tickSize, double lotSize) {
+        return register(symbol, tickSize, lotSize, 0);
+    }
+
+    /**
+     * List a new Market at runtime matched by periodic call auctions. A symbol already listed keeps its Market
+     *
+     * @param symbol
+     * @param tickSize
+     * @param lotSize
+     * @param auctionSeconds interval of the call auctions, 0 for continuous matching
+     * @return the Market of the symbol
+     */
+    public synchronized Market register(String symbol, double tickSize, double lotSize, int auctionSeconds) {
+        Market market = get(symbol);
+        if (market != Market.NONE) {
+            return market;
+        }
+        market = new Market(markets.length, symbol, tickSize, lotSize, auctionSeconds);
+        Market[] newMarkets = Arrays.copyOf(markets, markets.length + 1);
+        newMarkets[market.getId()] = market;
+        rebuildTable(newMarkets);
+        markets = newMarkets;
+        log.info("Market {} listed with id {}, tick size {}, lot size {} and auction interval {}s", symbol, market.getId(), tickSize, lotSize, auctionSeconds);
+        return market;
+    }
+
+    /**
+     * Get a Market by its id
+     *
+     * @param id
+     * @return the Market or {@link Market#NONE} if there is no Market with that id
+     */
+    public Market get(int id) {
+        final Market[] markets = this.markets;
+        return id >= 0 && id < markets.length ? markets[id] : Market.NONE;
+    }
+
+    /**
+     * Get a Market by its symbol
+     *
+     * @param symbol
+     * @return the Market or {@link Market#NONE} if the symbol is not listed
+     */
+    public Market get(CharSequence symbol) {
+        final Market[] table = this.table;
+        final byte[][] symbols = this.symbols;
+        final int mask = table.length - 1;
+        int hash = FNV_OFFSET;
+        for (int i = 0; i < symbol.length(); i++) {
+            hash = (hash ^ (symbol.charAt(i) & 0xFF)) * FNV_PRIME;
+        }
+        for (int slot = hash & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            if (matches(symbols[slot], symbol)) {
+                return table[slot];
+            }
+        }
+        return Market.NONE;
+    }
+
+    /**
+     * Get a Market by the ASCII bytes of its symbol, e.g. straight from a received buffer
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return the Market or {@link Market#NONE} if the symbol is not listed
+     */
+    public Market get(byte[] bytes, int offset, int length) {
+        final Market[] table = this.table;
+        final byte[][] symbols = this.symbols;
+        final int mask = table.length - 1;
+        final int hash = hash(bytes, offset, length);
+        for (int slot = hash & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            if (Arrays.equals(symbols[slot], 0, symbols[slot].length, bytes, offset, offset + length)) {
+                return table[slot];
+            }
+        }
+        return Market.NONE;
+    }
+
+    /**
+     * Get all the Markets listed, ordered by id
+     *
+     * @return
+     */
+    public List<Market> getMarkets() {
+        return Collections.unmodifiableList(Arrays.asList(markets));
+    }
+
+    /**
+     * Get the number of Markets listed, which is also the next id to give
+     *
+     * @return
+     */
+    public int size() {
+        return markets.length;
+    }
+
+    private void rebuildTable(Market[] markets) {
+        final int capacity = Integer.highestOneBit(Math.max(1, markets.length) * 2 - 1) << 1;
+        final Market[] newTable = new Market[capacity];
+        final byte[][] newSymbols = new byte[capacity][];
+        final int mask = capacity - 1;
+        for (Market market : markets) {
+            final byte[] bytes = market.getSymbol().getBytes(StandardCharsets.US_ASCII);
+            int slot = hash(bytes, 0, bytes.length) & mask;
+            while (newTable[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = market;
+            newSymbols[slot] = bytes;
+        }
+        //Symbols first, a reader that sees the new table always sees its symbols
+        symbols = newSymbols;
+        table = newTable;
+    }
+
+    private static boolean matches(byte[] bytes, CharSequence symbol) {
+        if (bytes.length != symbol.length()) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != (byte) symbol.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a hash of the bytes of a symbol
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private void load() {
+        try (BufferedReader reader = open()) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] values = line.split("\\s+");
+                if (values.length != 3 && values.length != 4) {
+                    throw new IllegalArgumentException("Invalid Market listing: " + line);
+                }
+                final int auctionSeconds = values.length == 4 ? Integer.parseInt(values[3]) : 0;
+                register(values[0], Double.parseDouble(values[1]), Double.parseDouble(values[2]), auctionSeconds);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Markets could not be loaded", e);
+        }
+    }
+
+    private BufferedReader open() throws IOException {
+        if (MARKETS_FILE != null) {
+            return Files.newBufferedReader(Path.of(MARKETS_FILE), StandardCharsets.US_ASCII);
+        }
+        InputStream in = MarketRegistry.class.getResourceAsStream("/markets.conf");
+        if (in == null) {
+            throw new IOException("markets.conf not found in the classpath");
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    }
+
+    private MarketRegistry() {
+        load();
+    }
+}
@@ -0,0 +1,256 @@
+package com.bitso.shared;
+
+import com.bitso.model.Message;
+import com.bitso.model.MessageType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Bounded queue of the messages of a client connection waiting to be written to its socket.
+ * <p>
+ * The queue holds up to {@code capacity} bytes. When a new message does not fit, the {@link SlowConsumerPolicy} of the
+ * queue decides: conflate it with a queued message of the same key, drop it, or ask to disconnect the client. A
+ * message partially written to the socket is always queued, otherwise the stream of the client would be corrupted.
+ * <p>
+ * Each message carries the sequence of the last replicated command it reflects, and it is written only once that
+ * sequence is released (acknowledged by the replica, see {@code Replicator}). Without replication the sequence is 0.
+ * Messages resent from the journal of the session are queued as regions of its file, transferred to the socket
+ * without copying them.
+ * Not thread-safe: it is used under the lock of its connection.
+ *
+ * @author Andres Ortiz
+ */
+public class OutboundQueue {
+
+    /**
+     * Key of the messages that cannot be conflated
+     */
+    public static final int NO_KEY = -1;
+
+    /**
+     * Result of offering a message to the queue
+     */
+    public enum Result {
+        QUEUED, CONFLATED, DROPPED, DISCONNECT
+    }
+
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private int pendingBytes;
+
+    /**
+     * Messages dropped since the last GAP notification
+     */
+    private long dropped;
+
+    public OutboundQueue(int capacity, SlowConsumerPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Queue a copy of the remaining bytes of a message. A message with bytes already written (position greater
+     * than 0) is always queued
+     *
+     * @param message
+     * @param key      key to conflate market data messages (e.g. the Market of a Depth snapshot), or {@link #NO_KEY}
+     * @param sequence sequence to be released before the message is written
+     * @return
+     */
+    public Result offer(ByteBuffer message, int key, long sequence) {
+        final boolean started = message.position() > 0;
+        if (!started && key != NO_KEY && policy == SlowConsumerPolicy.CONFLATE && conflate(message, key, sequence)) {
+            return Result.CONFLATED;
+        }
+        if (!started && pendingBytes + message.remaining() > capacity) {
+            if (policy == SlowConsumerPolicy.DISCONNECT) {
+                return Result.DISCONNECT;
+            }
+            dropped++;
+            return Result.DROPPED;
+        }
+        if (!started) {
+            notifyGap(sequence);
+        }
+        add(copy(message), started ? NO_KEY : key, sequence);
+        return Result.QUEUED;
+    }
+
+    /**
+     * Queue a region of a file to be transferred to the channel, e.g. messages resent from a journal. It is always
+     * queued and released
+     *
+     * @param file
+     * @param position
+     * @param count
+     */
+    public void offer(FileChannel file, long position, long count) {
+        Entry entry = new Entry(null, NO_KEY, 0);
+        entry.file = file;
+        entry.position = position;
+        entry.end = position + count;
+        entry.length = (int) count;
+        entries.add(entry);
+        pendingBytes += entry.length;
+    }
+
+    /**
+     * Write the queued messages released until the channel does not accept more bytes. A blocking channel writes all
+     * of them
+     *
+     * @param channel
+     * @param released last sequence released
+     * @throws IOException
+     */
+    public void flush(WritableByteChannel channel, long released) throws IOException {
+        while (true) {
+            Entry entry = entries.peek();
+            if (entry == null) {
+                if (dropped == 0) {
+                    return;
+                }
+                //Drained after dropping messages, the client is told before anything else is sent
+                notifyGap(0);
+                continue;
+            }
+            if (entry.sequence > released) {
+                return;
+            }
+            if (entry.file != null) {
+                while (entry.position < entry.end) {
+                    final long transferred = entry.file.transferTo(entry.position, entry.end - entry.position, channel);
+                    if (transferred == 0) {
+                        return;
+                    }
+                    entry.position += transferred;
+                }
+            } else {
+                channel.write(entry.buffer);
+                if (entry.buffer.hasRemaining()) {
+                    return;
+                }
+            }
+            entries.poll();
+            pendingBytes -= entry.length;
+        }
+    }
+
+    /**
+     * Move the queued messages released to another queue, e.g. to write them outside the lock of the connection. The
+     * GAP notification of the messages dropped is moved as well once the queue is drained
+     *
+     * @param queue
+     * @param released last sequence released
+     */
+    public void drainTo(OutboundQueue queue, long released) {
+        while (true) {
+            Entry entry = entries.peek();
+            if (entry == null) {
+                if (dropped == 0) {
+                    return;
+                }
+                notifyGap(0);
+                continue;
+            }
+            if (entry.sequence > released) {
+                return;
+            }
+            entries.poll();
+            pendingBytes -= entry.length;
+            queue.entries.add(entry);
+            queue.pendingBytes += entry.length;
+        }
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty() && dropped == 0;
+    }
+
+    /**
+     * Check if there is a message ready to be written
+     *
+     * @param released last sequence released
+     * @return
+     */
+    public boolean isReleased(long released) {
+        Entry entry = entries.peek();
+        return entry != null ? entry.sequence <= released : dropped > 0;
+    }
+
+    public int getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Replace the queued message of the same key that has not started to be written. The stale message is removed
+     * and the new one is queued at the end. Only unsequenced messages (market data) have a key, so removing one does
+     * not leave a gap in the sequence numbers of the client
+     *
+     * @return false if there is no message to replace
+     */
+    private boolean conflate(ByteBuffer message, int key, long sequence) {
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.key == key && entry.buffer.position() == 0) {
+                iterator.remove();
+                pendingBytes -= entry.length;
+                add(copy(message), key, sequence);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queue a GAP message with the number of messages dropped, if any. It may exceed the capacity of the queue
+     */
+    private void notifyGap(long sequence) {
+        if (dropped == 0) {
+            return;
+        }
+        String gap = Encoder.encode(Message.builder().messageType(MessageType.GAP).dropped(dropped).build()) + Encoder.END_OF_MESSAGE;
+        dropped = 0;
+        add(ByteBuffer.wrap(gap.getBytes(StandardCharsets.US_ASCII)), NO_KEY, sequence);
+    }
+
+    private void add(ByteBuffer buffer, int key, long sequence) {
+        entries.add(new Entry(buffer, key, sequence));
+        pendingBytes += buffer.limit();
+    }
+
+    private static ByteBuffer copy(ByteBuffer message) {
+        ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+        copy.put(message).flip();
+        return copy;
+    }
+
+    private static final class Entry {
+
+        private final ByteBuffer buffer;
+        private final int key;
+        private final long sequence;
+        private int length;
+
+        /**
+         * Region of a file, instead of a buffer
+         */
+        private FileChannel file;
+        private long position;
+        private long end;
+
+        private Entry(ByteBuffer buffer, int key, long sequence) {
+            this.buffer = buffer;
+            this.key = key;
+            this.sequence = sequence;
+            this.length = buffer != null ? buffer.limit() : 0;
+        }
+    }
+}
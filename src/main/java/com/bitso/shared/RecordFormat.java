@@ -0,0 +1,15 @@
+package com.bitso.shared;
+
+/**
+ * Formats of the files of recorded messages
+ * <ul>
+ *     <li>TEXT: One encoded message per line</li>
+ *     <li>BINARY: Each encoded message is prefixed by its length as a 4 bytes int (big-endian)</li>
+ * </ul>
+ * The messages of a session carry its session id (tag 21), see {@link RecordedMessageWriter#write(String, long)}
+ *
+ * @author Andres Ortiz
+ */
+public enum RecordFormat {
+    TEXT, BINARY
+}
@@ -0,0 +1,144 @@
+package com.bitso.shared;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader of a file of recorded messages (see {@link RecordFormat}) through a memory-mapped {@link FileChannel}.
+ * <p>
+ * The file is mapped in windows, so files bigger than the max size of a {@link MappedByteBuffer} can be read. When a
+ * message does not fit in the rest of the current window, the next window is mapped from the start of that message.
+ *
+ * @author Andres Ortiz
+ */
+public class RecordedMessageReader implements Closeable {
+
+    private static final int WINDOW_SIZE = 256 * 1024 * 1024;
+    private static final int LENGTH_BYTES = Integer.BYTES;
+
+    private final FileChannel channel;
+    private final RecordFormat format;
+    private final long size;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private byte[] bytes = new byte[256];
+
+    /**
+     * Number of the last message read: its line in TEXT, its frame in BINARY
+     */
+    @Getter
+    private long line;
+
+    public RecordedMessageReader(Path path, RecordFormat format) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.format = format;
+        this.size = channel.size();
+        map(0);
+    }
+
+    /**
+     * Read the next message
+     *
+     * @return the encoded message, or {@code null} at the end of the file
+     * @throws IOException
+     */
+    public String next() throws IOException {
+        int length;
+        while ((length = format == RecordFormat.TEXT ? nextLine() : nextFrame()) == 0) {
+            //Skip empty lines
+        }
+        if (length < 0) {
+            return null;
+        }
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Copy the next line into {@link #bytes}
+     *
+     * @return length of the line, -1 at the end of the file
+     * @throws IOException
+     */
+    private int nextLine() throws IOException {
+        if (windowStart + window.position() >= size) {
+            return -1;
+        }
+        final int start = window.position();
+        int end = start;
+        while (true) {
+            if (end == window.limit()) {
+                if (windowStart + end >= size) {
+                    //Last line without a line feed
+                    break;
+                }
+                //The line continues in the next window
+                map(windowStart + start);
+                return nextLine();
+            }
+            if (window.get(end) == '\n') {
+                break;
+            }
+            end++;
+        }
+        line++;
+        int length = end - start;
+        if (length > 0 && window.get(end - 1) == '\r') {
+            length--;
+        }
+        copy(start, length);
+        window.position(Math.min(end + 1, window.limit()));
+        return length;
+    }
+
+    /**
+     * Copy the next length-prefixed frame into {@link #bytes}
+     *
+     * @return length of the frame, -1 at the end of the file
+     * @throws IOException
+     */
+    private int nextFrame() throws IOException {
+        final long position = windowStart + window.position();
+        if (position + LENGTH_BYTES > size) {
+            return -1;
+        }
+        if (window.remaining() < LENGTH_BYTES) {
+            map(position);
+        }
+        final int length = window.getInt(window.position());
+        if (position + LENGTH_BYTES + length > size) {
+            throw new IOException("Truncated frame at position " + position);
+        }
+        if (window.remaining() < LENGTH_BYTES + length) {
+            map(position);
+        }
+        copy(window.position() + LENGTH_BYTES, length);
+        window.position(window.position() + LENGTH_BYTES + length);
+        line++;
+        return length;
+    }
+
+    private void copy(int index, int length) {
+        if (length > bytes.length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        window.get(index, bytes, 0, length);
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
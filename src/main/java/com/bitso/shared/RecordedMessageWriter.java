@@ -0,0 +1,66 @@
+package com.bitso.shared;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writer of a file of recorded messages (see {@link RecordFormat}), to be replayed with {@link RecordedMessageReader}
+ *
+ * @author Andres Ortiz
+ */
+public class RecordedMessageWriter implements Closeable {
+
+    private final DataOutputStream out;
+    private final RecordFormat format;
+
+    public RecordedMessageWriter(Path path, RecordFormat format) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+        this.format = format;
+    }
+
+    /**
+     * Append an encoded message to the file
+     *
+     * @param message
+     * @throws IOException
+     */
+    public void write(String message) throws IOException {
+        write(message.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Append an encoded message of a session to the file, with its session id (tag 21), so the replay applies it to
+     * the same session, e.g. a MASS_CANCEL
+     *
+     * @param message
+     * @param sessionId 0 for a message without session
+     * @throws IOException
+     */
+    public void write(String message, long sessionId) throws IOException {
+        write(sessionId != 0 ? message + Encoder.DELIMITER + "21=" + sessionId : message);
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        if (format == RecordFormat.BINARY) {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            out.write(bytes);
+            out.write('\n');
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
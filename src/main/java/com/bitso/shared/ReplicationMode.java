@@ -0,0 +1,17 @@
+package com.bitso.shared;
+
+/**
+ * Roles of the Exchange in the hot-standby replication
+ * <ul>
+ *     <li>NONE: A single Exchange, without replication</li>
+ *     <li>PRIMARY: Serves the clients and streams the sequenced commands to the replica, whose acknowledgement
+ *     releases the responses</li>
+ *     <li>REPLICA: Applies the commands of the primary to its own OrderBooks, and takes over serving the clients when
+ *     the primary is lost</li>
+ * </ul>
+ *
+ * @author Andres Ortiz
+ */
+public enum ReplicationMode {
+    NONE, PRIMARY, REPLICA
+}
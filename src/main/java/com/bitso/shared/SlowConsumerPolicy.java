@@ -0,0 +1,18 @@
+package com.bitso.shared;
+
+/**
+ * Policies applied to a client connection that does not read its responses as fast as the Exchange writes them, when
+ * its outbound queue is full (see {@link OutboundQueue})
+ * <ul>
+ *     <li>CONFLATE: A new market data message replaces a queued one of the same Market that has not been sent yet.
+ *     Other messages are dropped as with DROP</li>
+ *     <li>DROP: New messages are dropped and the client is notified with a GAP message with the number of messages
+ *     dropped before its next message</li>
+ *     <li>DISCONNECT: The slow consumer is disconnected</li>
+ * </ul>
+ *
+ * @author Andres Ortiz
+ */
+public enum SlowConsumerPolicy {
+    CONFLATE, DROP, DISCONNECT
+}
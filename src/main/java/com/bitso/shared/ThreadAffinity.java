@@ -0,0 +1,55 @@
+package com.bitso.shared;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Pinning of threads to CPUs on Linux, without native libraries: the id of the native thread is read from
+ * {@code /proc/thread-self} and its affinity is set with {@code taskset}. Pinning a busy-spinning thread to a core
+ * isolated from the scheduler (e.g. {@code isolcpus}) avoids context switches and keeps its caches warm.
+ *
+ * @author Andres Ortiz
+ */
+@Slf4j
+public final class ThreadAffinity {
+
+    /**
+     * Pin the current thread to a list of CPUs
+     *
+     * @param cpus list of CPUs in the format of {@code taskset}, e.g. {@code 3} or {@code 2,3} or {@code 2-3}
+     * @return false if the thread could not be pinned, e.g. on another OS
+     */
+    public static boolean pin(String cpus) {
+        if (!System.getProperty("os.name").toLowerCase().contains("linux")) {
+            log.warn("Thread affinity is only supported on Linux, {} is not pinned", Thread.currentThread().getName());
+            return false;
+        }
+        try {
+            //Link to /proc/<pid>/task/<tid>
+            final Path task = Files.readSymbolicLink(Path.of("/proc/thread-self"));
+            final String tid = task.getFileName().toString();
+            Process process = new ProcessBuilder("taskset", "-p", "-c", cpus, tid)
+                    .redirectErrorStream(true)
+                    .start();
+            final String output = new String(process.getInputStream().readAllBytes()).trim();
+            if (process.waitFor() != 0) {
+                log.warn("Error pinning thread {} to CPUs {}: {}", Thread.currentThread().getName(), cpus, output);
+                return false;
+            }
+            log.info("Thread {} (tid {}) pinned to CPUs {}", Thread.currentThread().getName(), tid, cpus);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Error pinning thread {} to CPUs {}: {}", Thread.currentThread().getName(), cpus, e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private ThreadAffinity() {
+    }
+}
@@ -0,0 +1,185 @@
+package com.bitso.shared;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel: timers scheduled and cancelled in O(1), and expired by advancing the clock of the wheel.
+ * <p>
+ * The time is divided in ticks. Each of the {@link #LEVELS} levels has {@link #SLOTS} slots, a slot of level n
+ * spanning 256^n ticks, so the first level holds the timers of the next 256 ticks, the second one those of the next
+ * 65536 ticks, and so on. A timer goes to the lowest level that reaches its deadline, in a doubly linked list, and when
+ * the clock enters the span of a slot of a higher level its timers are cascaded to the lower levels. A timer further
+ * than the last level waits in the farthest slot and is cascaded again until it is reached. Not thread-safe.
+ *
+ * @param <T> type of the payload of the timers
+ * @author Andres Ortiz
+ */
+public class TimingWheel<T> {
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+
+    private final long tickMillis;
+    private final Timeout<T>[][] wheel;
+    private final int[] counts = new int[LEVELS];
+
+    /**
+     * Last tick expired
+     */
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        this.wheel = new Timeout[LEVELS][SLOTS];
+        for (Timeout<T>[] level : wheel) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                level[slot] = new Timeout<>(null, 0);
+                level[slot].next = level[slot];
+                level[slot].previous = level[slot];
+            }
+        }
+    }
+
+    /**
+     * Schedule a timer. It expires at the first tick at or after its deadline, or at the next tick if the deadline
+     * already passed
+     *
+     * @param deadlineMillis
+     * @param payload
+     * @return the timer, to cancel it
+     */
+    public Timeout<T> schedule(long deadlineMillis, T payload) {
+        Timeout<T> timeout = new Timeout<>(payload, Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1));
+        add(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Advance the clock of the wheel and expire the timers reached, in order of their deadline ticks
+     *
+     * @param nowMillis
+     * @param expired   consumer of the payload of each timer expired
+     */
+    public void advance(long nowMillis, Consumer<T> expired) {
+        final long nowTick = nowMillis / tickMillis;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, nowTick);
+            return;
+        }
+        while (currentTick < nowTick) {
+            if (counts[0] == 0) {
+                //Nothing expires before the first level wraps, skip to the tick before it
+                currentTick = Math.max(currentTick, Math.min(nowTick - 1, currentTick | MASK));
+            }
+            currentTick++;
+            cascade(1);
+            final Timeout<T> head = wheel[0][(int) (currentTick & MASK)];
+            while (head.next != head) {
+                Timeout<T> timeout = head.next;
+                timeout.unlink();
+                counts[0]--;
+                size--;
+                expired.accept(timeout.payload);
+            }
+        }
+    }
+
+    /**
+     * Number of timers scheduled
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Cascade the slot of a level whose span starts at the current tick, once the levels below wrapped
+     *
+     * @param level
+     */
+    private void cascade(int level) {
+        if (level == LEVELS || (currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+            return;
+        }
+        cascade(level + 1);
+        final Timeout<T> head = wheel[level][(int) ((currentTick >>> (SLOT_BITS * level)) & MASK)];
+        while (head.next != head) {
+            Timeout<T> timeout = head.next;
+            timeout.unlink();
+            counts[level]--;
+            add(timeout);
+        }
+    }
+
+    private void add(Timeout<T> timeout) {
+        final long delta = timeout.tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        //Beyond the last level, the timer waits in the farthest slot and is cascaded again until it is reached
+        final long tick = delta >= 1L << (SLOT_BITS * LEVELS) ? currentTick + (1L << (SLOT_BITS * LEVELS)) - 1 : timeout.tick;
+        final Timeout<T> head = wheel[level][(int) ((tick >>> (SLOT_BITS * level)) & MASK)];
+        timeout.wheel = this;
+        timeout.level = level;
+        timeout.previous = head.previous;
+        timeout.next = head;
+        head.previous.next = timeout;
+        head.previous = timeout;
+        counts[level]++;
+    }
+
+    /**
+     * Timer of a {@link TimingWheel}, a node of the list of its slot
+     *
+     * @param <T>
+     */
+    public static final class Timeout<T> {
+
+        private final T payload;
+        private final long tick;
+        private TimingWheel<T> wheel;
+        private int level;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+
+        private Timeout(T payload, long tick) {
+            this.payload = payload;
+            this.tick = tick;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        /**
+         * Cancel the timer in O(1)
+         *
+         * @return false if it already expired or was cancelled
+         */
+        public boolean cancel() {
+            if (wheel == null) {
+                return false;
+            }
+            wheel.counts[level]--;
+            wheel.size--;
+            unlink();
+            return true;
+        }
+
+        private void unlink() {
+            previous.next = next;
+            next.previous = previous;
+            previous = null;
+            next = null;
+            wheel = null;
+        }
+    }
+}